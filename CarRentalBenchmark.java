@@ -0,0 +1,1428 @@
+import java.lang.management.ManagementFactory;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Stand-alone benchmarks for the car rental engine. The project has no build tool, so this
+ * is a small JMH-style harness rather than a JMH module: every scenario is warmed up, then
+ * measured over fixed-length iterations, and reports throughput, average time and bytes
+ * allocated per operation (from the per-thread allocation counters).
+ *
+ *   javac -d bin CarRentalSystem.java CarRentalBenchmark.java
+ *   java -cp bin CarRentalBenchmark [scenario...]
+ *
+ * Two scenarios check rather than measure, and are the project's correctness gate: run
+ * them after every change, and treat a non-zero exit status as a failed build.
+ *   java -cp bin CarRentalBenchmark booking-stress overdue-check
+ * booking-stress has many threads renting and returning a small fleet and fails on a
+ * double-booked car or a duplicate rental ID; overdue-check drives the overdue scheduler
+ * on a hand-moved clock and fails on a wrong report or fee.
+ *
+ * Parameters are system properties with comma-separated values:
+ *   -Dfleet=1000,100000,1000000   cars in the fleet
+ *   -Dhistory=0,100000            completed rentals already on record
+ *   -Dthreads=1,8                 threads running the operation concurrently
+ *   -Darchive=false               keep completed rentals on the heap instead of archiving them
+ *   -Dwarmup=2 -Dmeasure=3 -DiterationMillis=1000
+ *   -Dbaseline.out=bench.csv      write the results as a baseline
+ *   -Dbaseline.in=bench.csv       compare against an earlier baseline
+ *   -Dclients=64 -DdurationSeconds=10   load generator settings for the http scenario
+ *   -DimportRows=5000000 -DimportStoreRows=500000   file sizes for the import scenario
+ *   -DexportRows=2000000          archived rentals behind the export scenario
+ *   -Dbranches=1,2,4,8            branch counts for the branches scenario
+ *   -DactiveRentals=100000,1000000   rentals out at once in the overdue scenario
+ *   -Dwriters=2                   booking threads running behind the readers in the snapshots scenario
+ *   -DjournalRecords=10000000     journal length replayed by the journal scenario's recovery
+ */
+public class CarRentalBenchmark {
+
+    private static final String[] TYPES = {"Sedan", "SUV", "Luxury", "Compact", "Electric"};
+    private static final String[] MAKES = {"Toyota", "Ford", "BMW", "Honda", "Tesla", "Audi", "Kia"};
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final Map<String, Operation> HOT_PATHS = new LinkedHashMap<>();
+
+    static {
+        HOT_PATHS.put("getAvailableCars", (f, rnd) -> {
+            int seen = 0;
+            for (CarRentalSystem.Car car : f.system.getAvailableCars()) {
+                if (++seen == 100) return car.getOrdinal();
+            }
+            return seen;
+        });
+        HOT_PATHS.put("rentCar+returnCar", (f, rnd) -> {
+            CarRentalSystem.Car car = f.cars[rnd.nextInt(f.cars.length)];
+            CarRentalSystem.Rental rental = f.system.rentCar(f.customers[rnd.nextInt(f.customers.length)], car, 3);
+            if (rental == null) return 0;
+            f.system.returnCar(rental.getRentalId());
+            return 1;
+        });
+        // One type-ahead keystroke each: a short prefix, top 20 matches
+        HOT_PATHS.put("searchCars", (f, rnd) -> {
+            String make = MAKES[rnd.nextInt(MAKES.length)];
+            return f.system.searchCars(make.substring(0, 1 + rnd.nextInt(make.length())), 20, true).size();
+        });
+        HOT_PATHS.put("searchCustomers", (f, rnd) -> {
+            String licence = "DL" + rnd.nextInt(f.customers.length);
+            return f.system.searchCustomers(licence.substring(0, 2 + rnd.nextInt(licence.length() - 1)), 20).size();
+        });
+        HOT_PATHS.put("getActiveRentals", (f, rnd) -> {
+            int seen = 0;
+            for (CarRentalSystem.Rental rental : f.system.getActiveRentals()) {
+                if (++seen == 100) return (int) rental.getSequence();
+            }
+            return seen;
+        });
+        // Opening a customer's record: the first page of their history plus what they have out
+        HOT_PATHS.put("customerHistory", (f, rnd) -> {
+            CarRentalSystem.Customer customer = f.customers[rnd.nextInt(f.customers.length)];
+            return f.system.getRentalHistory(customer, 0, 20).size() + f.system.getActiveRentals(customer).size();
+        });
+    }
+
+    /** One benchmarked call; the return value is consumed so the JIT cannot drop the work. */
+    interface Operation {
+        int run(Fixture fixture, ThreadLocalRandom random);
+    }
+
+    /** A populated carRe plus direct handles on its cars and customers. */
+    static class Fixture {
+        final CarRentalSystem.carRe system = new CarRentalSystem.carRe();
+        final CarRentalSystem.Car[] cars;
+        final CarRentalSystem.Customer[] customers;
+
+        Fixture(int fleetSize, int historySize) {
+            this(fleetSize, historySize, 1);
+        }
+
+        /** Cars are dealt round-robin to the given number of branches, named "B0", "B1", ... */
+        Fixture(int fleetSize, int historySize, int branches) {
+            if (Boolean.parseBoolean(System.getProperty("archive", "true"))) {
+                try {
+                    Path directory = Files.createTempDirectory("carrental-bench");
+                    system.attachArchive(new CarRentalSystem.RentalArchive(directory));
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteTree(directory)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            cars = new CarRentalSystem.Car[fleetSize];
+            for (int i = 0; i < fleetSize; i++) {
+                cars[i] = branches == 1 ? newCar(i) : newCar(i, "B" + i % branches);
+                system.addCar(cars[i]);
+            }
+            customers = new CarRentalSystem.Customer[Math.max(10, fleetSize / 10)];
+            for (int i = 0; i < customers.length; i++) {
+                customers[i] = new CarRentalSystem.Customer("C" + i, "Customer " + i, "DL" + i, "555-" + i);
+                system.addCustomer(customers[i]);
+            }
+            Random random = new Random(42);
+            for (int i = 0; i < historySize; i++) {
+                CarRentalSystem.Rental rental = system.rentCar(customers[random.nextInt(customers.length)],
+                        cars[random.nextInt(fleetSize)], 1 + random.nextInt(14));
+                if (rental != null) system.returnCar(rental.getRentalId());
+            }
+            // A tenth of the fleet is out on the road
+            for (int i = 0; i < fleetSize; i += 10) {
+                system.rentCar(customers[random.nextInt(customers.length)], cars[i], 1 + random.nextInt(14));
+            }
+        }
+    }
+
+    static class Result {
+        final String scenario;
+        final int fleet;
+        final int history;
+        final int threads;
+        final double opsPerSecond;
+        final double nanosPerOp;
+        final double bytesPerOp;
+
+        Result(String scenario, int fleet, int history, int threads,
+               double opsPerSecond, double nanosPerOp, double bytesPerOp) {
+            this.scenario = scenario;
+            this.fleet = fleet;
+            this.history = history;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        String key() { return scenario + "/" + fleet + "/" + history + "/" + threads; }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> scenarios = args.length == 0 ? List.of("hot-paths") : Arrays.asList(args);
+        for (String scenario : scenarios) {
+            switch (scenario) {
+                case "hot-paths":
+                    hotPaths();
+                    break;
+                case "booking-stress":
+                    bookingStress();
+                    break;
+                case "fleet":
+                    fleetRepresentation(100_000);
+                    break;
+                case "http":
+                    httpLoad();
+                    break;
+                case "import":
+                    bulkImport();
+                    break;
+                case "export":
+                    export();
+                    break;
+                case "analytics":
+                    analytics();
+                    break;
+                case "pricing":
+                    pricing();
+                    break;
+                case "metrics":
+                    metrics();
+                    break;
+                case "branches":
+                    branches();
+                    break;
+                case "feed":
+                    changeFeed();
+                    break;
+                case "overdue":
+                    overdue();
+                    break;
+                case "overdue-check":
+                    overdueCheck();
+                    break;
+                case "search":
+                    fleetSearch();
+                    break;
+                case "snapshots":
+                    snapshots();
+                    break;
+                case "journal":
+                    journal();
+                    break;
+                default:
+                    System.err.println("Unknown scenario: " + scenario);
+            }
+        }
+    }
+
+    static void hotPaths() throws Exception {
+        int[] fleets = intList("fleet", "1000,100000");
+        int[] histories = intList("history", "0,100000");
+        int[] threadCounts = intList("threads", "1," + Runtime.getRuntime().availableProcessors());
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-22s %9s %9s %7s %14s %12s %10s%n",
+                "benchmark", "fleet", "history", "threads", "ops/s", "ns/op", "B/op");
+        for (int fleet : fleets) {
+            for (int history : histories) {
+                Fixture fixture = new Fixture(fleet, history);
+                for (Map.Entry<String, Operation> op : HOT_PATHS.entrySet()) {
+                    for (int threads : threadCounts) {
+                        Result result = measure(op.getKey(), fixture, op.getValue(), fleet, history, threads);
+                        results.add(result);
+                        System.out.printf("%-22s %9d %9d %7d %14.0f %12.1f %10.1f%n", result.scenario,
+                                fleet, history, threads, result.opsPerSecond, result.nanosPerOp, result.bytesPerOp);
+                    }
+                }
+            }
+        }
+        String out = System.getProperty("baseline.out");
+        if (out != null) writeBaseline(Paths.get(out), results);
+        String in = System.getProperty("baseline.in");
+        if (in != null) compareWithBaseline(Paths.get(in), results);
+    }
+
+    static Result measure(String name, Fixture fixture, Operation op, int fleet, int history, int threads)
+            throws Exception {
+        int warmups = Integer.getInteger("warmup", 2);
+        int iterations = Integer.getInteger("measure", 3);
+        long iterationNanos = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("iterationMillis", 1000));
+        for (int i = 0; i < warmups; i++) runIteration(fixture, op, threads, iterationNanos);
+        long ops = 0;
+        long busyNanos = 0;
+        long bytes = 0;
+        long wallNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] sample = runIteration(fixture, op, threads, iterationNanos);
+            ops += sample[0];
+            busyNanos += sample[1];
+            bytes += sample[2];
+            wallNanos += sample[3];
+        }
+        return new Result(name, fleet, history, threads, ops / (wallNanos / 1e9),
+                (double) busyNanos / ops, (double) bytes / ops);
+    }
+
+    // Returns {operations, summed thread time, allocated bytes, wall time}
+    static long[] runIteration(Fixture fixture, Operation op, int threads, long iterationNanos) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        AtomicLong ops = new AtomicLong();
+        AtomicLong busy = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        AtomicInteger sink = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    return;
+                }
+                long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+                long begin = System.nanoTime();
+                long deadline = begin + iterationNanos;
+                long count = 0;
+                int consumed = 0;
+                long now;
+                do {
+                    for (int i = 0; i < 64; i++) consumed += op.run(fixture, random);
+                    count += 64;
+                    now = System.nanoTime();
+                } while (now < deadline);
+                busy.addAndGet(now - begin);
+                bytes.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore);
+                ops.addAndGet(count);
+                sink.addAndGet(consumed);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        long wallStart = System.nanoTime();
+        start.await();
+        for (Thread worker : workers) worker.join();
+        return new long[] {ops.get(), busy.get(), bytes.get(), System.nanoTime() - wallStart};
+    }
+
+    static void writeBaseline(Path file, List<Result> results) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("benchmark,fleet,history,threads,ops_per_s,ns_per_op,bytes_per_op");
+            for (Result r : results) {
+                out.printf(Locale.ROOT, "%s,%d,%d,%d,%.1f,%.2f,%.2f%n", r.scenario, r.fleet, r.history,
+                        r.threads, r.opsPerSecond, r.nanosPerOp, r.bytesPerOp);
+            }
+        }
+        System.out.println("Baseline written to " + file);
+    }
+
+    static void compareWithBaseline(Path file, List<Result> results) throws IOException {
+        Map<String, double[]> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            String[] cells = line.split(",");
+            if (cells.length < 7 || cells[0].equals("benchmark")) continue;
+            baseline.put(cells[0] + "/" + cells[1] + "/" + cells[2] + "/" + cells[3],
+                    new double[] {Double.parseDouble(cells[4]), Double.parseDouble(cells[6])});
+        }
+        System.out.println("== against " + file + " ==");
+        for (Result r : results) {
+            double[] old = baseline.get(r.key());
+            if (old == null) continue;
+            System.out.printf("%-40s throughput %+7.1f%%   alloc %+8.1f B/op%n", r.key(),
+                    (r.opsPerSecond / old[0] - 1) * 100, r.bytesPerOp - old[1]);
+        }
+    }
+
+    // Many threads booking a small fleet at once; exits with status 1 if a car is ever double-booked
+    static void bookingStress() throws Exception {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int cars = 64;
+        int attemptsPerThread = 200_000;
+        Fixture fixture = new Fixture(cars, 0);
+        for (CarRentalSystem.Rental rental : new ArrayList<>(fixture.system.getActiveRentals())) {
+            fixture.system.returnCar(rental.getRentalId());
+        }
+        Set<String> rentalIds = ConcurrentHashMap.newKeySet();
+        AtomicLong duplicateIds = new AtomicLong();
+        AtomicLong booked = new AtomicLong();
+        AtomicIntegerArray holders = new AtomicIntegerArray(cars);
+        AtomicLong overlaps = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            done.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    int index = random.nextInt(cars);
+                    CarRentalSystem.Rental rental = fixture.system.rentCar(
+                            fixture.customers[random.nextInt(fixture.customers.length)], fixture.cars[index], 1);
+                    if (rental == null) continue;
+                    booked.incrementAndGet();
+                    if (holders.incrementAndGet(index) != 1) overlaps.incrementAndGet();
+                    if (!rentalIds.add(rental.getRentalId())) duplicateIds.incrementAndGet();
+                    holders.decrementAndGet(index);
+                    fixture.system.returnCar(rental.getRentalId());
+                }
+            }));
+        }
+        try {
+            for (Future<?> f : done) f.get();
+        } finally {
+            // Otherwise a failed worker leaves the pool's threads holding the JVM open
+            pool.shutdownNow();
+        }
+        System.out.printf("booking-stress: %d threads, %d bookings, %d double-bookings, %d duplicate IDs%n",
+                threads, booked.get(), overlaps.get(), duplicateIds.get());
+        check(overlaps.get() == 0, "booking-stress: a car was booked twice at once");
+        check(duplicateIds.get() == 0, "booking-stress: a rental ID was handed out twice");
+    }
+
+    // Closed-loop load generator against the headless booking API on a local port
+    static void httpLoad() throws Exception {
+        int clients = Integer.getInteger("clients", 64);
+        long durationNanos = TimeUnit.SECONDS.toNanos(Integer.getInteger("durationSeconds", 10));
+        Fixture fixture = new Fixture(intList("fleet", "10000")[0], 0);
+        CarRentalSystem.BookingServer server = new CarRentalSystem.BookingServer(fixture.system, 0);
+        server.start();
+        String base = "http://localhost:" + server.getPort();
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        AtomicLong failures = new AtomicLong();
+        Thread[] workers = new Thread[clients];
+        long deadline = System.nanoTime() + durationNanos;
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            workers[c] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] samples = new long[1 << 16];
+                int n = 0;
+                while (System.nanoTime() < deadline) {
+                    String path;
+                    String method;
+                    int roll = random.nextInt(10);
+                    if (roll < 6) {
+                        method = "POST";
+                        path = "/rentals?customer=C" + random.nextInt(fixture.customers.length)
+                                + "&car=" + plate(random.nextInt(fixture.cars.length)) + "&days=2";
+                    } else if (roll < 9) {
+                        method = "GET";
+                        path = "/cars/available?limit=20";
+                    } else {
+                        method = "GET";
+                        path = "/rentals/active?limit=20";
+                    }
+                    long begin = System.nanoTime();
+                    try {
+                        StringBuilder body = new StringBuilder();
+                        int status = call(base + path, method, body);
+                        if (status >= 500) failures.incrementAndGet();
+                        if (method.equals("POST") && status == 200) {
+                            int start = body.indexOf("\"id\":\"") + 6;
+                            String id = body.substring(start, body.indexOf("\"", start));
+                            call(base + "/returns?rental=" + id, "POST", body);
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                    if (n == samples.length) samples = Arrays.copyOf(samples, n * 2);
+                    samples[n++] = System.nanoTime() - begin;
+                }
+                latencies[client] = samples;
+                counts[client] = n;
+            });
+            workers[c].start();
+        }
+        long started = System.nanoTime();
+        for (Thread worker : workers) worker.join();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        server.stop();
+
+        int total = Arrays.stream(counts).sum();
+        long[] all = new long[total];
+        int at = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, at, counts[c]);
+            at += counts[c];
+        }
+        Arrays.sort(all);
+        System.out.printf("http: %d clients, %d requests, %.0f req/s, p50 %.2f ms, p99 %.2f ms, %d failures%n",
+                clients, total, total / seconds, percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6,
+                failures.get());
+    }
+
+    // Plain HttpURLConnection keeps connections alive and costs far less CPU per call than HttpClient
+    static int call(String uri, String method, StringBuilder body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(uri).toURL().openConnection();
+        connection.setRequestMethod(method);
+        int status = connection.getResponseCode();
+        body.setLength(0);
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) body.append(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        return status;
+    }
+
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    // Heap per fleet and "available Electric cars under $90" latency, ArrayList<Car> vs FleetTable
+    static void fleetRepresentation(int fleetSize) {
+        System.out.println("== fleet representation, " + fleetSize + " cars ==");
+
+        long before = usedHeap();
+        List<CarRentalSystem.Car> objects = new ArrayList<>();
+        for (int i = 0; i < fleetSize; i++) {
+            CarRentalSystem.Car car = newCar(i);
+            if (i % 3 == 0) car.setAvailable(false);
+            objects.add(car);
+        }
+        long objectBytes = usedHeap() - before;
+
+        before = usedHeap();
+        FleetTable table = new FleetTable(fleetSize);
+        for (int i = 0; i < fleetSize; i++) {
+            int row = table.add(plate(i), MAKES[i % MAKES.length], "Model " + (i % 40),
+                    TYPES[i % TYPES.length], rate(i));
+            if (i % 3 == 0) table.setAvailable(row, false);
+        }
+        long tableBytes = usedHeap() - before;
+
+        int iterations = 200;
+        int matches = 0;
+        long started = System.nanoTime();
+        for (int it = 0; it < iterations; it++) {
+            int count = 0;
+            for (CarRentalSystem.Car car : objects) {
+                if (car.isAvailable() && "Electric".equals(car.getType()) && car.getDailyRate() < 90.0) count++;
+            }
+            matches = count;
+        }
+        double objectMicros = (System.nanoTime() - started) / 1e3 / iterations;
+
+        int tableMatches = 0;
+        started = System.nanoTime();
+        for (int it = 0; it < iterations; it++) {
+            tableMatches = table.select("Electric", 9000, true).length;
+        }
+        double tableMicros = (System.nanoTime() - started) / 1e3 / iterations;
+
+        System.out.printf("ArrayList<Car>: %8.1f KB heap, filter %8.1f us (%d matches)%n",
+                objectBytes / 1024.0, objectMicros, matches);
+        System.out.printf("FleetTable:     %8.1f KB heap, filter %8.1f us (%d matches)%n",
+                tableBytes / 1024.0, tableMicros, tableMatches);
+        // Keep both alive until after the measurements
+        java.lang.ref.Reference.reachabilityFence(objects);
+        java.lang.ref.Reference.reachabilityFence(table);
+    }
+
+    /**
+     * Struct-of-arrays fleet representation: one slot per car across parallel primitive
+     * columns, with make/model/type dictionary-encoded, rates in cents and availability
+     * as a bitset. Filters run as straight loops over the arrays instead of chasing a
+     * pointer per Car. {@link #view} wraps a row as a Car.
+     *
+     * The "fleet" scenario measures it against a list of Car objects. It is a prototype,
+     * not the store's representation, so it lives here: its views are allocated per call,
+     * carry no ordinal and are not known to any store.
+     *
+     * Appends are serialised; readers see every row below the size they read.
+     */
+    static class FleetTable {
+        private final StringDictionary makes = new StringDictionary();
+        private final StringDictionary models = new StringDictionary();
+        private final StringDictionary types = new StringDictionary();
+        private String[] plates;
+        private int[] carIds;
+        private int[] makeCodes;
+        private int[] modelCodes;
+        private int[] typeCodes;
+        private long[] rateCents;
+        // Fixed-size chunks that are never copied, so bit flips cannot race with growth
+        private volatile AtomicLongArray[] availableBits = new AtomicLongArray[0];
+        private volatile int size;
+
+        private static final int BIT_CHUNK_SHIFT = 16;
+        private static final int BIT_CHUNK_WORDS = 1 << (BIT_CHUNK_SHIFT - 6);
+
+        FleetTable(int initialCapacity) {
+            int capacity = Math.max(64, initialCapacity);
+            plates = new String[capacity];
+            carIds = new int[capacity];
+            makeCodes = new int[capacity];
+            modelCodes = new int[capacity];
+            typeCodes = new int[capacity];
+            rateCents = new long[capacity];
+            ensureBitChunks(capacity);
+        }
+
+        /** Appends a car and returns its row. Plates are not checked for duplicates here. */
+        synchronized int add(String plate, String make, String model, String type, double dailyRate) {
+            int row = size;
+            if (row == plates.length) grow();
+            plates[row] = plate;
+            carIds[row] = row;
+            makeCodes[row] = makes.encode(make);
+            modelCodes[row] = models.encode(model);
+            typeCodes[row] = types.encode(type);
+            rateCents[row] = Math.round(dailyRate * 100);
+            setAvailable(row, true);
+            size = row + 1;
+            return row;
+        }
+
+        int add(CarRentalSystem.Car car) {
+            return add(car.getLicensePlate(), car.getMake(), car.getModel(), car.getType(), car.getDailyRate());
+        }
+
+        int size() { return size; }
+
+        boolean isAvailable(int row) {
+            return (bitChunk(row).get(bitWord(row)) & (1L << row)) != 0;
+        }
+
+        void setAvailable(int row, boolean available) {
+            long bit = 1L << row;
+            if (available) {
+                bitChunk(row).getAndAccumulate(bitWord(row), bit, (w, b) -> w | b);
+            } else {
+                bitChunk(row).getAndAccumulate(bitWord(row), bit, (w, b) -> w & ~b);
+            }
+        }
+
+        /** Clears the row's availability bit if it is set; the bitset's equivalent of Car.tryReserve. */
+        boolean tryReserve(int row) {
+            long bit = 1L << row;
+            AtomicLongArray chunk = bitChunk(row);
+            int word = bitWord(row);
+            while (true) {
+                long current = chunk.get(word);
+                if ((current & bit) == 0) return false;
+                if (chunk.compareAndSet(word, current, current & ~bit)) return true;
+            }
+        }
+
+        /** Sets the row's availability bit if it is clear; the bitset's equivalent of Car.release. */
+        boolean tryRelease(int row) {
+            long bit = 1L << row;
+            AtomicLongArray chunk = bitChunk(row);
+            int word = bitWord(row);
+            while (true) {
+                long current = chunk.get(word);
+                if ((current & bit) != 0) return false;
+                if (chunk.compareAndSet(word, current, current | bit)) return true;
+            }
+        }
+
+        private AtomicLongArray bitChunk(int row) { return availableBits[row >>> BIT_CHUNK_SHIFT]; }
+
+        private static int bitWord(int row) { return (row >>> 6) & (BIT_CHUNK_WORDS - 1); }
+
+        /**
+         * Rows matching the type (null for any), strictly under the rate cap and, if asked,
+         * currently available.
+         */
+        int[] select(String type, long maxRateCentsExclusive, boolean availableOnly) {
+            int n = size;
+            int typeCode = type == null ? -1 : types.lookup(type);
+            if (type != null && typeCode < 0) return new int[0];
+            int[] typeColumn = typeCodes;
+            long[] rateColumn = rateCents;
+            int[] matches = new int[Math.min(n, 1024)];
+            int count = 0;
+            for (int row = 0; row < n; row++) {
+                if (typeCode >= 0 && typeColumn[row] != typeCode) continue;
+                if (rateColumn[row] >= maxRateCentsExclusive) continue;
+                if (availableOnly && !isAvailable(row)) continue;
+                if (count == matches.length) matches = Arrays.copyOf(matches, count * 2);
+                matches[count++] = row;
+            }
+            return Arrays.copyOf(matches, count);
+        }
+
+        /** A new Car backed by the given row; reads go straight to the columns. */
+        CarRentalSystem.Car view(int row) {
+            if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+            return new CarView(this, row);
+        }
+
+        String getPlate(int row) { return plates[row]; }
+        int getCarId(int row) { return carIds[row]; }
+        String getMake(int row) { return makes.decode(makeCodes[row]); }
+        String getModel(int row) { return models.decode(modelCodes[row]); }
+        String getType(int row) { return types.decode(typeCodes[row]); }
+        long getRateCents(int row) { return rateCents[row]; }
+
+        private void grow() {
+            int capacity = plates.length * 2;
+            plates = Arrays.copyOf(plates, capacity);
+            carIds = Arrays.copyOf(carIds, capacity);
+            makeCodes = Arrays.copyOf(makeCodes, capacity);
+            modelCodes = Arrays.copyOf(modelCodes, capacity);
+            typeCodes = Arrays.copyOf(typeCodes, capacity);
+            rateCents = Arrays.copyOf(rateCents, capacity);
+            ensureBitChunks(capacity);
+        }
+
+        private void ensureBitChunks(int capacity) {
+            int needed = ((capacity - 1) >>> BIT_CHUNK_SHIFT) + 1;
+            if (needed <= availableBits.length) return;
+            AtomicLongArray[] chunks = Arrays.copyOf(availableBits, needed);
+            for (int i = availableBits.length; i < needed; i++) chunks[i] = new AtomicLongArray(BIT_CHUNK_WORDS);
+            availableBits = chunks;
+        }
+
+        /** Car over one table row, holding nothing but the row and its plate. */
+        static class CarView extends CarRentalSystem.Car {
+            private final FleetTable table;
+            private final int row;
+
+            CarView(FleetTable table, int row) {
+                super(table.getPlate(row), table.getMake(row), table.getModel(row), table.getType(row),
+                        table.getRateCents(row) / 100.0);
+                this.table = table;
+                this.row = row;
+            }
+
+            @Override public String getMake() { return table.getMake(row); }
+            @Override public String getModel() { return table.getModel(row); }
+            @Override public String getType() { return table.getType(row); }
+            @Override public double getDailyRate() { return table.getRateCents(row) / 100.0; }
+            @Override public boolean isAvailable() { return table.isAvailable(row); }
+            @Override public void setAvailable(boolean available) { table.setAvailable(row, available); }
+            @Override public boolean tryReserve() { return table.tryReserve(row); }
+            @Override public boolean release() { return table.tryRelease(row); }
+
+            int getRow() { return row; }
+        }
+    }
+
+    /** Maps repeated strings to small int codes and back. */
+    static class StringDictionary {
+        private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] values = new String[16];
+        private int size;
+
+        synchronized int encode(String value) {
+            Integer code = codes.get(value);
+            if (code != null) return code;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size] = value;
+            codes.put(value, size);
+            return size++;
+        }
+
+        /** The code for a value, or -1 if it has never been encoded. */
+        int lookup(String value) {
+            Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        String decode(int code) { return values[code]; }
+
+        synchronized int size() { return size; }
+    }
+
+    /**
+     * Bulk import throughput. The big files go through the importer's parse and validate
+     * pipeline into a counting sink, which shows the importer's own rate and that its heap
+     * stays flat; a smaller file then goes all the way into a carRe.
+     */
+    static void bulkImport() throws IOException {
+        int rows = intList("importRows", "5000000")[0];
+        int storeRows = intList("importStoreRows", "500000")[0];
+        Path directory = Files.createTempDirectory("carrental-import");
+        try {
+            CarRentalSystem.BulkImporter importer = new CarRentalSystem.BulkImporter();
+            for (CarRentalSystem.BulkImporter.Format format : CarRentalSystem.BulkImporter.Format.values()) {
+                Path file = directory.resolve("cars." + format.name().toLowerCase(Locale.ROOT));
+                writeCarFile(file, format, rows);
+                long[] accepted = new long[1];
+                long before = usedHeap();
+                CarRentalSystem.ImportReport report = importer.importCars(file, format, batch -> {
+                    accepted[0] += batch.size();
+                    boolean[] all = new boolean[batch.size()];
+                    Arrays.fill(all, true);
+                    return all;
+                });
+                long heapGrowth = usedHeap() - before;
+                System.out.printf("import %-6s parse+validate: %s, heap %+.1f MB, file %.0f MB%n", format, report,
+                        heapGrowth / 1048576.0, Files.size(file) / 1048576.0);
+                Files.delete(file);
+            }
+            Path file = directory.resolve("cars.csv");
+            writeCarFile(file, CarRentalSystem.BulkImporter.Format.CSV, storeRows);
+            CarRentalSystem.carRe system = new CarRentalSystem.carRe();
+            System.out.printf("import CSV    into carRe:      %s%n", importer.importCars(file, system));
+        } finally {
+            deleteTree(directory);
+        }
+    }
+
+    /**
+     * Exports an archived rental history in each format while another thread keeps renting
+     * and returning cars, reporting export rate, heap growth and the booking rate alongside.
+     */
+    static void export() throws Exception {
+        int rows = intList("exportRows", "2000000")[0];
+        Fixture fixture = new Fixture(100_000, rows);
+        Path directory = Files.createTempDirectory("carrental-export");
+        try {
+            CarRentalSystem.DataExporter exporter = new CarRentalSystem.DataExporter(fixture.system);
+            for (CarRentalSystem.DataExporter.Format format : CarRentalSystem.DataExporter.Format.values()) {
+                Path file = directory.resolve("rentals." + (format == CarRentalSystem.DataExporter.Format.BINARY
+                        ? "bin" : format.name().toLowerCase(Locale.ROOT)));
+                AtomicBoolean running = new AtomicBoolean(true);
+                AtomicLong bookings = new AtomicLong();
+                Thread booker = new Thread(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        CarRentalSystem.Rental rental = fixture.system.rentCar(
+                                fixture.customers[rnd.nextInt(fixture.customers.length)],
+                                fixture.cars[rnd.nextInt(fixture.cars.length)], 3);
+                        if (rental != null && fixture.system.returnCar(rental.getRentalId())) bookings.incrementAndGet();
+                    }
+                });
+                long before = usedHeap();
+                booker.start();
+                CarRentalSystem.ExportReport report = exporter.exportRentals(file, format);
+                long heapGrowth = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - before;
+                running.set(false);
+                booker.join();
+                System.out.printf("export %-6s %s, heap %+.1f MB, %.0f bookings/s alongside%n", format, report,
+                        heapGrowth / 1048576.0, bookings.get() * 1e9 / report.getNanos());
+                Files.delete(file);
+            }
+        } finally {
+            deleteTree(directory);
+        }
+    }
+
+    /**
+     * Cost of keeping the analytics current: rent+return with and without the engine
+     * listening, the time to backfill the history, and a dashboard read, which should not
+     * depend on the history size.
+     */
+    static void analytics() throws Exception {
+        int fleet = intList("fleet", "100000")[0];
+        System.out.printf("%-26s %9s %9s %14s %12s %10s%n", "benchmark", "fleet", "history", "ops/s", "ns/op", "B/op");
+        for (int history : intList("history", "100000,1000000")) {
+            Fixture fixture = new Fixture(fleet, history);
+            Operation rentAndReturn = HOT_PATHS.get("rentCar+returnCar");
+            print(measure("rentCar+returnCar", fixture, rentAndReturn, fleet, history, 1));
+            CarRentalSystem.RentalAnalytics analytics = new CarRentalSystem.RentalAnalytics(fixture.system);
+            long started = System.nanoTime();
+            long counted = analytics.rebuild();
+            System.out.printf("%-26s %9d %9d %,14d rentals in %.0f ms%n", "rebuild", fleet, history, counted,
+                    (System.nanoTime() - started) / 1e6);
+            print(measure("rentCar+returnCar+analytics", fixture, rentAndReturn, fleet, history, 1));
+            java.time.LocalDate today = java.time.LocalDate.now();
+            print(measure("dashboard", fixture, (f, rnd) -> (int) (analytics.getRevenueCents(today)
+                    + analytics.getRentalCount() + analytics.getAverageRentalDays()
+                    + analytics.getUtilization(TYPES[rnd.nextInt(TYPES.length)]) * 100), fleet, history, 1));
+            analytics.close();
+        }
+    }
+
+    /**
+     * Quote throughput: single (car, date range) quotes at random, and pages of 100 search
+     * candidates over one range, for flat pricing and for a compiled rate table with
+     * weekend, season, type and long-rental rules. Ranges start up to 60 days out and last
+     * 1-30 days; the target is well over 100k quotes per second.
+     */
+    static void pricing() throws Exception {
+        int fleet = intList("fleet", "100000")[0];
+        Fixture fixture = new Fixture(fleet, 0);
+        java.time.LocalDate today = java.time.LocalDate.now();
+        CarRentalSystem.PricingRules rules = new CarRentalSystem.PricingRules()
+                .weekendSurcharge(15)
+                .typeSurcharge("Luxury", 40)
+                .typeSurcharge("SUV", 10)
+                .season(today.plusDays(20), today.plusDays(50), 25)
+                .longRentalDiscount(7, 10)
+                .longRentalDiscount(21, 20);
+        Map<String, CarRentalSystem.PricingEngine> engines = new LinkedHashMap<>();
+        engines.put("flat", CarRentalSystem.PricingEngine.FLAT);
+        engines.put("rate-table", new CarRentalSystem.RateTablePricing(rules));
+        List<CarRentalSystem.Car> page = Arrays.asList(fixture.cars).subList(0, 100);
+        System.out.printf("%-26s %9s %9s %14s %12s %10s%n", "benchmark", "fleet", "history", "ops/s", "ns/op", "B/op");
+        for (Map.Entry<String, CarRentalSystem.PricingEngine> engine : engines.entrySet()) {
+            CarRentalSystem.PricingEngine pricing = engine.getValue();
+            long todayDay = today.toEpochDay();
+            print(measure("quote/" + engine.getKey(), fixture, (f, rnd) -> {
+                long start = todayDay + rnd.nextInt(60);
+                return (int) pricing.quoteCents(f.cars[rnd.nextInt(f.cars.length)], start, start + 1 + rnd.nextInt(30));
+            }, fleet, 0, 1));
+            print(measure("quote-page100/" + engine.getKey(), fixture, (f, rnd) -> {
+                java.time.LocalDate start = today.plusDays(rnd.nextInt(60));
+                return (int) pricing.quoteCents(page, start, start.plusDays(1 + rnd.nextInt(30)))[99];
+            }, fleet, 0, 1));
+        }
+    }
+
+    /**
+     * Overhead of StoreMetrics on the booking path: rent and return with and without metrics
+     * attached, at each thread count, and the bare histogram update. The view getters are
+     * not timed, so they are left out. Prints the collected
+     * report at the end as a sample of the text dump.
+     */
+    static void metrics() throws Exception {
+        int fleet = intList("fleet", "100000")[0];
+        int[] threadCounts = intList("threads", "1," + Runtime.getRuntime().availableProcessors());
+        Fixture fixture = new Fixture(fleet, 0);
+        CarRentalSystem.StoreMetrics metrics = new CarRentalSystem.StoreMetrics();
+        System.out.printf("%-34s %7s %14s %12s %10s%n", "benchmark", "threads", "ops/s", "ns/op", "B/op");
+        String name = "rentCar+returnCar";
+        for (int threads : threadCounts) {
+            fixture.system.attachMetrics(null);
+            Result bare = measure(name, fixture, HOT_PATHS.get(name), fleet, 0, threads);
+            fixture.system.attachMetrics(metrics);
+            Result timed = measure(name + "+metrics", fixture, HOT_PATHS.get(name), fleet, 0, threads);
+            for (Result result : List.of(bare, timed)) {
+                System.out.printf("%-34s %7d %14.0f %12.1f %10.1f%n", result.scenario, threads,
+                        result.opsPerSecond, result.nanosPerOp, result.bytesPerOp);
+            }
+            System.out.printf("%-34s %7d %14s %+12.1f%n", "  overhead", threads, "",
+                    timed.nanosPerOp - bare.nanosPerOp);
+        }
+        CarRentalSystem.LatencyHistogram histogram = new CarRentalSystem.LatencyHistogram();
+        Result record = measure("LatencyHistogram.record", fixture, (f, rnd) -> {
+            histogram.record(rnd.nextInt(1_000_000));
+            return 1;
+        }, fleet, 0, 1);
+        System.out.printf("%-34s %7d %14.0f %12.1f %10.1f%n", record.scenario, 1,
+                record.opsPerSecond, record.nanosPerOp, record.bytesPerOp);
+        System.out.println();
+        System.out.print(metrics.report());
+        fixture.system.attachMetrics(null);
+    }
+
+    /**
+     * Branch-local booking throughput as the store is split into more branches. Each thread
+     * is pinned to one branch and rents and returns only its cars, one thread per branch, so
+     * with enough cores the total should grow with the branch count; the same thread count
+     * against a single branch shows what the sharding itself buys. A regional search across
+     * every branch is timed alongside. The bookings then run again with snapshots on and a
+     * change feed subscriber draining, as in the application: snapshots commit a version of
+     * the booking's own branch only and the feed is striped by branch, so they should scale
+     * the same way.
+     */
+    static void branches() throws Exception {
+        int fleet = intList("fleet", "100000")[0];
+        int[] branchCounts = intList("branches", "1,2,4,8");
+        System.out.printf("%-38s %9s %8s %7s %14s %12s %10s%n",
+                "benchmark", "fleet", "branches", "threads", "ops/s", "ns/op", "B/op");
+        java.time.LocalDate from = java.time.LocalDate.now().plusDays(30);
+        java.time.LocalDate to = from.plusDays(3);
+        for (int branches : branchCounts) {
+            Fixture fixture = new Fixture(fleet, 0, branches);
+            // Cars of branch b sit at indexes b, b + branches, b + 2 * branches, ...
+            AtomicInteger nextSlot = new AtomicInteger();
+            ThreadLocal<Integer> slot = ThreadLocal.withInitial(nextSlot::getAndIncrement);
+            Operation local = (f, rnd) -> {
+                int branch = slot.get() % branches;
+                int perBranch = (f.cars.length - branch + branches - 1) / branches;
+                CarRentalSystem.Car car = f.cars[branch + branches * rnd.nextInt(perBranch)];
+                CarRentalSystem.Rental rental = f.system.rentCar(f.customers[rnd.nextInt(f.customers.length)], car, 3);
+                if (rental == null) return 0;
+                f.system.returnCar(rental.getRentalId());
+                return 1;
+            };
+            Operation unpinned = HOT_PATHS.get("rentCar+returnCar");
+            List<String> region = new ArrayList<>();
+            for (CarRentalSystem.Branch branch : fixture.system.getBranches()) region.add(branch.getName());
+            Operation regional = (f, rnd) -> {
+                CarRentalSystem.Car car = f.system.findAnyAvailableCar(TYPES[rnd.nextInt(TYPES.length)], from, to, region);
+                return car == null ? 0 : car.getOrdinal();
+            };
+            List<Map.Entry<String, Operation>> ops = List.of(Map.entry("rent+return/own-branch", local),
+                    Map.entry("rent+return/any-branch", unpinned), Map.entry("findAnyAvailableCar", regional));
+            for (Map.Entry<String, Operation> op : ops) {
+                Result result = measure(op.getKey(), fixture, op.getValue(), fleet, 0, branches);
+                System.out.printf("%-38s %9d %8d %7d %14.0f %12.1f %10.1f%n", result.scenario, fleet, branches,
+                        branches, result.opsPerSecond, result.nanosPerOp, result.bytesPerOp);
+            }
+            fixture.system.snapshot();
+            LongAdder seen = new LongAdder();
+            try (CarRentalSystem.ChangeFeed.Subscription subscription =
+                         fixture.system.getChangeFeed().subscribe("bench-branches", 1024, batch -> seen.add(batch.size()))) {
+                for (Map.Entry<String, Operation> op : ops.subList(0, 2)) {
+                    Result result = measure(op.getKey() + "+snapshots+feed", fixture, op.getValue(), fleet, 0, branches);
+                    System.out.printf("%-38s %9d %8d %7d %14.0f %12.1f %10.1f%n", result.scenario, fleet, branches,
+                            branches, result.opsPerSecond, result.nanosPerOp, result.bytesPerOp);
+                }
+                // A lapped subscriber would make these rows cheaper than real, so show what it kept up with
+                System.out.printf("  feed: %d changes delivered, %d missed, %d behind%n",
+                        subscription.getDelivered(), subscription.getMissed(), subscription.getLag());
+            }
+        }
+    }
+
+    /**
+     * What the change feed costs the booking path: rent+return with no subscriber, with one
+     * that keeps up, and with one that cannot (it sleeps on every batch) and so is lapped.
+     * The last two should cost the same, since publishers never wait for a reader.
+     */
+    static void changeFeed() throws Exception {
+        int fleet = intList("fleet", "100000")[0];
+        int[] threadCounts = intList("threads", "1," + Runtime.getRuntime().availableProcessors());
+        Fixture fixture = new Fixture(fleet, 0);
+        CarRentalSystem.ChangeFeed feed = fixture.system.getChangeFeed();
+        Operation rentAndReturn = HOT_PATHS.get("rentCar+returnCar");
+        System.out.printf("%-34s %7s %14s %12s %10s %12s %12s%n",
+                "benchmark", "threads", "ops/s", "ns/op", "B/op", "delivered", "missed");
+        for (int threads : threadCounts) {
+            print(measure("rent+return/no-subscriber", fixture, rentAndReturn, fleet, 0, threads), null);
+            LongAdder seen = new LongAdder();
+            try (CarRentalSystem.ChangeFeed.Subscription fast = feed.subscribe("bench-fast", 1024, batch -> seen.add(batch.size()))) {
+                print(measure("rent+return/fast-subscriber", fixture, rentAndReturn, fleet, 0, threads), fast);
+            }
+            try (CarRentalSystem.ChangeFeed.Subscription slow = feed.subscribe("bench-slow", 64, batch -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            })) {
+                print(measure("rent+return/slow-subscriber", fixture, rentAndReturn, fleet, 0, threads), slow);
+            }
+        }
+    }
+
+    /**
+     * The overdue scheduler over a large book of active rentals, ending 1-30 days out: the
+     * cost it adds to rent+return, the time to take in the rentals already out, and a month
+     * of daily ticks on a hand-driven clock. A tick should cost in proportion to the rentals
+     * falling due that day, not to the number out.
+     */
+    static void overdue() throws Exception {
+        System.out.printf("%-26s %9s %9s %14s %12s %10s%n", "benchmark", "fleet", "active", "ops/s", "ns/op", "B/op");
+        for (int active : intList("activeRentals", "100000,1000000")) {
+            int fleet = active * 2;
+            Fixture fixture = new Fixture(fleet, 0);
+            Random random = new Random(7);
+            // Odd cars go out too, on top of the tenth the fixture rents
+            for (int i = 1; i < fleet; i += 2) {
+                fixture.system.rentCar(fixture.customers[random.nextInt(fixture.customers.length)], fixture.cars[i],
+                        1 + random.nextInt(30));
+            }
+            int out = fixture.system.getActiveRentals().size();
+            Operation rentAndReturn = HOT_PATHS.get("rentCar+returnCar");
+            Result bare = measure("rent+return", fixture, rentAndReturn, fleet, out, 1);
+            System.out.printf("%-26s %9d %9d %14.0f %12.1f %10.1f%n", bare.scenario, fleet, out,
+                    bare.opsPerSecond, bare.nanosPerOp, bare.bytesPerOp);
+
+            ManualClock clock = new ManualClock();
+            long started = System.nanoTime();
+            CarRentalSystem.OverdueScheduler scheduler = new CarRentalSystem.OverdueScheduler(fixture.system, clock);
+            scheduler.tick();
+            System.out.printf("%-26s %9d %9d %,14d rentals in %.0f ms%n", "backfill", fleet, out,
+                    scheduler.getScheduledCount(), (System.nanoTime() - started) / 1e6);
+
+            scheduler.start(100, TimeUnit.MILLISECONDS);
+            Result watched = measure("rent+return+overdue", fixture, rentAndReturn, fleet, out, 1);
+            System.out.printf("%-26s %9d %9d %14.0f %12.1f %10.1f%n", watched.scenario, fleet, out,
+                    watched.opsPerSecond, watched.nanosPerOp, watched.bytesPerOp);
+            scheduler.close();
+
+            long worst = 0;
+            long total = 0;
+            long reports = 0;
+            for (int day = 1; day <= 31; day++) {
+                clock.advanceDays(1);
+                long tickStarted = System.nanoTime();
+                reports += scheduler.tick();
+                long elapsed = System.nanoTime() - tickStarted;
+                total += elapsed;
+                worst = Math.max(worst, elapsed);
+            }
+            System.out.printf("%-26s %9d %9d %,14d reports, %.1f ms/day avg, %.1f ms worst, %,d overdue%n",
+                    "daily tick x31", fleet, out, reports, total / 31 / 1e6, worst / 1e6, scheduler.getOverdueCount());
+        }
+    }
+
+    /**
+     * Drives the overdue scheduler a day at a time on a hand-moved clock and checks, every
+     * day, what it reports against what the dates say: nothing up to and on the end date,
+     * one overdue report the morning after, then a late fee for each further day, each
+     * priced as that one day. Every rental is due back today on its end date, which must
+     * stay quiet. They end tomorrow, the day after, past the first wheel level (64+ days)
+     * and past the second (4096+ days), once in mid-slot and once falling due on the very
+     * day a coarse slot cascades down. Exits with status 1 on the first mismatch.
+     */
+    static void overdueCheck() {
+        CarRentalSystem.carRe system = new CarRentalSystem.carRe();
+        CarRentalSystem.Customer customer = new CarRentalSystem.Customer("C0", "Customer 0", "DL0", "555-0");
+        system.addCustomer(customer);
+        // Late from end + 1, the first day of a 64- and a 4096-day slot for the aligned ones
+        long today = java.time.LocalDate.now().toEpochDay();
+        int[] lengths = {1, 2, 70, alignedLength(today, 64), 4100, alignedLength(today, 4096)};
+        CarRentalSystem.Rental[] rentals = new CarRentalSystem.Rental[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            CarRentalSystem.Car car = newCar(i);
+            system.addCar(car);
+            rentals[i] = system.rentCar(customer, car, lengths[i]);
+            check(rentals[i] != null, "could not rent " + car.getLicensePlate());
+        }
+        ManualClock clock = new ManualClock();
+        CarRentalSystem.OverdueScheduler scheduler = new CarRentalSystem.OverdueScheduler(system, clock);
+        Map<CarRentalSystem.Rental, Long> reportedOn = new HashMap<>();
+        Map<CarRentalSystem.Rental, Long> feesReported = new HashMap<>();
+        scheduler.addListener(new CarRentalSystem.OverdueScheduler.Listener() {
+            @Override
+            public void rentalOverdue(CarRentalSystem.Rental rental, java.time.LocalDate today) {
+                check(reportedOn.put(rental, today.toEpochDay()) == null, rental.getRentalId() + " reported overdue twice");
+            }
+
+            @Override
+            public void lateFeeAccrued(CarRentalSystem.Rental rental, long daysLate, long feeCents, long totalCents) {
+                check(feesReported.merge(rental, feeCents, Long::sum) == totalCents,
+                        rental.getRentalId() + " fee total disagrees with the fees reported");
+            }
+        });
+        CarRentalSystem.PricingEngine pricing = system.getPricingEngine();
+        long[] expectedFees = new long[rentals.length];
+        long last = rentals[rentals.length - 1].getEndDate().toEpochDay() + 3;
+        CarRentalSystem.Rental returned = rentals[1];
+        long returnDay = returned.getEndDate().toEpochDay() + 5;
+        int days = 0;
+        for (today = java.time.LocalDate.now(clock).toEpochDay(); today <= last; ) {
+            scheduler.tick();
+            int overdue = 0;
+            for (int i = 0; i < rentals.length; i++) {
+                CarRentalSystem.Rental rental = rentals[i];
+                long end = rental.getEndDate().toEpochDay();
+                String what = rental.getRentalId() + " (due " + rental.getEndDate() + ") on "
+                        + java.time.LocalDate.ofEpochDay(today);
+                if (!rental.isActive()) {
+                    check(scheduler.getLateFeeCents(rental) == 0 && scheduler.getLateDays(rental) == 0,
+                            what + ": still watched after its return");
+                    continue;
+                }
+                if (today > end) {
+                    expectedFees[i] += pricing.quoteCents(rental.getCar(), today - 1, today);
+                    overdue++;
+                }
+                check(scheduler.getLateDays(rental) == Math.max(0, today - end),
+                        what + ": " + scheduler.getLateDays(rental) + " days late");
+                check(scheduler.getLateFeeCents(rental) == expectedFees[i],
+                        what + ": fees " + scheduler.getLateFeeCents(rental) + " cents, expected " + expectedFees[i]);
+                Long reported = reportedOn.get(rental);
+                check(today > end ? reported != null && reported == end + 1 : reported == null,
+                        what + ": reported overdue on " + reported);
+            }
+            check(scheduler.getOverdueCount() == overdue, "overdue count " + scheduler.getOverdueCount()
+                    + ", expected " + overdue + " on " + java.time.LocalDate.ofEpochDay(today));
+            if (today == returnDay) system.returnCar(returned.getRentalId());
+            clock.advanceDays(1);
+            today = java.time.LocalDate.now(clock).toEpochDay();
+            days++;
+        }
+        scheduler.close();
+        System.out.printf("overdue-check: %d rentals over %,d daily ticks, reports and fees as expected%n",
+                rentals.length, days);
+    }
+
+    // Shortest rental of at least span days that is late from a day divisible by span
+    private static int alignedLength(long today, int span) {
+        long end = today + span;
+        end += Math.floorMod(-(end + 1), span);
+        return (int) (end - today);
+    }
+
+    // Correctness scenarios fail the run, not just the printout, so a script can gate on them
+    static void check(boolean condition, String failure) {
+        if (condition) return;
+        System.err.println("FAILED: " + failure);
+        System.exit(1);
+    }
+
+    /**
+     * "Available SUVs by price, first page" three ways: filtering and sorting
+     * getAvailableCars in the caller, a FleetSearch with its cache turned off, so every
+     * call intersects the bitmaps, and a cached FleetSearch over a quiet store. Then what
+     * keeping the indexes current adds to rent+return, and the search interleaved with
+     * bookings, where the cached result is dropped whenever an SUV goes out or comes back.
+     */
+    static void fleetSearch() throws Exception {
+        System.out.printf("%-26s %9s %9s %14s %12s %10s%n", "benchmark", "fleet", "history", "ops/s", "ns/op", "B/op");
+        for (int fleet : intList("fleet", "100000,1000000")) {
+            Fixture fixture = new Fixture(fleet, 0);
+            Operation rentAndReturn = HOT_PATHS.get("rentCar+returnCar");
+            print(measure("rent+return", fixture, rentAndReturn, fleet, 0, 1));
+            Comparator<CarRentalSystem.Car> byRate = Comparator.comparingDouble(CarRentalSystem.Car::getDailyRate);
+            print(measure("caller-side filter", fixture, (f, rnd) -> {
+                List<CarRentalSystem.Car> suvs = new ArrayList<>();
+                for (CarRentalSystem.Car car : f.system.getAvailableCars()) {
+                    if (car.getType().equals("SUV")) suvs.add(car);
+                }
+                suvs.sort(byRate);
+                return suvs.subList(0, Math.min(20, suvs.size())).size();
+            }, fleet, 0, 1));
+            CarRentalSystem.FleetSearch.Query suvsByRate = new CarRentalSystem.FleetSearch.Query()
+                    .type("SUV").availableOnly().sortBy(CarRentalSystem.FleetSearch.Sort.RATE);
+            CarRentalSystem.FleetSearch uncached = new CarRentalSystem.FleetSearch(fixture.system, 0);
+            print(measure("search/uncached", fixture, (f, rnd) -> uncached.search(suvsByRate, 0, 20).getCars().size(),
+                    fleet, 0, 1));
+            uncached.close();
+            CarRentalSystem.FleetSearch search = new CarRentalSystem.FleetSearch(fixture.system);
+            print(measure("search/cached", fixture, (f, rnd) -> search.search(suvsByRate, 0, 20).getCars().size(),
+                    fleet, 0, 1));
+            print(measure("rent+return/indexed", fixture, rentAndReturn, fleet, 0, 1));
+            print(measure("rent+return+search", fixture, (f, rnd) -> {
+                search.search(suvsByRate, 0, 20);
+                return rentAndReturn.run(f, rnd);
+            }, fleet, 0, 1));
+            System.out.printf("%-26s %9d %9d %,14d hits, %,d misses%n", "  cache", fleet, 0,
+                    search.getCacheHits(), search.getCacheMisses());
+            search.close();
+        }
+    }
+
+    /**
+     * Readers against a store under constant booking load. Each read is a small report that
+     * should add up: cars on the lot, rentals out, and the first 100 cars on the lot. From a
+     * snapshot the counts are constant time and nothing is locked, so reader throughput
+     * should grow with reader threads while the writers keep their pace; the same report
+     * over the live views walks the skip lists to count them, and its parts can disagree.
+     * Also shown: what versioning costs rent+return with no readers at all.
+     */
+    static void snapshots() throws Exception {
+        int fleet = intList("fleet", "100000")[0];
+        int writers = Integer.getInteger("writers", 2);
+        Fixture fixture = new Fixture(fleet, 0);
+        Operation rentAndReturn = HOT_PATHS.get("rentCar+returnCar");
+        System.out.printf("%-34s %7s %14s %12s %10s %14s%n", "benchmark", "threads", "ops/s", "ns/op", "B/op", "writes/s");
+        Result unversioned = measure("rent+return", fixture, rentAndReturn, fleet, 0, 1);
+        System.out.printf("%-34s %7d %14.0f %12.1f %10.1f%n", unversioned.scenario, 1,
+                unversioned.opsPerSecond, unversioned.nanosPerOp, unversioned.bytesPerOp);
+        long started = System.nanoTime();
+        fixture.system.snapshot();
+        System.out.printf("%-34s %7s %,14d cars in %.0f ms%n", "first snapshot", "", fleet, (System.nanoTime() - started) / 1e6);
+        Result versioned = measure("rent+return/versioned", fixture, rentAndReturn, fleet, 0, 1);
+        System.out.printf("%-34s %7d %14.0f %12.1f %10.1f%n", versioned.scenario, 1,
+                versioned.opsPerSecond, versioned.nanosPerOp, versioned.bytesPerOp);
+
+        Operation fromSnapshot = (f, rnd) -> {
+            CarRentalSystem.StoreSnapshot snapshot = f.system.snapshot();
+            return report(snapshot.getAvailableCars(), snapshot.getActiveRentals());
+        };
+        Operation fromLiveViews = (f, rnd) -> report(f.system.getAvailableCars(), f.system.getActiveRentals());
+        AtomicBoolean writing = new AtomicBoolean(true);
+        LongAdder writes = new LongAdder();
+        List<Thread> writerThreads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (writing.get()) writes.add(rentAndReturn.run(fixture, random));
+            }, "bench-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            writerThreads.add(writer);
+        }
+        try {
+            for (int readers : intList("threads", "1,2,4,8")) {
+                for (Map.Entry<String, Operation> op : List.of(Map.entry("report/snapshot", fromSnapshot),
+                        Map.entry("report/live-views", fromLiveViews))) {
+                    long writesBefore = writes.sum();
+                    long from = System.nanoTime();
+                    Result result = measure(op.getKey(), fixture, op.getValue(), fleet, 0, readers);
+                    double writesPerSecond = (writes.sum() - writesBefore) / ((System.nanoTime() - from) / 1e9);
+                    System.out.printf("%-34s %7d %14.0f %12.1f %10.1f %14.0f%n", result.scenario, readers,
+                            result.opsPerSecond, result.nanosPerOp, result.bytesPerOp, writesPerSecond);
+                }
+            }
+        } finally {
+            writing.set(false);
+            for (Thread writer : writerThreads) writer.join();
+        }
+    }
+
+    /**
+     * Journaled booking throughput, with and without waiting for the disk on every
+     * mutation, then the time to recover a store from a journal of journalRecords records
+     * with an archive attached, as a restart would.
+     */
+    static void journal() throws Exception {
+        int fleet = intList("fleet", "100000")[0];
+        int[] threadCounts = intList("threads", "1," + Runtime.getRuntime().availableProcessors());
+        long journalRecords = Long.getLong("journalRecords", 10_000_000L);
+        Operation rentAndReturn = HOT_PATHS.get("rentCar+returnCar");
+        Path directory = Files.createTempDirectory("carrental-journal");
+        try {
+            System.out.printf("%-34s %7s %14s %12s %10s %14s%n",
+                    "benchmark", "threads", "ops/s", "ns/op", "B/op", "mutations/s");
+            for (boolean syncCommits : new boolean[] {false, true}) {
+                Fixture fixture = new Fixture(fleet, 0);
+                Path journalDir = Files.createDirectory(directory.resolve("sync-" + syncCommits));
+                CarRentalSystem.RentalJournal journal = new CarRentalSystem.RentalJournal(journalDir, 100_000, syncCommits);
+                fixture.system.attachJournal(journal);
+                for (int threads : threadCounts) {
+                    Result result = measure("rent+return/journal" + (syncCommits ? "+sync" : ""),
+                            fixture, rentAndReturn, fleet, 0, threads);
+                    // A rent and a return are one journal record each
+                    System.out.printf("%-34s %7d %14.0f %12.1f %10.1f %14.0f%n", result.scenario, threads,
+                            result.opsPerSecond, result.nanosPerOp, result.bytesPerOp, result.opsPerSecond * 2);
+                }
+                journal.close();
+                deleteTree(journalDir);
+            }
+
+            Path journalDir = Files.createDirectory(directory.resolve("recovery"));
+            CarRentalSystem.carRe source = new CarRentalSystem.carRe();
+            CarRentalSystem.RentalArchive sourceArchive =
+                    new CarRentalSystem.RentalArchive(directory.resolve("recovery-archive"));
+            source.attachArchive(sourceArchive);
+            // No snapshots, so recovery replays every record
+            CarRentalSystem.RentalJournal journal = new CarRentalSystem.RentalJournal(journalDir, 0, false);
+            source.attachJournal(journal);
+            CarRentalSystem.Car[] cars = new CarRentalSystem.Car[fleet];
+            for (int i = 0; i < fleet; i++) {
+                cars[i] = newCar(i);
+                source.addCar(cars[i]);
+            }
+            CarRentalSystem.Customer[] customers = new CarRentalSystem.Customer[Math.max(10, fleet / 10)];
+            for (int i = 0; i < customers.length; i++) {
+                customers[i] = new CarRentalSystem.Customer("C" + i, "Customer " + i, "DL" + i, "555-" + i);
+                source.addCustomer(customers[i]);
+            }
+            long records = fleet + customers.length;
+            Random random = new Random(42);
+            // A tenth of the fleet stays out, the longest-running rental coming back as another goes out
+            ArrayDeque<CarRentalSystem.Rental> out = new ArrayDeque<>();
+            while (records < journalRecords) {
+                CarRentalSystem.Rental rental = source.rentCar(customers[random.nextInt(customers.length)],
+                        cars[random.nextInt(fleet)], 1 + random.nextInt(14));
+                if (rental == null) continue;
+                records++;
+                out.add(rental);
+                if (out.size() > fleet / 10 && source.returnCar(out.poll().getRentalId())) records++;
+            }
+            journal.close();
+            sourceArchive.close();
+            System.out.printf("%-34s %,d records, %.0f MB%n", "journal written", records,
+                    sizeOf(journalDir) / 1048576.0);
+
+            CarRentalSystem.carRe recovered = new CarRentalSystem.carRe();
+            CarRentalSystem.RentalArchive archive = new CarRentalSystem.RentalArchive(directory.resolve("archive"));
+            recovered.attachArchive(archive);
+            CarRentalSystem.RentalJournal reopened = new CarRentalSystem.RentalJournal(journalDir, 0, false);
+            CarRentalSystem.RentalJournal.RecoveryStats stats = reopened.recover(recovered);
+            System.out.printf("%-34s %s, %.0f records/s, %,d cars, %,d rentals out, %,d archived%n", "recovery",
+                    stats, stats.getRecords() * 1e9 / stats.getNanos(), recovered.getCars().size(),
+                    recovered.getActiveRentals().size(), archive.size());
+            reopened.close();
+            archive.close();
+        } finally {
+            deleteTree(directory);
+        }
+    }
+
+    static long sizeOf(Path root) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static int report(Collection<CarRentalSystem.Car> onLot, Collection<CarRentalSystem.Rental> out) {
+        int total = onLot.size() + out.size();
+        int listed = 0;
+        for (CarRentalSystem.Car car : onLot) {
+            if (listed++ == 100) break;
+            total += car.getOrdinal();
+        }
+        return total;
+    }
+
+    /** A clock that only moves when told to, so the overdue scenario can run a month in a second. */
+    static final class ManualClock extends java.time.Clock {
+        private volatile java.time.Instant now = java.time.Instant.now();
+
+        void advanceDays(int days) { now = now.plus(java.time.Duration.ofDays(days)); }
+
+        @Override
+        public java.time.ZoneId getZone() { return java.time.ZoneId.systemDefault(); }
+
+        @Override
+        public java.time.Clock withZone(java.time.ZoneId zone) { return this; }
+
+        @Override
+        public java.time.Instant instant() { return now; }
+    }
+
+    private static void print(Result result, CarRentalSystem.ChangeFeed.Subscription subscription) {
+        System.out.printf("%-34s %7d %14.0f %12.1f %10.1f %12s %12s%n", result.scenario, result.threads,
+                result.opsPerSecond, result.nanosPerOp, result.bytesPerOp,
+                subscription == null ? "-" : String.valueOf(subscription.getDelivered()),
+                subscription == null ? "-" : String.valueOf(subscription.getMissed()));
+    }
+
+    private static void print(Result result) {
+        System.out.printf("%-26s %9d %9d %14.0f %12.1f %10.1f%n", result.scenario, result.fleet, result.history,
+                result.opsPerSecond, result.nanosPerOp, result.bytesPerOp);
+    }
+
+    // One row in a hundred is invalid, so the error path is part of the measurement
+    static void writeCarFile(Path file, CarRentalSystem.BulkImporter.Format format, int rows) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            if (format == CarRentalSystem.BulkImporter.Format.CSV) out.println("licensePlate,make,model,type,dailyRate");
+            for (int i = 0; i < rows; i++) {
+                String rate = i % 100 == 99 ? "n/a" : String.valueOf(rate(i));
+                String model = "Model " + (i % 40);
+                if (format == CarRentalSystem.BulkImporter.Format.CSV) {
+                    out.println(plate(i) + "," + MAKES[i % MAKES.length] + "," + model + "," + TYPES[i % TYPES.length] + "," + rate);
+                } else {
+                    out.println("{\"licensePlate\":\"" + plate(i) + "\",\"make\":\"" + MAKES[i % MAKES.length]
+                            + "\",\"model\":\"" + model + "\",\"type\":\"" + TYPES[i % TYPES.length]
+                            + "\",\"dailyRate\":\"" + rate + "\"}");
+                }
+            }
+        }
+    }
+
+    static CarRentalSystem.Car newCar(int i) {
+        return newCar(i, CarRentalSystem.Car.DEFAULT_BRANCH);
+    }
+
+    static CarRentalSystem.Car newCar(int i, String branch) {
+        return new CarRentalSystem.Car(plate(i), MAKES[i % MAKES.length], "Model " + (i % 40),
+                TYPES[i % TYPES.length], rate(i), branch);
+    }
+
+    static String plate(int i) { return "P" + i; }
+
+    static double rate(int i) { return 30 + (i * 7919L % 9000) / 100.0; }
+
+    static int[] intList(String property, String defaults) {
+        return Arrays.stream(System.getProperty(property, defaults).split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).distinct().toArray();
+    }
+
+    static void deleteTree(Path root) {
+        try (java.util.stream.Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ignored) {
+            // best effort on exit
+        }
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
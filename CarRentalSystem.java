@@ -1,172 +1,6706 @@
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.awt.*;
 import java.awt.event.*;
+import java.time.Clock;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.function.Predicate;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 public class CarRentalSystem extends JFrame {
+    /** Failures on background threads (feeds, tickers, snapshots, the archive) are logged here, never printed. */
+    static final Logger LOG = Logger.getLogger("carrental");
+
+    static void reportFailure(String what, Throwable failure) {
+        LOG.log(Level.WARNING, what, failure);
+    }
     
     // Core system classes
     static class Car {
+        /** Branch of cars registered without one, e.g. from files written before there were branches. */
+        static final String DEFAULT_BRANCH = "Main";
+        private static final int AVAILABLE = 0;
+        private static final int RENTED = 1;
+        private static final AtomicIntegerFieldUpdater<Car> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Car.class, "state");
+        private static final AtomicIntegerFieldUpdater<Car> BOOKINGS =
+                AtomicIntegerFieldUpdater.newUpdater(Car.class, "bookings");
+
         private String licensePlate;
         private String make;
         private String model;
         private String type;
         private double dailyRate;
-        private boolean available;
+        private String branch;
+        private volatile int state;
+        private volatile int bookings;
+        private volatile boolean removed;
+        private int ordinal = -1;
+        private volatile ReservationCalendar calendar;
+
+        public Car(String licensePlate, String make, String model, String type, double dailyRate) {
+            this(licensePlate, make, model, type, dailyRate, DEFAULT_BRANCH);
+        }
+
+        public Car(String licensePlate, String make, String model, String type, double dailyRate, String branch) {
+            this.licensePlate = licensePlate;
+            this.make = make;
+            this.model = model;
+            this.type = type;
+            this.dailyRate = dailyRate;
+            this.branch = Objects.requireNonNull(branch);
+            this.state = AVAILABLE;
+        }
+
+        public String getLicensePlate() { return licensePlate; }
+        public String getMake() { return make; }
+        public String getModel() { return model; }
+        public String getType() { return type; }
+        public double getDailyRate() { return dailyRate; }
+        public String getBranch() { return branch; }
+        public boolean isAvailable() { return state == AVAILABLE; }
+        public void setAvailable(boolean available) { this.state = available ? AVAILABLE : RENTED; }
+
+        /** Atomically claims the car; only one caller can win for a given available car. */
+        public boolean tryReserve() { return STATE.compareAndSet(this, AVAILABLE, RENTED); }
+
+        public boolean release() { return STATE.compareAndSet(this, RENTED, AVAILABLE); }
+
+        /** Position in the fleet, assigned once by carRe.addCar; used for stable ordering. */
+        int getOrdinal() { return ordinal; }
+
+        /** Whether carRe has removed the car. It is kept as a tombstone so its rental history still resolves. */
+        public boolean isRemoved() { return removed; }
+
+        /** Booked date ranges for this car, current and future; created on first use. */
+        ReservationCalendar getCalendar() {
+            ReservationCalendar result = calendar;
+            if (result == null) {
+                synchronized (this) {
+                    if (calendar == null) calendar = new ReservationCalendar();
+                    result = calendar;
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%s %s (%s) - $%.2f/day", getMake(), getModel(), getLicensePlate(), getDailyRate());
+        }
+    }
+
+    static class Customer {
+        private static final AtomicIntegerFieldUpdater<Customer> BOOKINGS =
+                AtomicIntegerFieldUpdater.newUpdater(Customer.class, "bookings");
+
+        private String id;
+        private String name;
+        private String licenseNumber;
+        private String phone;
+        private int ordinal = -1;
+        private volatile int bookings;
+        private volatile boolean removed;
+
+        public Customer(String id, String name, String licenseNumber, String phone) {
+            this.id = id;
+            this.name = name;
+            this.licenseNumber = licenseNumber;
+            this.phone = phone;
+        }
+
+        public String getId() { return id; }
+        public String getName() { return name; }
+        public String getLicenseNumber() { return licenseNumber; }
+        public String getPhone() { return phone; }
+
+        int getOrdinal() { return ordinal; }
+
+        /** Whether carRe has removed the customer; kept as a tombstone like a removed car. */
+        public boolean isRemoved() { return removed; }
+        
+        @Override
+        public String toString() {
+            return name + " (" + licenseNumber + ")";
+        }
+    }
+
+    static class Rental {
+        private static final int ACTIVE = 0;
+        private static final int COMPLETED = 1;
+        private static final int CLOSING = 2;
+        private static final AtomicIntegerFieldUpdater<Rental> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Rental.class, "state");
+
+        private String rentalId;
+        private long sequence;
+        private Car car;
+        private Customer customer;
+        private LocalDate startDate;
+        private LocalDate endDate;
+        private long totalCostCents;
+        private volatile int state;
+        // Set at booking for a rental starting today, or later by carRe.pickUp on a reservation's start date
+        private volatile boolean holdsCar;
+
+        public Rental(String rentalId, Car car, Customer customer, int rentalDays) {
+            this(rentalId, 0, car, customer, LocalDate.now(), LocalDate.now().plusDays(rentalDays));
+        }
+
+        Rental(String rentalId, long sequence, Car car, Customer customer, LocalDate startDate, LocalDate endDate) {
+            this(rentalId, sequence, car, customer, startDate, endDate,
+                    PricingEngine.FLAT.quoteCents(car, startDate, endDate));
+        }
+
+        Rental(String rentalId, long sequence, Car car, Customer customer, LocalDate startDate, LocalDate endDate,
+               long totalCostCents) {
+            this.rentalId = rentalId;
+            this.sequence = sequence;
+            this.car = car;
+            this.customer = customer;
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.totalCostCents = totalCostCents;
+            this.state = ACTIVE;
+        }
+
+        /** Marks the rental finished; returns false if it was already completed by another caller. */
+        public boolean completeRental() {
+            return STATE.compareAndSet(this, ACTIVE, COMPLETED);
+        }
+
+        // Two-phase completion for batch returns: claim, then either finish or hand back
+        boolean claimForReturn() { return STATE.compareAndSet(this, ACTIVE, CLOSING); }
+        void cancelReturn() { STATE.compareAndSet(this, CLOSING, ACTIVE); }
+        void finishReturn() { STATE.compareAndSet(this, CLOSING, COMPLETED); }
+
+        public String getRentalId() { return rentalId; }
+        long getSequence() { return sequence; }
+        public Car getCar() { return car; }
+        public Customer getCustomer() { return customer; }
+        public LocalDate getStartDate() { return startDate; }
+        public LocalDate getEndDate() { return endDate; }
+        public double getTotalCost() { return totalCostCents / 100.0; }
+        public long getTotalCostCents() { return totalCostCents; }
+        public boolean isActive() { return state != COMPLETED; }
+
+        /** A completed rental read back from the archive, e.g. for a customer's history, or from a journal snapshot. */
+        static Rental archived(String rentalId, long sequence, Car car, Customer customer,
+                               LocalDate startDate, LocalDate endDate, long totalCostCents) {
+            Rental rental = new Rental(rentalId, sequence, car, customer, startDate, endDate, totalCostCents);
+            rental.state = COMPLETED;
+            return rental;
+        }
+
+        /** True when the car left the lot with this rental; false for a future reservation. */
+        boolean holdsCar() { return holdsCar; }
+        
+        @Override
+        public String toString() {
+            return rentalId + ": " + car.getMake() + " rented by " + customer.getName();
+        }
+    }
+
+    /**
+     * Callbacks for changes to a carRe store. They run on the thread that made the change,
+     * so implementations must be quick and must not call back into the store. Anything
+     * slower, such as a UI, should consume the store's ChangeFeed instead.
+     */
+    interface StoreListener {
+        default void carAdded(Car car) {}
+        default void carRemoved(Car car) {}
+        /** The car went on or off the lot; check carRe.isAvailable for which. */
+        default void carAvailabilityChanged(Car car) {}
+        default void customerAdded(Customer customer) {}
+        default void customerRemoved(Customer customer) {}
+        default void rentalStarted(Rental rental) {}
+        default void rentalEnded(Rental rental) {}
+    }
+
+    /** One mutation of a carRe, as published on its ChangeFeed. */
+    static class StoreEvent {
+        enum Type {
+            CAR_ADDED, CAR_REMOVED, CAR_AVAILABILITY_CHANGED, CUSTOMER_ADDED, CUSTOMER_REMOVED,
+            RENTAL_STARTED, RENTAL_ENDED
+        }
+
+        private final int stripe;
+        private final long position;
+        private final Type type;
+        private final Car car;
+        private final Customer customer;
+        private final Rental rental;
+
+        StoreEvent(int stripe, long position, Type type, Car car, Customer customer, Rental rental) {
+            this.stripe = stripe;
+            this.position = position;
+            this.type = type;
+            this.car = car;
+            this.customer = customer;
+            this.rental = rental;
+        }
+
+        /** The feed stripe the event went to; every event of a car's branch goes to the same one. */
+        int getStripe() { return stripe; }
+        /** Place in its stripe of the feed; consecutive events of a stripe have consecutive positions. */
+        public long getPosition() { return position; }
+        public Type getType() { return type; }
+        /** The car added, removed or rented, if any. */
+        public Car getCar() { return car; }
+        /** The customer added or removed, or the renter. */
+        public Customer getCustomer() { return customer; }
+        public Rental getRental() { return rental; }
+
+        @Override
+        public String toString() {
+            return position + " " + type + " " + (rental != null ? rental.getRentalId()
+                    : car != null ? car.getLicensePlate() : customer.getId());
+        }
+    }
+
+    /**
+     * In-process change feed of a carRe: bounded rings of StoreEvents written lock-free by
+     * the threads making changes, read by any number of subscribers at their own pace.
+     *
+     * The feed is striped by branch: every event about a car goes to its branch's stripe,
+     * customer events to a stripe chosen by customer ID. Each stripe has its own ring and
+     * position counter, so bookings at different branches do not contend on one counter.
+     * Events of one stripe are delivered in the order their mutations took effect; the
+     * store publishes each event before the change can be seen, so a rental's end can never
+     * come ahead of its start. Events of different stripes carry no order between them.
+     *
+     * Publishing is one atomic increment and one array store, and never waits for a reader:
+     * when a ring is full its oldest events are overwritten. That is the backpressure
+     * contract. A subscriber that falls a whole ring behind is not allowed to slow the
+     * store down; it is told how many events it missed and must re-read what it needs,
+     * then carries on from the newest event. Each subscription drains on its own daemon
+     * thread, in batches of whatever has accumulated since the last one.
+     */
+    static class ChangeFeed {
+        /** Receives events in feed order, always on the subscription's own thread. */
+        interface Subscriber {
+            void onEvents(List<StoreEvent> batch);
+
+            /** The subscriber fell too far behind and missed events; re-read the store before going on. */
+            default void onOverrun(long missed) {}
+        }
+
+        private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+        // How long a drained subscriber lets events accumulate before it asks publishers to wake it
+        private static final long LINGER_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+        private final Stripe[] stripes;
+        private final int stripeMask;
+        private final int capacity;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        // Subscriptions parked until a publisher wakes them; publishers only look for them when there are some
+        private final AtomicInteger idle = new AtomicInteger();
+
+        ChangeFeed(int capacity, int stripeCount) {
+            if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+            }
+            if (stripeCount < 1 || Integer.bitCount(stripeCount) != 1) {
+                throw new IllegalArgumentException("Stripe count must be a power of two: " + stripeCount);
+            }
+            this.capacity = capacity;
+            stripes = new Stripe[stripeCount];
+            for (int i = 0; i < stripeCount; i++) stripes[i] = new Stripe(capacity);
+            stripeMask = stripeCount - 1;
+        }
+
+        /** Ring size of each stripe. */
+        int getCapacity() { return capacity; }
+
+        int getStripeCount() { return stripes.length; }
+
+        /** Events published so far, over every stripe. */
+        public long getPosition() {
+            long position = 0;
+            for (Stripe stripe : stripes) position += stripe.next.get();
+            return position;
+        }
+
+        private static final class Stripe {
+            final AtomicReferenceArray<StoreEvent> ring;
+            final int mask;
+            final AtomicLong next = new AtomicLong();
+
+            Stripe(int capacity) {
+                ring = new AtomicReferenceArray<>(capacity);
+                mask = capacity - 1;
+            }
+        }
+
+        private int stripeOf(Car car, Customer customer) {
+            int hash = car != null ? car.getBranch().hashCode() : customer.getId().hashCode();
+            return (hash ^ (hash >>> 16)) & stripeMask;
+        }
+
+        // Nothing is recorded while no one is subscribed, so an unused feed costs the store nothing
+        void publish(StoreEvent.Type type, Car car, Customer customer, Rental rental) {
+            if (subscriptions.isEmpty()) return;
+            int index = stripeOf(car, customer);
+            Stripe stripe = stripes[index];
+            long position = stripe.next.getAndIncrement();
+            stripe.ring.set((int) position & stripe.mask, new StoreEvent(index, position, type, car, customer, rental));
+            if (idle.get() > 0) {
+                for (Subscription subscription : subscriptions) subscription.wake();
+            }
+        }
+
+        /**
+         * Starts delivering every event from now on to the subscriber, at most maxBatch at a
+         * time. Close the subscription to stop.
+         */
+        public Subscription subscribe(String name, int maxBatch, Subscriber subscriber) {
+            Subscription subscription = new Subscription(name, maxBatch, subscriber);
+            subscriptions.add(subscription);
+            // Registered first, so publishers already count it when its starting point is taken
+            for (int i = 0; i < stripes.length; i++) subscription.cursors.set(i, stripes[i].next.get());
+            subscription.thread.start();
+            return subscription;
+        }
+
+        class Subscription implements Closeable {
+            private final int maxBatch;
+            private final Subscriber subscriber;
+            private final Thread thread;
+            // Next position to read in each stripe
+            private final AtomicLongArray cursors = new AtomicLongArray(stripes.length);
+            private volatile boolean parked;
+            private volatile boolean closed;
+            private final LongAdder delivered = new LongAdder();
+            private final LongAdder missed = new LongAdder();
+
+            Subscription(String name, int maxBatch, Subscriber subscriber) {
+                this.maxBatch = Math.max(1, maxBatch);
+                this.subscriber = subscriber;
+                this.thread = new Thread(this::drain, "change-feed-" + name);
+                thread.setDaemon(true);
+            }
+
+            /** Events published but not yet handed to the subscriber. */
+            public long getLag() {
+                long lag = 0;
+                for (int i = 0; i < stripes.length; i++) lag += Math.max(0, stripes[i].next.get() - cursors.get(i));
+                return lag;
+            }
+
+            public long getDelivered() { return delivered.sum(); }
+
+            public long getMissed() { return missed.sum(); }
+
+            private void wake() {
+                if (parked) LockSupport.unpark(thread);
+            }
+
+            private boolean readable() {
+                for (int i = 0; i < stripes.length; i++) {
+                    long position = cursors.get(i);
+                    StoreEvent event = stripes[i].ring.get((int) position & stripes[i].mask);
+                    if (event != null && event.getPosition() >= position) return true;
+                }
+                return false;
+            }
+
+            // Takes what is ready from one stripe into the batch; returns how many events were
+            // overwritten before they could be read, after skipping the cursor past them
+            private long take(int index, List<StoreEvent> batch) {
+                Stripe stripe = stripes[index];
+                long position = cursors.get(index);
+                long end = stripe.next.get();
+                while (position < end && batch.size() < maxBatch) {
+                    StoreEvent event = stripe.ring.get((int) position & stripe.mask);
+                    // An older event still in the slot: claimed but not yet written, so wait for it
+                    if (event == null || event.getPosition() < position) break;
+                    if (event.getPosition() > position) {
+                        // Skip to the newest events; the subscriber re-reads whatever it lost
+                        long overrun = stripe.next.get() - position;
+                        cursors.set(index, position + overrun);
+                        return overrun;
+                    }
+                    batch.add(event);
+                    position++;
+                }
+                cursors.set(index, position);
+                return 0;
+            }
+
+            private void drain() {
+                List<StoreEvent> batch = new ArrayList<>(maxBatch);
+                List<StoreEvent> view = Collections.unmodifiableList(batch);
+                boolean lingered = false;
+                // Where the next batch starts filling, so a busy stripe cannot starve the others
+                int first = 0;
+                while (!closed) {
+                    long overrun = 0;
+                    batch.clear();
+                    for (int i = 0; i < stripes.length && batch.size() < maxBatch; i++) {
+                        overrun += take((first + i) & stripeMask, batch);
+                    }
+                    first = (first + 1) & stripeMask;
+                    try {
+                        if (overrun > 0) {
+                            missed.add(overrun);
+                            subscriber.onOverrun(overrun);
+                        }
+                        if (!batch.isEmpty()) {
+                            subscriber.onEvents(view);
+                            delivered.add(batch.size());
+                            lingered = false;
+                        } else if (overrun > 0) {
+                            lingered = false;
+                        } else if (!lingered) {
+                            // Waking a parked thread costs the publisher far more than publishing, so
+                            // first wait a moment unannounced and let the next batch build up
+                            lingered = true;
+                            LockSupport.parkNanos(this, LINGER_NANOS);
+                        } else {
+                            // Nothing new, or the next event is claimed but not yet written. Publishers
+                            // write the slot before reading the idle count, and we raise it before
+                            // re-reading the slots, so one of the two always sees the other and no
+                            // wake-up is lost.
+                            parked = true;
+                            idle.incrementAndGet();
+                            if (!readable()) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                            idle.decrementAndGet();
+                            parked = false;
+                        }
+                    } catch (RuntimeException e) {
+                        // One bad batch must not end the subscription
+                        reportFailure("Change feed subscriber failed", e);
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                subscriptions.remove(this);
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Immutable map from non-negative long keys to values: a 32-way trie on the key's bits,
+     * most significant first, with bitmap-compressed nodes. Updates copy only the path to
+     * the key and share everything else with the map they came from, so old versions stay
+     * valid and cheap to keep. Iteration is in key order.
+     */
+    static final class PersistentLongMap<V> {
+        private static final int BITS = 5;
+        private static final int MASK = (1 << BITS) - 1;
+        private static final PersistentLongMap<?> EMPTY = new PersistentLongMap<>(null, 0, 0);
+
+        private final Node root;
+        // Bit position of the root's level; the root covers keys below 1 << (shift + BITS)
+        private final int shift;
+        private final int size;
+
+        private PersistentLongMap(Node root, int shift, int size) {
+            this.root = root;
+            this.shift = shift;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> PersistentLongMap<V> empty() { return (PersistentLongMap<V>) EMPTY; }
+
+        int size() { return size; }
+
+        @SuppressWarnings("unchecked")
+        V get(long key) {
+            if (root == null || key < 0 || !fits(key, shift)) return null;
+            Node node = root;
+            for (int level = shift; ; level -= BITS) {
+                int bit = 1 << ((key >>> level) & MASK);
+                if ((node.bitmap & bit) == 0) return null;
+                Object child = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+                if (level == 0) return (V) child;
+                node = (Node) child;
+            }
+        }
+
+        /** This map with key set to value; the same map if it already was. */
+        PersistentLongMap<V> with(long key, V value) {
+            if (key < 0) throw new IllegalArgumentException("Negative key " + key);
+            Objects.requireNonNull(value);
+            V current = get(key);
+            if (current == value) return this;
+            if (root == null) {
+                int level = 0;
+                while (!fits(key, level)) level += BITS;
+                return new PersistentLongMap<>(path(key, level, value), level, 1);
+            }
+            Node top = root;
+            int level = shift;
+            while (!fits(key, level)) {
+                // The old root becomes the first child of a taller one
+                top = new Node(1, new Object[] {top});
+                level += BITS;
+            }
+            return new PersistentLongMap<>(put(top, level, key, value), level, current == null ? size + 1 : size);
+        }
+
+        /** This map without the key; the same map if it had none. */
+        PersistentLongMap<V> without(long key) {
+            if (get(key) == null) return this;
+            Node top = remove(root, shift, key);
+            return top == null ? empty() : new PersistentLongMap<>(top, shift, size - 1);
+        }
+
+        /** Read-only view of the values in key order. */
+        Collection<V> values() {
+            return new AbstractCollection<V>() {
+                @Override
+                public Iterator<V> iterator() { return new Values<>(root, shift); }
+
+                @Override
+                public int size() { return size; }
+            };
+        }
+
+        private static boolean fits(long key, int level) {
+            return level + BITS >= 63 || key >>> (level + BITS) == 0;
+        }
+
+        private static Node put(Node node, int level, long key, Object value) {
+            int bit = 1 << ((key >>> level) & MASK);
+            int position = Integer.bitCount(node.bitmap & (bit - 1));
+            if ((node.bitmap & bit) == 0) {
+                return node.inserted(bit, position, level == 0 ? value : path(key, level - BITS, value));
+            }
+            Object child = level == 0 ? value : put((Node) node.slots[position], level - BITS, key, value);
+            return node.replaced(position, child);
+        }
+
+        // Single-key branch from the given level down to the value
+        private static Node path(long key, int level, Object value) {
+            Object child = value;
+            for (int l = 0; l <= level; l += BITS) child = new Node(1 << ((key >>> l) & MASK), new Object[] {child});
+            return (Node) child;
+        }
+
+        // Null when the node ends up empty; only called for keys that are present
+        private static Node remove(Node node, int level, long key) {
+            int bit = 1 << ((key >>> level) & MASK);
+            int position = Integer.bitCount(node.bitmap & (bit - 1));
+            if (level > 0) {
+                Node child = remove((Node) node.slots[position], level - BITS, key);
+                if (child != null) return node.replaced(position, child);
+            }
+            return node.bitmap == bit ? null : node.removed(bit, position);
+        }
+
+        private static final class Node {
+            final int bitmap;
+            final Object[] slots;
+
+            Node(int bitmap, Object[] slots) {
+                this.bitmap = bitmap;
+                this.slots = slots;
+            }
+
+            Node inserted(int bit, int position, Object child) {
+                Object[] copy = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, copy, 0, position);
+                copy[position] = child;
+                System.arraycopy(slots, position, copy, position + 1, slots.length - position);
+                return new Node(bitmap | bit, copy);
+            }
+
+            Node replaced(int position, Object child) {
+                Object[] copy = slots.clone();
+                copy[position] = child;
+                return new Node(bitmap, copy);
+            }
+
+            Node removed(int bit, int position) {
+                Object[] copy = new Object[slots.length - 1];
+                System.arraycopy(slots, 0, copy, 0, position);
+                System.arraycopy(slots, position + 1, copy, position, copy.length - position);
+                return new Node(bitmap & ~bit, copy);
+            }
+        }
+
+        // Depth-first walk with an explicit stack; values are never null, so null marks the end
+        private static final class Values<V> implements Iterator<V> {
+            private final Node[] nodes = new Node[64 / BITS + 1];
+            private final int[] positions = new int[nodes.length];
+            private final int leafDepth;
+            private int depth;
+            private V next;
+
+            Values(Node root, int shift) {
+                leafDepth = shift / BITS;
+                nodes[0] = root;
+                depth = root == null ? -1 : 0;
+                advance();
+            }
+
+            @SuppressWarnings("unchecked")
+            private void advance() {
+                next = null;
+                while (depth >= 0) {
+                    Node node = nodes[depth];
+                    int position = positions[depth];
+                    if (position == node.slots.length) {
+                        depth--;
+                        continue;
+                    }
+                    positions[depth] = position + 1;
+                    if (depth == leafDepth) {
+                        next = (V) node.slots[position];
+                        return;
+                    }
+                    nodes[++depth] = (Node) node.slots[position];
+                    positions[depth] = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() { return next != null; }
+
+            @Override
+            public V next() {
+                if (next == null) throw new NoSuchElementException();
+                V value = next;
+                advance();
+                return value;
+            }
+        }
+    }
+
+    /**
+     * One committed version of a carRe: the fleet, the cars on the lot, the customers and
+     * the active rentals as they stood together at one point. Nothing in it changes, so it
+     * can be read from any thread, for as long as a report takes, without locks and without
+     * holding up bookings. Ask the snapshot, not the Car or Rental, whether a car is on the
+     * lot or a rental is running: the objects themselves always show the live state.
+     *
+     * It is made of parts versioned on their own: one per branch, holding its cars, its lot
+     * and its rentals, which always agree with each other, and one for the customers. A
+     * booking commits only its own branch's part, so bookings at different branches never
+     * contend on a version.
+     */
+    static final class StoreSnapshot {
+        private final long version;
+        private final Part customers;
+        // One part per branch, in branch order
+        private final List<Part> branches;
+
+        StoreSnapshot(Part customers, List<Part> branches) {
+            long version = customers.version;
+            for (Part branch : branches) version += branch.version;
+            this.version = version;
+            this.customers = customers;
+            this.branches = branches;
+        }
+
+        /** Goes up by one with every commit that changed something; later snapshots have higher versions. */
+        public long getVersion() { return version; }
+
+        /** The fleet in the order cars were added; size() is constant time, as for all collections here. */
+        public Collection<Car> getCars() { return merged(part -> part.cars, Car::getOrdinal); }
+
+        public Collection<Car> getAvailableCars() { return merged(part -> part.availableCars, Car::getOrdinal); }
+
+        public Collection<Customer> getCustomers() { return customers.customers.values(); }
+
+        /** Rentals running or booked, in booking order. */
+        public Collection<Rental> getActiveRentals() { return merged(part -> part.activeRentals, Rental::getSequence); }
+
+        public boolean isAvailable(Car car) {
+            Part part = part(car);
+            return part != null && car.getOrdinal() >= 0 && part.availableCars.get(car.getOrdinal()) == car;
+        }
+
+        public boolean isActive(Rental rental) {
+            Part part = part(rental.getCar());
+            return part != null && part.activeRentals.get(rental.getSequence()) == rental;
+        }
+
+        // Whether this snapshot is made of exactly these parts
+        boolean consistsOf(Part customers, List<Part> branches) {
+            if (customers != this.customers || branches.size() != this.branches.size()) return false;
+            for (int i = 0; i < branches.size(); i++) {
+                if (branches.get(i) != this.branches.get(i)) return false;
+            }
+            return true;
+        }
+
+        // Branches are few, so a scan beats building a map per snapshot
+        private Part part(Car car) {
+            for (Part part : branches) {
+                if (part.branch.equals(car.getBranch())) return part;
+            }
+            return null;
+        }
+
+        // One index across every branch's part, in key order
+        private <V> Collection<V> merged(Function<Part, PersistentLongMap<V>> index, ToLongFunction<V> key) {
+            if (branches.isEmpty()) return PersistentLongMap.<V>empty().values();
+            if (branches.size() == 1) return index.apply(branches.get(0)).values();
+            return new AbstractCollection<V>() {
+                @Override
+                public Iterator<V> iterator() {
+                    List<Iterator<V>> sources = new ArrayList<>(branches.size());
+                    for (Part part : branches) sources.add(index.apply(part).values().iterator());
+                    return new MergingIterator<>(sources, Comparator.comparingLong(key));
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Part part : branches) size += index.apply(part).size();
+                    return size;
+                }
+            };
+        }
+
+        /**
+         * One committed version of a branch's cars, lot and rentals, or of the store's
+         * customers. A commit copies the part and swaps it in with a compare-and-set.
+         */
+        static final class Part {
+            private final String branch;
+            private final long version;
+            private final PersistentLongMap<Car> cars;
+            private final PersistentLongMap<Car> availableCars;
+            private final PersistentLongMap<Customer> customers;
+            private final PersistentLongMap<Rental> activeRentals;
+
+            private Part(String branch, long version, PersistentLongMap<Car> cars, PersistentLongMap<Car> availableCars,
+                         PersistentLongMap<Customer> customers, PersistentLongMap<Rental> activeRentals) {
+                this.branch = branch;
+                this.version = version;
+                this.cars = cars;
+                this.availableCars = availableCars;
+                this.customers = customers;
+                this.activeRentals = activeRentals;
+            }
+
+            /** The part a branch, or the customers (null), start from. */
+            static Part empty(String branch) {
+                return new Part(branch, 0, PersistentLongMap.empty(), PersistentLongMap.empty(),
+                        PersistentLongMap.empty(), PersistentLongMap.empty());
+            }
+
+            Part withCar(Car car, boolean inFleet, boolean available) {
+                int ordinal = car.getOrdinal();
+                return next(inFleet ? cars.with(ordinal, car) : cars.without(ordinal),
+                        available ? availableCars.with(ordinal, car) : availableCars.without(ordinal), customers, activeRentals);
+            }
+
+            Part withCustomer(Customer customer, boolean registered) {
+                int ordinal = customer.getOrdinal();
+                return next(cars, availableCars, registered ? customers.with(ordinal, customer) : customers.without(ordinal),
+                        activeRentals);
+            }
+
+            Part withRental(Rental rental, boolean active) {
+                long sequence = rental.getSequence();
+                return next(cars, availableCars, customers,
+                        active ? activeRentals.with(sequence, rental) : activeRentals.without(sequence));
+            }
+
+            // Changes made on top of a part share its version until published, so a commit counts once
+            private Part next(PersistentLongMap<Car> cars, PersistentLongMap<Car> availableCars,
+                              PersistentLongMap<Customer> customers, PersistentLongMap<Rental> activeRentals) {
+                if (cars == this.cars && availableCars == this.availableCars && customers == this.customers
+                        && activeRentals == this.activeRentals) {
+                    return this;
+                }
+                return new Part(branch, version, cars, availableCars, customers, activeRentals);
+            }
+
+            Part committedAfter(Part base) {
+                return new Part(branch, base.version + 1, cars, availableCars, customers, activeRentals);
+            }
+        }
+    }
+
+    /** One booking in a batch passed to carRe.rentCars. */
+    static class RentalRequest {
+        private final Customer customer;
+        private final Car car;
+        private final LocalDate startDate;
+        private final LocalDate endDate;
+
+        public RentalRequest(Customer customer, Car car, int rentalDays) {
+            this(customer, car, LocalDate.now(), LocalDate.now().plusDays(rentalDays));
+        }
+
+        public RentalRequest(Customer customer, Car car, LocalDate startDate, LocalDate endDate) {
+            this.customer = customer;
+            this.car = car;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        public Customer getCustomer() { return customer; }
+        public Car getCar() { return car; }
+        public LocalDate getStartDate() { return startDate; }
+        public LocalDate getEndDate() { return endDate; }
+    }
+
+    /**
+     * Outcome of an all-or-nothing batch. Either every item was applied, or none was and
+     * {@link #getError} says which items failed and why.
+     */
+    static class BatchResult {
+        private final boolean committed;
+        private final List<Rental> rentals;
+        private final List<String> errors;
+
+        BatchResult(boolean committed, List<Rental> rentals, List<String> errors) {
+            this.committed = committed;
+            this.rentals = Collections.unmodifiableList(rentals);
+            this.errors = Collections.unmodifiableList(errors);
+        }
+
+        public boolean isCommitted() { return committed; }
+
+        /** The rentals created or returned, in request order; empty if the batch rolled back. */
+        public List<Rental> getRentals() { return committed ? rentals : Collections.emptyList(); }
+
+        /** Why the item at this position failed, or null if it was fine. */
+        public String getError(int index) { return errors.get(index); }
+
+        public int size() { return errors.size(); }
+
+        public int getFailureCount() {
+            int failures = 0;
+            for (String error : errors) {
+                if (error != null) failures++;
+            }
+            return failures;
+        }
+    }
+
+    /**
+     * Non-overlapping booked ranges for one car, as half-open [start, end) epoch days
+     * keyed by start day. Only live bookings are kept, so it stays small and every
+     * check is a couple of O(log n) neighbour lookups.
+     */
+    static class ReservationCalendar {
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+        synchronized boolean tryBook(LocalDate start, LocalDate end) {
+            long from = start.toEpochDay();
+            long to = end.toEpochDay();
+            if (overlaps(from, to)) return false;
+            ranges.put(from, to);
+            return true;
+        }
+
+        synchronized void release(LocalDate start, LocalDate end) {
+            ranges.remove(start.toEpochDay(), end.toEpochDay());
+        }
+
+        synchronized boolean isFree(LocalDate start, LocalDate end) {
+            return !overlaps(start.toEpochDay(), end.toEpochDay());
+        }
+
+        synchronized int size() { return ranges.size(); }
+
+        private boolean overlaps(long from, long to) {
+            Map.Entry<Long, Long> before = ranges.floorEntry(from);
+            if (before != null && before.getValue() > from) return true;
+            Long next = ranges.higherKey(from);
+            return next != null && next < to;
+        }
+    }
+
+    /**
+     * Hands out rental numbers in per-thread blocks so concurrent bookings do not
+     * all contend on one counter. Numbers are unique but only ordered per thread.
+     */
+    static class RentalIdSequence {
+        private static final int BLOCK_SIZE = 64;
+
+        private final AtomicLong nextBlock;
+        private final ThreadLocal<long[]> block = ThreadLocal.withInitial(() -> new long[] {0, 0});
+
+        RentalIdSequence(long first) {
+            this.nextBlock = new AtomicLong(first);
+        }
+
+        long next() {
+            long[] range = block.get();
+            if (range[0] == range[1]) {
+                range[0] = nextBlock.getAndAdd(BLOCK_SIZE);
+                range[1] = range[0] + BLOCK_SIZE;
+            }
+            return range[0]++;
+        }
+
+        /** The first number no thread has claimed yet. */
+        long peek() { return nextBlock.get(); }
+
+        /** Makes sure numbers up to and including the given one are never handed out again. */
+        void advancePast(long used) {
+            nextBlock.accumulateAndGet(used + 1, Math::max);
+        }
+    }
+
+    /**
+     * One customer's rentals in start-date order, as packed (start day, rental number) keys
+     * with the archive row of each rental once it has been archived. Sixteen bytes a rental,
+     * so the index can cover the whole history while the rentals themselves live on disk.
+     * Bookings mostly start today or later, so adds are nearly always appends.
+     */
+    static class CustomerHistory {
+        private static final int SEQUENCE_BITS = 40;
+        private static final long DAY_BIAS = 1L << 22;
+
+        private long[] keys = new long[4];
+        private long[] rows = new long[4];
+        private int size;
+        private int onHeap;
+
+        static long key(long startDay, long sequence) {
+            return (startDay + DAY_BIAS) << SEQUENCE_BITS | sequence;
+        }
+
+        static long sequenceOf(long key) { return key & ((1L << SEQUENCE_BITS) - 1); }
+
+        /** Adds a rental unless it is already there; row is -1 while the rental is on the heap. */
+        synchronized void add(long startDay, long sequence, long row) {
+            long key = key(startDay, sequence);
+            int at = size > 0 && keys[size - 1] < key ? size : Arrays.binarySearch(keys, 0, size, key);
+            if (at < 0) {
+                at = -at - 1;
+            } else if (at < size) {
+                if (row >= 0) setRow(at, row);
+                return;
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            System.arraycopy(rows, at, rows, at + 1, size - at);
+            keys[at] = key;
+            rows[at] = row;
+            size++;
+            if (row < 0) onHeap++;
+        }
+
+        synchronized void archived(long startDay, long sequence, long row) {
+            int at = Arrays.binarySearch(keys, 0, size, key(startDay, sequence));
+            if (at >= 0) setRow(at, row);
+        }
+
+        private void setRow(int at, long row) {
+            if (rows[at] < 0) onHeap--;
+            rows[at] = row;
+        }
+
+        synchronized int size() { return size; }
+
+        synchronized long rowOf(long key) {
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            return at < 0 ? -1 : rows[at];
+        }
+
+        /**
+         * Copies up to limit entries, newest first after skipping offset, into the arrays;
+         * returns how many were copied.
+         */
+        synchronized int newestFirst(int offset, int limit, long[] keysOut, long[] rowsOut) {
+            int count = Math.max(0, Math.min(limit, size - offset));
+            for (int i = 0; i < count; i++) {
+                keysOut[i] = keys[size - 1 - offset - i];
+                rowsOut[i] = rows[size - 1 - offset - i];
+            }
+            return count;
+        }
+
+        /**
+         * Rental numbers of the entries not yet archived, the only ones that can be active.
+         * Those are almost all recent, so the walk from the newest end stops early.
+         */
+        synchronized long[] onHeap() {
+            long[] sequences = new long[onHeap];
+            for (int i = size - 1, count = 0; count < sequences.length; i--) {
+                if (rows[i] < 0) sequences[count++] = sequenceOf(keys[i]);
+            }
+            return sequences;
+        }
+    }
+
+    /**
+     * Prices a booking of a car for the epoch days [startDay, endDay) in integer cents.
+     * carRe quotes every booking through its engine; FLAT is the daily rate times the days.
+     */
+    interface PricingEngine {
+        PricingEngine FLAT = (car, startDay, endDay) -> rateCents(car) * (endDay - startDay);
+
+        long quoteCents(Car car, long startDay, long endDay);
+
+        default long quoteCents(Car car, LocalDate start, LocalDate end) {
+            return quoteCents(car, start.toEpochDay(), end.toEpochDay());
+        }
+
+        /** Quotes many candidates for one date range, e.g. a page of search results. */
+        default long[] quoteCents(List<? extends Car> cars, LocalDate start, LocalDate end) {
+            long startDay = start.toEpochDay();
+            long endDay = end.toEpochDay();
+            long[] quotes = new long[cars.size()];
+            for (int i = 0; i < quotes.length; i++) quotes[i] = quoteCents(cars.get(i), startDay, endDay);
+            return quotes;
+        }
+
+        static long rateCents(Car car) { return Math.round(car.getDailyRate() * 100); }
+    }
+
+    /**
+     * Price adjustments for RateTablePricing, as whole percentages added to the daily rate:
+     * a weekend surcharge, surcharges per car type and seasons over date ranges. Day
+     * adjustments add up, so a Luxury car on a high-season Saturday pays all three. A
+     * long-rental discount then comes off the total; the largest one the length qualifies
+     * for applies.
+     */
+    static class PricingRules {
+        private int weekendPercent;
+        private final Map<String, Integer> typePercent = new HashMap<>();
+        private final List<long[]> seasons = new ArrayList<>();
+        private final TreeMap<Long, Integer> longRentalPercentOff = new TreeMap<>();
+
+        PricingRules weekendSurcharge(int percent) {
+            weekendPercent = percent;
+            return this;
+        }
+
+        PricingRules typeSurcharge(String type, int percent) {
+            typePercent.put(type, percent);
+            return this;
+        }
+
+        /** Applies from first to last, both inclusive; a negative percentage is a low season. */
+        PricingRules season(LocalDate first, LocalDate last, int percent) {
+            if (last.isBefore(first)) throw new IllegalArgumentException("Season ends before it starts: " + first + " - " + last);
+            seasons.add(new long[] {first.toEpochDay(), last.toEpochDay(), percent});
+            return this;
+        }
+
+        PricingRules longRentalDiscount(int minDays, int percentOff) {
+            if (minDays < 1 || percentOff < 0 || percentOff > 100) {
+                throw new IllegalArgumentException("Discount needs at least 1 day and 0-100% off");
+            }
+            longRentalPercentOff.put((long) minDays, percentOff);
+            return this;
+        }
+
+        /** The day's price as basis points of the daily rate, never below zero. */
+        int dayBasisPoints(String type, long epochDay) {
+            int percent = 100 + typePercent.getOrDefault(type, 0);
+            // Epoch day 0 was a Thursday, so Saturday and Sunday are 2 and 3
+            int dayOfWeek = (int) Math.floorMod(epochDay, 7L);
+            if (dayOfWeek == 2 || dayOfWeek == 3) percent += weekendPercent;
+            for (long[] season : seasons) {
+                if (epochDay >= season[0] && epochDay <= season[1]) percent += (int) season[2];
+            }
+            return Math.max(0, percent) * 100;
+        }
+
+        int percentOff(long days) {
+            int best = 0;
+            for (int off : longRentalPercentOff.headMap(days, true).values()) best = Math.max(best, off);
+            return best;
+        }
+
+        Set<String> surchargedTypes() { return typePercent.keySet(); }
+    }
+
+    /**
+     * Pricing compiled from PricingRules into per-type prefix sums of each day's rate in
+     * basis points, over a window from a year back to two years ahead. A quote inside the
+     * window is two array reads and integer arithmetic; days outside it are priced from the
+     * rules directly. The window is recompiled as the calendar moves on. The rules are
+     * copied in, so later changes to them need a new engine.
+     */
+    static class RateTablePricing implements PricingEngine {
+        private static final int DAYS_BACK = 366;
+        private static final int WINDOW_DAYS = 3 * 366;
+        private static final long RECOMPILE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+        private final PricingRules rules;
+        private final int[] percentOff;
+        private volatile Table table;
+
+        RateTablePricing(PricingRules rules) {
+            this.rules = new PricingRules();
+            this.rules.weekendPercent = rules.weekendPercent;
+            this.rules.typePercent.putAll(rules.typePercent);
+            this.rules.seasons.addAll(rules.seasons);
+            this.rules.longRentalPercentOff.putAll(rules.longRentalPercentOff);
+            // Discount by rental length, precomputed for the lengths quoted most
+            percentOff = new int[WINDOW_DAYS + 1];
+            for (int days = 0; days < percentOff.length; days++) percentOff[days] = this.rules.percentOff(days);
+            table = compile(LocalDate.now().toEpochDay());
+        }
+
+        @Override
+        public long quoteCents(Car car, long startDay, long endDay) {
+            Table current = table;
+            if (System.currentTimeMillis() >= current.expiresAtMillis) current = recompile();
+            long basisPoints;
+            long from = startDay - current.firstDay;
+            long to = endDay - current.firstDay;
+            if (from >= 0 && to <= WINDOW_DAYS && from <= to) {
+                long[] prefix = current.byType.getOrDefault(car.getType(), current.standard);
+                basisPoints = prefix[(int) to] - prefix[(int) from];
+            } else {
+                basisPoints = 0;
+                for (long day = startDay; day < endDay; day++) basisPoints += rules.dayBasisPoints(car.getType(), day);
+            }
+            long days = endDay - startDay;
+            long cents = (PricingEngine.rateCents(car) * basisPoints + 5_000) / 10_000;
+            int off = days < percentOff.length ? percentOff[(int) days] : rules.percentOff(days);
+            return off == 0 ? cents : (cents * (100 - off) + 50) / 100;
+        }
+
+        private synchronized Table recompile() {
+            Table current = table;
+            if (System.currentTimeMillis() < current.expiresAtMillis) return current;
+            current = compile(LocalDate.now().toEpochDay());
+            table = current;
+            return current;
+        }
+
+        private Table compile(long today) {
+            long firstDay = today - DAYS_BACK;
+            Map<String, long[]> byType = new HashMap<>();
+            for (String type : rules.surchargedTypes()) byType.put(type, prefixSums(type, firstDay));
+            return new Table(firstDay, prefixSums(null, firstDay), byType,
+                    System.currentTimeMillis() + RECOMPILE_MILLIS);
+        }
+
+        private long[] prefixSums(String type, long firstDay) {
+            long[] prefix = new long[WINDOW_DAYS + 1];
+            for (int i = 0; i < WINDOW_DAYS; i++) prefix[i + 1] = prefix[i] + rules.dayBasisPoints(type, firstDay + i);
+            return prefix;
+        }
+
+        private static final class Table {
+            final long firstDay;
+            final long[] standard;
+            final Map<String, long[]> byType;
+            final long expiresAtMillis;
+
+            Table(long firstDay, long[] standard, Map<String, long[]> byType, long expiresAtMillis) {
+                this.firstDay = firstDay;
+                this.standard = standard;
+                this.byType = byType;
+                this.expiresAtMillis = expiresAtMillis;
+            }
+        }
+    }
+
+    /**
+     * Search-as-you-type index: every word start in an item's normalised text is a key in a
+     * sorted set, so a prefix query is one ceiling lookup followed by a short in-order walk.
+     * Keys share the item's text and only store an offset into it, which keeps the
+     * per-word cost to one small object. Updates are incremental and safe from any thread.
+     */
+    static class PrefixIndex<T> {
+        // Upper bound on entries walked per query, so a filter that rejects most matches stays cheap
+        private static final int MAX_SCAN = 2_000;
+
+        private final ConcurrentSkipListSet<Term<T>> terms = new ConcurrentSkipListSet<>();
+        private final Function<T, String> text;
+        private final ToLongFunction<T> ordinal;
+
+        PrefixIndex(Function<T, String> text, ToLongFunction<T> ordinal) {
+            this.text = text;
+            this.ordinal = ordinal;
+        }
+
+        void add(T item) {
+            String normalized = normalize(text.apply(item));
+            long key = ordinal.applyAsLong(item);
+            for (int offset = 0; offset < normalized.length(); offset++) {
+                if (offset == 0 || normalized.charAt(offset - 1) == ' ') {
+                    terms.add(new Term<>(normalized, offset, key, item));
+                }
+            }
+        }
+
+        void remove(T item) {
+            String normalized = normalize(text.apply(item));
+            long key = ordinal.applyAsLong(item);
+            for (int offset = 0; offset < normalized.length(); offset++) {
+                if (offset == 0 || normalized.charAt(offset - 1) == ' ') {
+                    terms.remove(new Term<>(normalized, offset, key, item));
+                }
+            }
+        }
+
+        /**
+         * Up to limit distinct items matching the query, in term order. The query is first
+         * taken as a phrase ("john sm"); if that leaves room, items in which every query
+         * word starts some word, in any order ("toy cam", "smith john"), fill the rest.
+         */
+        List<T> search(String query, int limit, Predicate<T> filter) {
+            String phrase = normalize(query);
+            List<T> matches = new ArrayList<>(Math.min(limit, 64));
+            Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            collect(phrase, null, limit, filter, matches, seen);
+            String[] words = phrase.split(" ");
+            if (words.length > 1 && matches.size() < limit) {
+                collect(words[0], words, limit, filter, matches, seen);
+            }
+            return matches;
+        }
+
+        private void collect(String prefix, String[] words, int limit, Predicate<T> filter,
+                             List<T> matches, Set<T> seen) {
+            int scanned = 0;
+            for (Term<T> term : terms.tailSet(new Term<>(prefix, 0, Long.MIN_VALUE, null))) {
+                if (matches.size() >= limit || ++scanned > MAX_SCAN || !term.startsWith(prefix)) break;
+                if ((words == null || term.hasWords(words)) && filter.test(term.item) && seen.add(term.item)) {
+                    matches.add(term.item);
+                }
+            }
+        }
+
+        // Lower case letters and digits, single spaces between words, punctuation dropped,
+        // so "555-1234" and "5551234" index and search the same
+        static String normalize(String value) {
+            StringBuilder out = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    out.append(Character.toLowerCase(c));
+                } else if (Character.isWhitespace(c) && out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+                    out.append(' ');
+                }
+            }
+            return out.toString();
+        }
+
+        private static final class Term<T> implements Comparable<Term<T>> {
+            final String text;
+            final int offset;
+            final long ordinal;
+            final T item;
+
+            Term(String text, int offset, long ordinal, T item) {
+                this.text = text;
+                this.offset = offset;
+                this.ordinal = ordinal;
+                this.item = item;
+            }
+
+            boolean startsWith(String prefix) { return text.startsWith(prefix, offset); }
+
+            // Whether each word after the first starts some word of the text
+            boolean hasWords(String[] words) {
+                for (int i = 1; i < words.length; i++) {
+                    String word = words[i];
+                    boolean found = text.startsWith(word);
+                    for (int at = text.indexOf(' '); !found && at >= 0; at = text.indexOf(' ', at + 1)) {
+                        found = text.startsWith(word, at + 1);
+                    }
+                    if (!found) return false;
+                }
+                return true;
+            }
+
+            // Compares the suffixes in place rather than allocating substrings
+            @Override
+            public int compareTo(Term<T> other) {
+                int length = text.length() - offset;
+                int otherLength = other.text.length() - other.offset;
+                for (int i = 0, n = Math.min(length, otherLength); i < n; i++) {
+                    char a = text.charAt(offset + i);
+                    char b = other.text.charAt(other.offset + i);
+                    if (a != b) return a - b;
+                }
+                if (length != otherLength) return length - otherLength;
+                return Long.compare(ordinal, other.ordinal);
+            }
+        }
+    }
+
+    /**
+     * One branch's shard of a carRe: its cars, the ones on its lot and its running rentals,
+     * each in an index of its own. Bookings at different branches write disjoint structures,
+     * so they only meet in the store-wide lookups by plate, customer and rental ID, which
+     * are hashed and do not contend.
+     */
+    static class Branch {
+        private final String name;
+        private final ConcurrentSkipListMap<Integer, Car> cars = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<Integer, Car> availableCars = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<Long, Rental> activeRentals = new ConcurrentSkipListMap<>();
+        // This branch's latest committed part of the store's snapshots
+        private final AtomicReference<StoreSnapshot.Part> committed;
+
+        Branch(String name) {
+            this.name = name;
+            committed = new AtomicReference<>(StoreSnapshot.Part.empty(name));
+        }
+
+        public String getName() { return name; }
+
+        /** Live, read-only views of this branch alone, in fleet and booking order. */
+        public Collection<Car> getCars() { return Collections.unmodifiableCollection(cars.values()); }
+        public Collection<Car> getAvailableCars() { return Collections.unmodifiableCollection(availableCars.values()); }
+        public Collection<Rental> getActiveRentals() { return Collections.unmodifiableCollection(activeRentals.values()); }
+
+        // Cars of the type (null for any) with [from, to) free, in fleet order
+        List<Car> freeCars(String type, LocalDate from, LocalDate to, boolean parallel) {
+            Stream<Car> candidates = parallel ? cars.values().parallelStream() : cars.values().stream();
+            return candidates.filter(car -> isFree(car, type, from, to)).collect(Collectors.toList());
+        }
+
+        Car firstFreeCar(String type, LocalDate from, LocalDate to) {
+            for (Car car : cars.values()) {
+                if (isFree(car, type, from, to)) return car;
+            }
+            return null;
+        }
+
+        private static boolean isFree(Car car, String type, LocalDate from, LocalDate to) {
+            return (type == null || type.equalsIgnoreCase(car.getType())) && car.getCalendar().isFree(from, to);
+        }
+
+        @Override
+        public String toString() { return name; }
+    }
+
+    /**
+     * Live, read-only view of one index across every branch, as if it were a single map's
+     * values in key order. Iteration merges the branches' own weakly consistent iterators,
+     * so it copies nothing and never fails on concurrent change; with one branch it is
+     * simply that branch's iterator.
+     */
+    static class BranchView<K extends Comparable<K>, V> extends AbstractCollection<V> {
+        private final Supplier<List<Branch>> branches;
+        private final Function<Branch, ConcurrentSkipListMap<K, V>> index;
+
+        BranchView(Supplier<List<Branch>> branches, Function<Branch, ConcurrentSkipListMap<K, V>> index) {
+            this.branches = branches;
+            this.index = index;
+        }
+
+        @Override
+        public int size() {
+            long size = 0;
+            for (Branch branch : branches.get()) size += index.apply(branch).size();
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            for (Branch branch : branches.get()) {
+                if (!index.apply(branch).isEmpty()) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            List<Branch> shards = branches.get();
+            if (shards.size() == 1) return Collections.unmodifiableCollection(index.apply(shards.get(0)).values()).iterator();
+            List<Iterator<Map.Entry<K, V>>> sources = new ArrayList<>(shards.size());
+            for (Branch branch : shards) sources.add(index.apply(branch).entrySet().iterator());
+            Iterator<Map.Entry<K, V>> merged = new MergingIterator<>(sources, Map.Entry.comparingByKey());
+            return new Iterator<V>() {
+                @Override
+                public boolean hasNext() { return merged.hasNext(); }
+
+                @Override
+                public V next() { return merged.next().getValue(); }
+            };
+        }
+    }
+
+    /**
+     * Merges iterators that each run in ascending order into one that does. Sources are
+     * few, one per branch, so a linear pick of the smallest head beats a heap.
+     */
+    static final class MergingIterator<T> implements Iterator<T> {
+        private final List<Iterator<T>> sources;
+        private final Comparator<? super T> order;
+        // Each source's next element, null once it is exhausted
+        private final List<T> heads;
+
+        MergingIterator(List<Iterator<T>> sources, Comparator<? super T> order) {
+            this.sources = sources;
+            this.order = order;
+            heads = new ArrayList<>(sources.size());
+            for (Iterator<T> source : sources) heads.add(source.hasNext() ? source.next() : null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (T head : heads) {
+                if (head != null) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public T next() {
+            int min = -1;
+            for (int i = 0; i < heads.size(); i++) {
+                T head = heads.get(i);
+                if (head != null && (min < 0 || order.compare(head, heads.get(min)) < 0)) min = i;
+            }
+            if (min < 0) throw new NoSuchElementException();
+            T value = heads.get(min);
+            Iterator<T> source = sources.get(min);
+            heads.set(min, source.hasNext() ? source.next() : null);
+            return value;
+        }
+    }
+
+    static class carRe {
+        // Indexes keyed by natural ID so lookups never scan the fleet or the rental history.
+        // All of them are concurrent; bookings synchronise only through the car's own state.
+        private final Map<String, Car> carsByPlate = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<Integer, Car> carsByOrdinal = new ConcurrentSkipListMap<>();
+        // Every car and customer ever registered, removed ones included, so archived rows still resolve
+        private final ConcurrentSkipListMap<Integer, Car> carRecords = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<Integer, Customer> customerRecords = new ConcurrentSkipListMap<>();
+        // What bookings write is sharded by branch: cars on the lot and active rentals live in the car's Branch
+        private final Map<String, Branch> branches = new ConcurrentHashMap<>();
+        private volatile List<Branch> branchList = Collections.emptyList();
+        private final BranchView<Integer, Car> availableCars = new BranchView<>(() -> branchList, b -> b.availableCars);
+        private final BranchView<Long, Rental> activeRentals = new BranchView<>(() -> branchList, b -> b.activeRentals);
+        private final Map<String, Customer> customersById = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<Integer, Customer> customersByOrdinal = new ConcurrentSkipListMap<>();
+        static final String RENTAL_ID_PREFIX = "R";
+
+        private final Map<String, Rental> rentalsById = new ConcurrentHashMap<>();
+        // Keyed by customer ordinal, which the archive also records, so archived rows can be indexed
+        // before the customers themselves are loaded
+        private final Map<Integer, CustomerHistory> historyByCustomer = new ConcurrentHashMap<>();
+        private final AtomicInteger carOrdinals = new AtomicInteger();
+        private final AtomicInteger customerOrdinals = new AtomicInteger();
+        private final RentalIdSequence rentalIds = new RentalIdSequence(1);
+        private volatile RentalJournal journal;
+        private volatile RentalArchive archive;
+        // Completed rentals the archive could not take; they stay on the heap until a later write succeeds
+        private final Queue<Rental> unarchived = new ConcurrentLinkedQueue<>();
+        private volatile PricingEngine pricing = PricingEngine.FLAT;
+        private volatile StoreMetrics metrics;
+        private volatile OverdueScheduler overdue;
+        private final List<StoreListener> listeners = new CopyOnWriteArrayList<>();
+        private final ChangeFeed feed = new ChangeFeed(FEED_CAPACITY, FEED_STRIPES);
+        // Off until the first call to snapshot; from then on every change commits a new version of
+        // its branch's part, or of the customers' part
+        private volatile boolean versioned;
+        private final AtomicReference<StoreSnapshot.Part> committedCustomers =
+                new AtomicReference<>(StoreSnapshot.Part.empty(null));
+        // The last snapshot handed out, handed out again while none of its parts has changed
+        private volatile StoreSnapshot latestSnapshot;
+        private final Object snapshotLock = new Object();
+        private volatile boolean snapshotsReady;
+        private final PrefixIndex<Car> carSearch = new PrefixIndex<>(
+                car -> car.getMake() + " " + car.getModel() + " " + car.getLicensePlate(), Car::getOrdinal);
+        private final PrefixIndex<Customer> customerSearch = new PrefixIndex<>(
+                customer -> customer.getName() + " " + customer.getLicenseNumber() + " " + customer.getPhone(),
+                Customer::getOrdinal);
+
+        // Below this fleet size a sequential scan beats the fork-join overhead
+        private static final int PARALLEL_SEARCH_THRESHOLD = 10_000;
+        // Events a subscriber may fall behind by before it has to re-read the store
+        private static final int FEED_CAPACITY = 1 << 14;
+        private static final int FEED_STRIPES = 8;
+
+        public void initializeSampleData() {
+            // Add sample cars
+            addCar(new Car("ABC123", "Toyota", "Camry", "Sedan", 45.99));
+            addCar(new Car("XYZ789", "Ford", "Explorer", "SUV", 65.50));
+            addCar(new Car("LMN456", "BMW", "740i", "Luxury", 120.00));
+            addCar(new Car("JKL012", "Honda", "Civic", "Compact", 35.75));
+            addCar(new Car("QWE345", "Tesla", "Model 3", "Electric", 89.99));
+            
+            // Add sample customers
+            addCustomer(new Customer("C001", "John Smith", "DL12345", "555-1234"));
+            addCustomer(new Customer("C002", "Emma Johnson", "DL67890", "555-5678"));
+            addCustomer(new Customer("C003", "Michael Brown", "DL24680", "555-9012"));
+        }
+
+        /** Registers a car; returns false if a car with the same plate is already in the fleet. */
+        public boolean addCar(Car car) {
+            RentalJournal log = journal;
+            long record = insertCar(car, -1, log);
+            if (record < 0) return false;
+            carAdded(car);
+            sync(log, record);
+            return true;
+        }
+
+        /**
+         * Registers a batch of cars with one journal group commit. Unlike rentCars this is
+         * not all-or-nothing: each car is added unless its plate is taken, and the result
+         * says which were.
+         */
+        public boolean[] addCars(List<Car> cars) {
+            RentalJournal log = journal;
+            boolean[] added = new boolean[cars.size()];
+            List<Car> inserted = new ArrayList<>(cars.size());
+            long last = 0;
+            for (int i = 0; i < added.length; i++) {
+                Car car = cars.get(i);
+                long record = insertCar(car, -1, log);
+                added[i] = record >= 0;
+                if (added[i]) inserted.add(car);
+                last = Math.max(last, record);
+            }
+            for (Car car : inserted) carAdded(car);
+            sync(log, last);
+            return added;
+        }
+
+        // Returns the journal record, 0 without a journal, or -1 if the plate is taken. Replay
+        // passes the ordinal the car was journaled with; live adds pass -1 to draw a new one.
+        private long insertCar(Car car, int ordinal, RentalJournal log) {
+            long[] record = {-1};
+            // Deciding, journaling and publishing the plate happen in one step under the map's lock
+            // for it, so an add and a removal of the same plate reach the journal and the change feed
+            // in the order they took effect. The ordinal goes in the record, as plates racing on other keys may not.
+            carsByPlate.compute(car.getLicensePlate(), (plate, existing) -> {
+                if (existing != null) return existing;
+                car.ordinal = ordinal >= 0 ? ordinal : carOrdinals.getAndIncrement();
+                car.removed = false;
+                record[0] = log == null ? 0 : log.logAddCar(car);
+                feed.publish(StoreEvent.Type.CAR_ADDED, car, null, null);
+                return car;
+            });
+            if (record[0] < 0) return -1;
+            if (ordinal >= 0) carOrdinals.accumulateAndGet(ordinal + 1, Math::max);
+            carRecords.put(car.ordinal, car);
+            published(log, record[0]);
+            carsByOrdinal.put(car.ordinal, car);
+            branch(car).cars.put(car.ordinal, car);
+            carSearch.add(car);
+            refreshAvailability(car);
+            commit(car, null, null);
+            return record[0];
+        }
+
+        /**
+         * Takes a car out of the fleet. Refused (false) while it is rented or has bookings
+         * to come, or if it is not in the fleet. The car stays on record as a tombstone, so
+         * rentals it was part of keep resolving to it.
+         */
+        public boolean removeCar(Car car) {
+            RentalJournal log = journal;
+            long record = retire(car, log);
+            if (record < 0) return false;
+            carRemoved(car);
+            sync(log, record);
+            return true;
+        }
+
+        /**
+         * Removes a batch of cars, e.g. a retired model line, with one journal group commit.
+         * Every index update is O(log n), so the batch costs in proportion to its own size.
+         * Like addCars it is not all-or-nothing: the result is false where removeCar would be.
+         */
+        public boolean[] removeCars(List<Car> cars) {
+            RentalJournal log = journal;
+            boolean[] removed = new boolean[cars.size()];
+            List<Car> retired = new ArrayList<>(cars.size());
+            long last = 0;
+            for (int i = 0; i < removed.length; i++) {
+                Car car = cars.get(i);
+                long record = retire(car, log);
+                removed[i] = record >= 0;
+                if (removed[i]) retired.add(car);
+                last = Math.max(last, record);
+            }
+            for (Car car : retired) carRemoved(car);
+            sync(log, last);
+            return removed;
+        }
+
+        // Tombstones the car before looking for bookings, while hold counts a booking before
+        // looking for the tombstone; so of a removal and a booking racing on one car, at
+        // least one sees the other and backs off. Returns as insertCar does, -1 if refused.
+        private long retire(Car car, RentalJournal log) {
+            long[] record = {-1};
+            carsByPlate.computeIfPresent(car.getLicensePlate(), (plate, existing) -> {
+                if (existing != car) return existing;
+                synchronized (car) {
+                    if (car.removed) return existing;
+                    car.removed = true;
+                    if (car.bookings != 0) {
+                        car.removed = false;
+                        return existing;
+                    }
+                }
+                try {
+                    record[0] = log == null ? 0 : log.logRemoveCar(car);
+                } catch (RuntimeException e) {
+                    car.removed = false;
+                    throw e;
+                }
+                feed.publish(StoreEvent.Type.CAR_REMOVED, car, null, null);
+                return null;
+            });
+            if (record[0] < 0) return -1;
+            published(log, record[0]);
+            carsByOrdinal.remove(car.ordinal, car);
+            branch(car).cars.remove(car.ordinal, car);
+            carSearch.remove(car);
+            refreshAvailability(car);
+            commit(car, null, null);
+            return record[0];
+        }
+
+        // The feed heard of the change while it was being decided; listeners hear once it is visible
+        private void carAdded(Car car) {
+            for (StoreListener listener : listeners) listener.carAdded(car);
+        }
+
+        private void carRemoved(Car car) {
+            for (StoreListener listener : listeners) listener.carRemoved(car);
+        }
+
+        /** The whole fleet, rented or not, in the order cars were added. */
+        public Collection<Car> getCars() {
+            return Collections.unmodifiableCollection(carsByOrdinal.values());
+        }
+
+        public Car getCar(String licensePlate) { return carsByPlate.get(licensePlate); }
+
+        /** The car in the fleet with this ordinal, or null if there is none (any more). */
+        Car getCarByOrdinal(int ordinal) { return carsByOrdinal.get(ordinal); }
+
+        /** Resolves the car ordinals stored in archived rows, removed cars included. */
+        Car getCarRecord(int ordinal) { return carRecords.get(ordinal); }
+
+        /** Every car ever registered, removed ones included, in ordinal order. */
+        Collection<Car> getCarRecords() { return Collections.unmodifiableCollection(carRecords.values()); }
+
+        /**
+         * Live, read-only view of the cars that can be rented right now, at every branch, in
+         * fleet order. This used to be a List copied on every call; callers that index, sort
+         * or modify the result must copy it themselves, e.g. new ArrayList<>(getAvailableCars()).
+         */
+        public Collection<Car> getAvailableCars() { return availableCars; }
+
+        /** Every branch that has had a car, by name. */
+        public List<Branch> getBranches() { return branchList; }
+
+        public Branch getBranch(String name) { return branches.get(name); }
+
+        // The car's shard, opened on first use; branches are few and never closed
+        private Branch branch(Car car) {
+            Branch branch = branches.get(car.getBranch());
+            return branch != null ? branch : openBranch(car.getBranch());
+        }
+
+        private synchronized Branch openBranch(String name) {
+            Branch branch = branches.get(name);
+            if (branch != null) return branch;
+            branch = new Branch(name);
+            List<Branch> list = new ArrayList<>(branchList);
+            list.add(branch);
+            list.sort(Comparator.comparing(Branch::getName));
+            // Listed before it can be found by name, so no view misses a car added to it
+            branchList = Collections.unmodifiableList(list);
+            branches.put(name, branch);
+            return branch;
+        }
+
+        /**
+         * Cars with a word in make, model or plate starting with the query, e.g. "toy cam"
+         * or "abc1"; at most limit of them, optionally only those on the lot.
+         */
+        public List<Car> searchCars(String query, int limit, boolean availableOnly) {
+            // Filtered while walking: a second index for cars on the lot would cost every rent and return far more.
+            // The index only holds registered cars, so the car's own state is enough here.
+            return carSearch.search(query, limit, availableOnly ? Car::isAvailable : car -> true);
+        }
+
+        /** Customers with a word in name, licence number or phone starting with the query. */
+        public List<Customer> searchCustomers(String query, int limit) {
+            return customerSearch.search(query, limit, customer -> true);
+        }
+
+        /** Whether the car is in the fleet and on the lot; constant time, unlike scanning getAvailableCars. */
+        public boolean isAvailable(Car car) {
+            Branch branch = branches.get(car.getBranch());
+            return branch != null && branch.availableCars.get(car.ordinal) == car;
+        }
+        
+        /** Registers a customer; returns false if the ID is already taken. */
+        public boolean addCustomer(Customer customer) {
+            RentalJournal log = journal;
+            long record = insertCustomer(customer, -1, log);
+            if (record < 0) return false;
+            customerAdded(customer);
+            sync(log, record);
+            return true;
+        }
+
+        /** Registers a batch of customers with one journal group commit; false where the ID was taken. */
+        public boolean[] addCustomers(List<Customer> customers) {
+            RentalJournal log = journal;
+            boolean[] added = new boolean[customers.size()];
+            List<Customer> inserted = new ArrayList<>(customers.size());
+            long last = 0;
+            for (int i = 0; i < added.length; i++) {
+                Customer customer = customers.get(i);
+                long record = insertCustomer(customer, -1, log);
+                added[i] = record >= 0;
+                if (added[i]) inserted.add(customer);
+                last = Math.max(last, record);
+            }
+            for (Customer customer : inserted) customerAdded(customer);
+            sync(log, last);
+            return added;
+        }
+
+        private void customerAdded(Customer customer) {
+            for (StoreListener listener : listeners) listener.customerAdded(customer);
+        }
+
+        // The ID is decided, journaled and published in one step, as insertCar does with the plate
+        private long insertCustomer(Customer customer, int ordinal, RentalJournal log) {
+            long[] record = {-1};
+            customersById.compute(customer.getId(), (id, existing) -> {
+                if (existing != null) return existing;
+                customer.ordinal = ordinal >= 0 ? ordinal : customerOrdinals.getAndIncrement();
+                customer.removed = false;
+                record[0] = log == null ? 0 : log.logAddCustomer(customer);
+                feed.publish(StoreEvent.Type.CUSTOMER_ADDED, null, customer, null);
+                return customer;
+            });
+            if (record[0] < 0) return -1;
+            if (ordinal >= 0) customerOrdinals.accumulateAndGet(ordinal + 1, Math::max);
+            customerRecords.put(customer.ordinal, customer);
+            published(log, record[0]);
+            customersByOrdinal.put(customer.ordinal, customer);
+            customerSearch.add(customer);
+            commit(null, customer, null);
+            return record[0];
+        }
+
+        /**
+         * Deregisters a customer. Refused (false) while they have a rental running or to come.
+         * Like a removed car, the customer stays on record as a tombstone for their history.
+         */
+        public boolean removeCustomer(Customer customer) {
+            RentalJournal log = journal;
+            long[] record = {-1};
+            customersById.computeIfPresent(customer.getId(), (id, existing) -> {
+                if (existing != customer) return existing;
+                // The same tombstone-then-count handshake with hold as for cars
+                synchronized (customer) {
+                    if (customer.removed) return existing;
+                    customer.removed = true;
+                    if (customer.bookings != 0) {
+                        customer.removed = false;
+                        return existing;
+                    }
+                }
+                try {
+                    record[0] = log == null ? 0 : log.logRemoveCustomer(customer);
+                } catch (RuntimeException e) {
+                    customer.removed = false;
+                    throw e;
+                }
+                feed.publish(StoreEvent.Type.CUSTOMER_REMOVED, null, customer, null);
+                return null;
+            });
+            if (record[0] < 0) return false;
+            published(log, record[0]);
+            customersByOrdinal.remove(customer.ordinal, customer);
+            customerSearch.remove(customer);
+            commit(null, customer, null);
+            for (StoreListener listener : listeners) listener.customerRemoved(customer);
+            sync(log, record[0]);
+            return true;
+        }
+
+        public Customer getCustomer(String id) { return customersById.get(id); }
+
+        Customer getCustomerByOrdinal(int ordinal) { return customersByOrdinal.get(ordinal); }
+
+        Customer getCustomerRecord(int ordinal) { return customerRecords.get(ordinal); }
+
+        Collection<Customer> getCustomerRecords() { return Collections.unmodifiableCollection(customerRecords.values()); }
+
+        /**
+         * Live, read-only view of the registered customers in the order they were added. This
+         * used to be the store's own mutable List; copy it to index, sort or modify it.
+         */
+        public Collection<Customer> getCustomers() {
+            return Collections.unmodifiableCollection(customersByOrdinal.values());
+        }
+        
+        public Rental rentCar(Customer customer, Car car, int days) {
+            LocalDate today = LocalDate.now();
+            return reserveCar(customer, car, today, today.plusDays(days));
+        }
+
+        /**
+         * Books a car for [start, end). A booking starting today takes the car off the lot
+         * straight away; a later one only blocks the dates in the car's calendar until
+         * pickUp hands the car over on the start date. Returns null if the car is out or
+         * the dates clash with another booking; start dates in the past are refused.
+         */
+        public Rental reserveCar(Customer customer, Car car, LocalDate start, LocalDate end) {
+            if (!end.isAfter(start)) {
+                throw new IllegalArgumentException("Rental must end after it starts: " + start + " - " + end);
+            }
+            LocalDate today = LocalDate.now();
+            if (start.isBefore(today)) throw new IllegalArgumentException("Rental cannot start in the past: " + start);
+            StoreMetrics m = metrics;
+            long started = m == null ? 0 : System.nanoTime();
+            RentalJournal log = journal;
+            Rental rental = book(customer, car, start, end, !start.isAfter(today), -1, -1);
+            long record = 0;
+            if (rental != null) {
+                // Journaled before the rental can be found, so nothing can return it ahead of its record
+                if (log != null) {
+                    try {
+                        record = log.logRent(rental);
+                    } catch (RuntimeException e) {
+                        abandon(rental);
+                        throw e;
+                    }
+                }
+                register(rental);
+                published(log, record);
+            }
+            if (m != null) m.rentCar.record(started, rental != null);
+            sync(log, record);
+            return rental;
+        }
+
+        // Claims the car and dates and draws up the rental, which no one can see until register.
+        // Shared by live bookings (sequence and cost -1 draw a new number and a quote) and journal
+        // replay, which passes the pickup state the booking was journaled with.
+        private Rental book(Customer customer, Car car, LocalDate start, LocalDate end, boolean pickup,
+                            long sequence, long costCents) {
+            if (!hold(customer, car)) return null;
+            if (!claim(car, start, end, pickup)) {
+                unhold(customer, car);
+                return null;
+            }
+            return newRental(customer, car, start, end, pickup, sequence, costCents);
+        }
+
+        // Gives back what book claimed for a rental that is not going ahead
+        private void abandon(Rental rental) {
+            unclaim(rental.getCar(), rental.getStartDate(), rental.getEndDate(), rental.holdsCar());
+            unhold(rental.getCustomer(), rental.getCar());
+        }
+
+        // Counts a booking against the car and customer so neither can be removed under it;
+        // fails if either has been removed. Paired with unhold when the rental ends.
+        private boolean hold(Customer customer, Car car) {
+            Car.BOOKINGS.incrementAndGet(car);
+            Customer.BOOKINGS.incrementAndGet(customer);
+            if (car.removed || customer.removed) {
+                unhold(customer, car);
+                return false;
+            }
+            return true;
+        }
+
+        private void unhold(Customer customer, Car car) {
+            Car.BOOKINGS.decrementAndGet(car);
+            Customer.BOOKINGS.decrementAndGet(customer);
+        }
+
+        // Takes the car (for a pickup) and the dates; undoes the car claim if the dates clash
+        private boolean claim(Car car, LocalDate start, LocalDate end, boolean pickup) {
+            // The compare-and-set is the whole reservation: losers see false and back off
+            if (pickup) {
+                if (!car.tryReserve()) {
+                    StoreMetrics m = metrics;
+                    if (m != null) m.carTaken.increment();
+                    return false;
+                }
+                // Snapshots see the car go together with its rental, committed by register
+                refreshAvailability(car);
+            }
+            if (!car.getCalendar().tryBook(start, end)) {
+                if (pickup) {
+                    car.release();
+                    refreshAvailability(car);
+                    commit(car, null, null);
+                }
+                StoreMetrics m = metrics;
+                if (m != null) m.datesTaken.increment();
+                return false;
+            }
+            return true;
+        }
+
+        private void unclaim(Car car, LocalDate start, LocalDate end, boolean pickup) {
+            car.getCalendar().release(start, end);
+            if (pickup) {
+                car.release();
+                refreshAvailability(car);
+                commit(car, null, null);
+            }
+        }
+
+        private Rental newRental(Customer customer, Car car, LocalDate start, LocalDate end,
+                                 boolean pickup, long sequence, long costCents) {
+            if (sequence < 0) sequence = rentalIds.next();
+            if (costCents < 0) costCents = pricing.quoteCents(car, start, end);
+            Rental rental = new Rental(rentalIdFor(sequence), sequence, car, customer, start, end, costCents);
+            rental.holdsCar = pickup;
+            return rental;
+        }
+
+        // Publishes a rental that book drew up. Announced before it can be found, so no
+        // return can announce its end first.
+        private void register(Rental rental) {
+            Car car = rental.getCar();
+            feed.publish(StoreEvent.Type.RENTAL_STARTED, car, rental.getCustomer(), rental);
+            for (StoreListener listener : listeners) listener.rentalStarted(rental);
+            rentalsById.put(rental.getRentalId(), rental);
+            history(rental.getCustomer().getOrdinal()).add(rental.getStartDate().toEpochDay(), rental.getSequence(), -1);
+            branch(car).activeRentals.put(rental.getSequence(), rental);
+            commit(car, null, rental);
+        }
+
+        /**
+         * Books a whole batch or nothing. Every item is validated and claimed in a single
+         * pass; if any fails, the claims already taken are released and the result names
+         * each failed item. A committed batch is journaled as one record, so recovery
+         * replays all of it or none.
+         */
+        public BatchResult rentCars(List<RentalRequest> requests) {
+            StoreMetrics m = metrics;
+            long started = m == null ? 0 : System.nanoTime();
+            BatchResult result = bookAll(requests);
+            if (m != null) m.rentCars.record(started, result.isCommitted());
+            return result;
+        }
+
+        private BatchResult bookAll(List<RentalRequest> requests) {
+            int n = requests.size();
+            List<String> errors = new ArrayList<>(Collections.nCopies(n, (String) null));
+            boolean[] claimed = new boolean[n];
+            boolean[] pickups = new boolean[n];
+            LocalDate today = LocalDate.now();
+            boolean failed = false;
+            for (int i = 0; i < n; i++) {
+                RentalRequest request = requests.get(i);
+                String error = validate(request);
+                if (error == null && !hold(request.getCustomer(), request.getCar())) {
+                    error = "Car " + request.getCar().getLicensePlate() + " or customer "
+                            + request.getCustomer().getId() + " has been removed";
+                } else if (error == null) {
+                    pickups[i] = !request.getStartDate().isAfter(today);
+                    claimed[i] = claim(request.getCar(), request.getStartDate(), request.getEndDate(), pickups[i]);
+                    if (!claimed[i]) {
+                        unhold(request.getCustomer(), request.getCar());
+                        error = "Car " + request.getCar().getLicensePlate() + " is not available";
+                    }
+                }
+                if (error != null) {
+                    errors.set(i, error);
+                    failed = true;
+                }
+            }
+            if (failed) {
+                for (int i = 0; i < n; i++) {
+                    RentalRequest request = requests.get(i);
+                    if (claimed[i]) {
+                        unclaim(request.getCar(), request.getStartDate(), request.getEndDate(), pickups[i]);
+                        unhold(request.getCustomer(), request.getCar());
+                    }
+                }
+                return new BatchResult(false, Collections.emptyList(), errors);
+            }
+            List<Rental> rentals = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                RentalRequest request = requests.get(i);
+                rentals.add(newRental(request.getCustomer(), request.getCar(), request.getStartDate(),
+                        request.getEndDate(), pickups[i], -1, -1));
+            }
+            RentalJournal log = journal;
+            long record = 0;
+            if (log != null) {
+                try {
+                    record = log.logRents(rentals);
+                } catch (RuntimeException e) {
+                    for (Rental rental : rentals) abandon(rental);
+                    throw e;
+                }
+            }
+            for (Rental rental : rentals) register(rental);
+            published(log, record);
+            sync(log, record);
+            return new BatchResult(true, rentals, errors);
+        }
+
+        private String validate(RentalRequest request) {
+            if (request.getCar() == null || request.getCustomer() == null) return "Car and customer are required";
+            if (request.getStartDate() == null || request.getEndDate() == null) return "Dates are required";
+            if (!request.getEndDate().isAfter(request.getStartDate())) return "Rental must end after it starts";
+            if (request.getStartDate().isBefore(LocalDate.now())) return "Rental cannot start in the past";
+            if (carsByPlate.get(request.getCar().getLicensePlate()) != request.getCar()) {
+                return "Car " + request.getCar().getLicensePlate() + " is not in the fleet";
+            }
+            if (customersById.get(request.getCustomer().getId()) != request.getCustomer()) {
+                return "Customer " + request.getCustomer().getId() + " is not registered";
+            }
+            return null;
+        }
+        
+        public boolean returnCar(String rentalId) {
+            StoreMetrics m = metrics;
+            long started = m == null ? 0 : System.nanoTime();
+            Rental rental = rentalsById.get(rentalId);
+            if (rental == null || !rental.claimForReturn()) {
+                if (m != null) m.returnCar.record(started, false);
+                return false;
+            }
+            // Journaled while the return is claimed and before the car is free, so the next
+            // booking of the car is always journaled after it
+            RentalJournal log = journal;
+            long record = 0;
+            if (log != null) {
+                try {
+                    record = log.logReturn(rental);
+                } catch (RuntimeException e) {
+                    rental.cancelReturn();
+                    throw e;
+                }
+            }
+            rental.finishReturn();
+            release(rental, log, record);
+            archiveCompleted(rental);
+            if (m != null) m.returnCar.record(started, true);
+            sync(log, record);
+            return true;
+        }
+
+        /**
+         * Returns a whole batch or nothing. Each rental is claimed first, so a concurrent
+         * return of the same rental cannot slip in between validation and completion.
+         */
+        public BatchResult returnCars(Collection<String> rentalIds) {
+            StoreMetrics m = metrics;
+            long started = m == null ? 0 : System.nanoTime();
+            BatchResult result = returnAll(rentalIds);
+            if (m != null) m.returnCars.record(started, result.isCommitted());
+            return result;
+        }
+
+        private BatchResult returnAll(Collection<String> rentalIds) {
+            List<String> errors = new ArrayList<>(rentalIds.size());
+            List<Rental> claimed = new ArrayList<>(rentalIds.size());
+            boolean failed = false;
+            for (String rentalId : rentalIds) {
+                Rental rental = rentalsById.get(rentalId);
+                String error = null;
+                if (rental == null) {
+                    error = "Unknown rental " + rentalId;
+                } else if (!rental.claimForReturn()) {
+                    error = "Rental " + rentalId + " is not active";
+                } else {
+                    claimed.add(rental);
+                }
+                errors.add(error);
+                failed |= error != null;
+            }
+            if (failed) {
+                for (Rental rental : claimed) rental.cancelReturn();
+                return new BatchResult(false, Collections.emptyList(), errors);
+            }
+            RentalJournal log = journal;
+            long record = 0;
+            if (log != null) {
+                try {
+                    record = log.logReturns(claimed);
+                } catch (RuntimeException e) {
+                    for (Rental rental : claimed) rental.cancelReturn();
+                    throw e;
+                }
+            }
+            for (Rental rental : claimed) {
+                rental.finishReturn();
+                release(rental, null, 0);
+            }
+            published(log, record);
+            for (Rental rental : claimed) archiveCompleted(rental);
+            sync(log, record);
+            return new BatchResult(true, claimed, errors);
+        }
+
+        // Ends a rental whose return has been journaled as record, which is published once the
+        // rental has left the active set; a batch passes no journal and publishes its one record itself
+        private void release(Rental rental, RentalJournal log, long record) {
+            branch(rental.getCar()).activeRentals.remove(rental.getSequence(), rental);
+            published(log, record);
+            // Committed before the car is freed, so no version shows it on the lot with this rental still running
+            commit(null, null, rental);
+            boolean heldCar;
+            // Either a racing pickUp has taken the car by now, or it will see the rental ended and not take it
+            synchronized (rental) {
+                heldCar = rental.holdsCar;
+            }
+            unclaim(rental.getCar(), rental.getStartDate(), rental.getEndDate(), heldCar);
+            unhold(rental.getCustomer(), rental.getCar());
+            for (StoreListener listener : listeners) listener.rentalEnded(rental);
+            feed.publish(StoreEvent.Type.RENTAL_ENDED, rental.getCar(), rental.getCustomer(), rental);
+        }
+
+        /**
+         * Hands over the car of a reservation whose start date has come: takes it off the lot,
+         * so from now on the rental holds it as a booking made for today does. False if the
+         * rental has ended or already holds its car, or if the car is still out with an
+         * earlier renter; the OverdueScheduler calls this on the start date and retries then.
+         */
+        public boolean pickUp(Rental rental) {
+            Car car = rental.getCar();
+            RentalJournal log = journal;
+            long record = 0;
+            synchronized (rental) {
+                if (!rental.isActive() || rental.holdsCar || !car.tryReserve()) return false;
+                rental.holdsCar = true;
+                if (log != null) {
+                    try {
+                        record = log.logPickUp(rental);
+                    } catch (RuntimeException e) {
+                        rental.holdsCar = false;
+                        car.release();
+                        throw e;
+                    }
+                }
+            }
+            published(log, record);
+            refreshAvailability(car);
+            commit(car, null, null);
+            sync(log, record);
+            return true;
+        }
+
+        // A mutation takes its journal record while it is being decided, before anyone can see it,
+        // so the journal holds mutations in the order they took effect. published tells the journal
+        // the change is visible, which its snapshots wait for; sync waits for the disk, last of all.
+        private static void published(RentalJournal log, long record) {
+            if (log != null && record > 0) log.published(record);
+        }
+
+        private static void sync(RentalJournal log, long record) {
+            if (log != null && record > 0) log.sync(record);
+        }
+
+        public void addStoreListener(StoreListener listener) { listeners.add(listener); }
+
+        public void removeStoreListener(StoreListener listener) { listeners.remove(listener); }
+
+        /** Asynchronous feed of every change to this store; see ChangeFeed. */
+        public ChangeFeed getChangeFeed() { return feed; }
+
+        /**
+         * The latest committed version of the store, for readers that need the fleet, the lot,
+         * customers and rentals to agree with each other, such as reports and UI lists. Taking
+         * one reads each branch's latest part. The first call turns versioning on: it walks the
+         * store once, and from then on each change also commits a new version of its branch's
+         * part, copying a few small trie nodes and publishing them with a compare-and-set.
+         */
+        public StoreSnapshot snapshot() {
+            if (!snapshotsReady) enableSnapshots();
+            while (true) {
+                StoreSnapshot.Part customers = committedCustomers.get();
+                List<Branch> list = branchList;
+                List<StoreSnapshot.Part> parts = new ArrayList<>(list.size());
+                for (Branch branch : list) parts.add(branch.committed.get());
+                // The customers held still while the branches were read, so every branch part agrees with them
+                if (committedCustomers.get() != customers) continue;
+                StoreSnapshot latest = latestSnapshot;
+                if (latest != null && latest.consistsOf(customers, parts)) return latest;
+                latest = new StoreSnapshot(customers, Collections.unmodifiableList(parts));
+                latestSnapshot = latest;
+                return latest;
+            }
+        }
+
+        // Safe while the store is in use: a change made during the walk either commits itself
+        // or is there for the walk to pick up, and re-committing an entity is harmless
+        private void enableSnapshots() {
+            synchronized (snapshotLock) {
+                if (snapshotsReady) return;
+                versioned = true;
+                for (Car car : carRecords.values()) commit(car, null, null);
+                for (Customer customer : customerRecords.values()) commit(null, customer, null);
+                for (Rental rental : activeRentals) commit(null, null, rental);
+                snapshotsReady = true;
+            }
+        }
+
+        // Brings the given car, customer and rental up to date in a new version of their part:
+        // the branch's for a car and its rental, the customers' for a customer. Their live state
+        // is read after the version it builds on, and a lost race reads it again, so the last
+        // version to touch an entity always has its newest state.
+        private void commit(Car car, Customer customer, Rental rental) {
+            if (!versioned) return;
+            if (customer != null) {
+                while (true) {
+                    StoreSnapshot.Part base = committedCustomers.get();
+                    StoreSnapshot.Part next = base.withCustomer(customer, customersById.get(customer.getId()) == customer);
+                    if (next == base || committedCustomers.compareAndSet(base, next.committedAfter(base))) break;
+                }
+            }
+            if (car == null && rental == null) return;
+            Branch branch = branch(car != null ? car : rental.getCar());
+            while (true) {
+                StoreSnapshot.Part base = branch.committed.get();
+                StoreSnapshot.Part next = base;
+                if (car != null) {
+                    next = next.withCar(car, carsByPlate.get(car.getLicensePlate()) == car, isAvailable(car));
+                }
+                if (rental != null) {
+                    next = next.withRental(rental, branch.activeRentals.get(rental.getSequence()) == rental);
+                }
+                if (next == base || branch.committed.compareAndSet(base, next.committedAfter(base))) return;
+            }
+        }
+
+        /**
+         * Moves completed rentals off the heap into the archive from now on, starting with
+         * any already completed ones, so the in-memory indexes only hold active rentals.
+         * Attach it before journal recovery so replayed returns never pile up on the heap.
+         */
+        public void attachArchive(RentalArchive archive) {
+            archive.scan((row, sequence, carOrdinal, customerOrdinal, startDay, endDay, costCents) ->
+                    history(customerOrdinal).add(startDay, sequence, row));
+            this.archive = archive;
+            for (Rental rental : rentalsById.values()) {
+                if (!rental.isActive()) archiveCompleted(rental);
+            }
+        }
+
+        private CustomerHistory history(int customerOrdinal) {
+            CustomerHistory history = historyByCustomer.get(customerOrdinal);
+            return history != null ? history : historyByCustomer.computeIfAbsent(customerOrdinal, o -> new CustomerHistory());
+        }
+
+        public RentalArchive getArchive() { return archive; }
+
+        /** Completed rentals left on the heap because the archive failed to write them; retried on the next return. */
+        public int getUnarchivedCount() { return unarchived.size(); }
+
+        // The return has already happened, so an archive failure must not undo or fail it: the
+        // rental stays on the heap, where every read still finds it, and is queued for a retry.
+        private void archiveCompleted(Rental rental) {
+            RentalArchive target = archive;
+            if (target == null) return;
+            if (!unarchived.isEmpty() && !retryArchive(target)) {
+                unarchived.add(rental);
+                return;
+            }
+            try {
+                archive(target, rental);
+            } catch (IOException e) {
+                // Every failure is counted; the trace is logged once per outage, and the retries
+                // that follow stay quiet until one succeeds
+                StoreMetrics m = metrics;
+                if (m != null) m.archiveFailures.increment();
+                if (unarchived.isEmpty()) reportFailure("Could not archive rental " + rental.getRentalId(), e);
+                unarchived.add(rental);
+            }
+        }
+
+        // Archives the queued rentals in order; returns false, keeping the rest queued, at the first failure
+        private boolean retryArchive(RentalArchive target) {
+            for (int n = unarchived.size(); n > 0; n--) {
+                Rental rental = unarchived.peek();
+                if (rental == null) break;
+                try {
+                    archive(target, rental);
+                } catch (IOException e) {
+                    StoreMetrics m = metrics;
+                    if (m != null) m.archiveFailures.increment();
+                    return false;
+                }
+                unarchived.remove(rental);
+            }
+            return true;
+        }
+
+        private void archive(RentalArchive target, Rental rental) throws IOException {
+            long row = target.append(rental);
+            // The history learns the row before the heap copy goes, so readers always find one of them
+            if (row >= 0) {
+                history(rental.getCustomer().getOrdinal()).archived(rental.getStartDate().toEpochDay(), rental.getSequence(), row);
+            }
+            rentalsById.remove(rental.getRentalId(), rental);
+        }
+
+        /**
+         * Starts journaling every mutation. Recover into this carRe first, since
+         * replayed records are not journaled again.
+         */
+        public void attachJournal(RentalJournal journal) {
+            journal.attach(this);
+            this.journal = journal;
+        }
+
+        // Journal replay: re-creates a booking under its original number and price unless it is already
+        // known or archived; journals written before prices were recorded pass -1 and are quoted again
+        void restoreRental(long sequence, Customer customer, Car car, LocalDate start, LocalDate end,
+                           long costCents, boolean pickup) {
+            if (rentalsById.containsKey(rentalIdFor(sequence))) return;
+            rentalIds.advancePast(sequence);
+            RentalArchive target = archive;
+            if (target != null && target.contains(sequence)) return;
+            Rental rental = book(customer, car, start, end, pickup, sequence, costCents);
+            if (rental != null) register(rental);
+        }
+
+        // Journal replay of an added car or customer, under the ordinal it had; -1 for journals
+        // written before ordinals were recorded, which hand them out in replay order
+        void restoreCar(Car car, int ordinal) {
+            if (insertCar(car, ordinal, null) >= 0) carAdded(car);
+        }
+
+        void restoreCustomer(Customer customer, int ordinal) {
+            if (insertCustomer(customer, ordinal, null) >= 0) customerAdded(customer);
+        }
+
+        // Snapshot replay of a completed rental that was still on the heap: back on the heap and in
+        // the customer's history, then into the archive if one is attached by now
+        void restoreCompleted(long sequence, Customer customer, Car car, LocalDate start, LocalDate end, long costCents) {
+            String rentalId = rentalIdFor(sequence);
+            if (rentalsById.containsKey(rentalId)) return;
+            rentalIds.advancePast(sequence);
+            RentalArchive target = archive;
+            if (target != null && target.contains(sequence)) return;
+            Rental rental = Rental.archived(rentalId, sequence, car, customer, start, end, costCents);
+            rentalsById.put(rentalId, rental);
+            history(customer.getOrdinal()).add(start.toEpochDay(), sequence, -1);
+            archiveCompleted(rental);
+        }
+
+        // Journal replay of a pickup; a no-op if the rental has ended or was restored holding its car
+        void restorePickUp(long sequence) {
+            Rental rental = rentalsById.get(rentalIdFor(sequence));
+            if (rental != null) pickUp(rental);
+        }
+
+        /** Starts timing the store's hot paths into the given metrics, or stops with null. */
+        public void attachMetrics(StoreMetrics metrics) {
+            if (metrics != null) metrics.attach(this);
+            this.metrics = metrics;
+        }
+
+        public StoreMetrics getMetrics() { return metrics; }
+
+        /** Makes the scheduler's overdue reports and late fees available to the forms, or none with null. */
+        public void attachOverdue(OverdueScheduler overdue) { this.overdue = overdue; }
+
+        public OverdueScheduler getOverdue() { return overdue; }
+
+        /** Prices future bookings; ones already made keep the price they were quoted. */
+        public void setPricingEngine(PricingEngine pricing) { this.pricing = Objects.requireNonNull(pricing); }
+
+        public PricingEngine getPricingEngine() { return pricing; }
+
+        public long quoteCents(Car car, LocalDate start, LocalDate end) { return pricing.quoteCents(car, start, end); }
+
+        /** Quotes a page of candidate cars for one date range, as a search result shows them. */
+        public long[] quoteCents(List<? extends Car> cars, LocalDate start, LocalDate end) {
+            return pricing.quoteCents(cars, start, end);
+        }
+
+        String rentalIdFor(long sequence) { return RENTAL_ID_PREFIX + sequence; }
+
+        /**
+         * Cars of the given type (null for any) with no booking overlapping [from, to),
+         * in fleet order. Large fleets are checked in parallel.
+         */
+        public List<Car> findAvailableCars(String type, LocalDate from, LocalDate to) {
+            return findAvailableCars(type, from, to, null);
+        }
+
+        /**
+         * As above, but only at the named branches (null for all), e.g. every branch in a
+         * region. Each branch is searched as a task of its own, in parallel once the fleet
+         * is large, and the per-branch results are merged back into fleet order.
+         */
+        public List<Car> findAvailableCars(String type, LocalDate from, LocalDate to, Collection<String> branchNames) {
+            List<Branch> selected = branches(branchNames);
+            boolean parallel = carsByPlate.size() >= PARALLEL_SEARCH_THRESHOLD;
+            if (selected.size() == 1) return selected.get(0).freeCars(type, from, to, parallel);
+            List<List<Car>> found = (parallel ? selected.parallelStream() : selected.stream())
+                    .map(branch -> branch.freeCars(type, from, to, parallel))
+                    .collect(Collectors.toList());
+            List<Car> merged = new ArrayList<>();
+            for (List<Car> cars : found) merged.addAll(cars);
+            merged.sort(Comparator.comparingInt(Car::getOrdinal));
+            return merged;
+        }
+
+        /**
+         * Some car of the type (null for any) free over [from, to) at one of the named
+         * branches (null for all), or null if there is none. The branches are searched in
+         * parallel and the search stops at the first car found.
+         */
+        public Car findAnyAvailableCar(String type, LocalDate from, LocalDate to, Collection<String> branchNames) {
+            return branches(branchNames).parallelStream()
+                    .map(branch -> branch.firstFreeCar(type, from, to))
+                    .filter(Objects::nonNull)
+                    .findAny()
+                    .orElse(null);
+        }
+
+        private List<Branch> branches(Collection<String> names) {
+            if (names == null) return branchList;
+            List<Branch> selected = new ArrayList<>(names.size());
+            for (String name : new LinkedHashSet<>(names)) {
+                Branch branch = branches.get(name);
+                if (branch != null) selected.add(branch);
+            }
+            return selected;
+        }
+
+        public Rental getRental(String rentalId) { return rentalsById.get(rentalId); }
+        
+        /** Rentals still held on the heap: active ones, and completed ones not (yet) archived. */
+        Collection<Rental> getRentals() {
+            return Collections.unmodifiableCollection(rentalsById.values());
+        }
+        
+        /**
+         * Live, read-only view of the running rentals at every branch, in booking order. This
+         * used to be a List copied on every call; copy it to index, sort or modify it.
+         */
+        public Collection<Rental> getActiveRentals() { return activeRentals; }
+
+        /** Every rental the customer has made, newest start date first. */
+        public List<Rental> getRentals(Customer customer) {
+            return getRentalHistory(customer, 0, Integer.MAX_VALUE);
+        }
+
+        public int getRentalCount(Customer customer) {
+            CustomerHistory history = historyByCustomer.get(customer.getOrdinal());
+            return history == null ? 0 : history.size();
+        }
+
+        /**
+         * A page of the customer's rentals, newest start date first. Costs one index copy
+         * plus one lookup per rental returned, however long the overall history is.
+         */
+        public List<Rental> getRentalHistory(Customer customer, int offset, int limit) {
+            CustomerHistory history = historyByCustomer.get(customer.getOrdinal());
+            if (history == null || offset < 0 || limit <= 0) return Collections.emptyList();
+            int capacity = Math.max(0, Math.min(limit, history.size() - offset));
+            long[] keys = new long[capacity];
+            long[] rows = new long[capacity];
+            int count = history.newestFirst(offset, capacity, keys, rows);
+            List<Rental> page = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Rental rental = resolve(history, customer, keys[i], rows[i]);
+                if (rental != null) page.add(rental);
+            }
+            return page;
+        }
+
+        /** The customer's rentals still running; only the unarchived part of the history is looked at. */
+        public List<Rental> getActiveRentals(Customer customer) {
+            CustomerHistory history = historyByCustomer.get(customer.getOrdinal());
+            if (history == null) return Collections.emptyList();
+            List<Rental> active = new ArrayList<>();
+            for (long sequence : history.onHeap()) {
+                Rental rental = rentalsById.get(rentalIdFor(sequence));
+                if (rental != null && rental.isActive()) active.add(rental);
+            }
+            active.sort(Comparator.comparing(Rental::getStartDate).reversed());
+            return active;
+        }
+
+        private Rental resolve(CustomerHistory history, Customer customer, long key, long row) {
+            long sequence = CustomerHistory.sequenceOf(key);
+            if (row < 0) {
+                Rental rental = rentalsById.get(rentalIdFor(sequence));
+                if (rental != null) return rental;
+                // Archived since the page was copied; the index has the row by now
+                row = history.rowOf(key);
+                if (row < 0) return null;
+            }
+            RentalArchive target = archive;
+            if (target == null) return null;
+            Rental[] found = new Rental[1];
+            target.scan(row, row + 1, (r, seq, carOrdinal, customerOrdinal, startDay, endDay, costCents) -> {
+                Car car = carRecords.get(carOrdinal);
+                if (car == null) car = new Car("(unknown)", "", "", "", 0);
+                found[0] = Rental.archived(rentalIdFor(seq), seq, car, customer,
+                        LocalDate.ofEpochDay(startDay), LocalDate.ofEpochDay(endDay), costCents);
+            });
+            return found[0];
+        }
+
+        // Re-reads the car's state under its own monitor, so racing rent/return calls on the
+        // same car cannot leave the availability index out of step once they have finished.
+        private void refreshAvailability(Car car) {
+            ConcurrentSkipListMap<Integer, Car> onLot = branch(car).availableCars;
+            boolean changed;
+            synchronized (car) {
+                if (car.isAvailable() && carsByPlate.get(car.getLicensePlate()) == car) {
+                    changed = onLot.put(car.ordinal, car) == null;
+                } else {
+                    changed = onLot.remove(car.ordinal, car);
+                }
+            }
+            if (changed) {
+                for (StoreListener listener : listeners) listener.carAvailabilityChanged(car);
+                feed.publish(StoreEvent.Type.CAR_AVAILABILITY_CHANGED, car, null, null);
+            }
+        }
+    }
+
+    /**
+     * Append-only binary journal of carRe mutations. Records are length-prefixed and
+     * CRC-checked; a single writer thread flushes whatever has queued up since its last
+     * write and fsyncs once per batch (group commit).
+     *
+     * carRe takes each mutation's record while the mutation is being decided and before it
+     * is visible, so records are in the order the mutations took effect, and calls published
+     * once it is visible. An all-or-nothing batch is one BATCH record under one checksum, so
+     * a torn tail can never replay part of it.
+     *
+     * The directory holds journal-N.log segments and snapshot-N.bin files, where a snapshot
+     * is the full state taken just after segment N was opened. Recovery loads the newest
+     * snapshot and replays only the segments from N on. Replay is idempotent, so mutations
+     * that ended up in both a snapshot and the following segment are harmless.
+     */
+    static class RentalJournal implements Closeable {
+        private static final byte ADD_CAR = 1;
+        private static final byte ADD_CUSTOMER = 2;
+        private static final byte RENT = 3;
+        private static final byte RETURN = 4;
+        private static final byte REMOVE_CAR = 5;
+        private static final byte REMOVE_CUSTOMER = 6;
+        private static final byte NEXT_SEQUENCE = 7;
+        private static final byte PICK_UP = 8;
+        private static final byte BATCH = 9;
+        // A completed rental still on the heap, written by snapshots only
+        private static final byte COMPLETED = 10;
+        private static final int MAX_RECORD_BYTES = 1 << 26;
+
+        private final Path directory;
+        private final int snapshotInterval;
+        private final boolean syncCommits;
+        private final Object lock = new Object();
+        private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(512));
+        private final ThreadLocal<CRC32> checksums = ThreadLocal.withInitial(CRC32::new);
+        private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+        private final ExecutorService snapshotter;
+        private final Thread writer;
+        private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+        private ByteBuffer flushing = ByteBuffer.allocate(64 * 1024);
+        private FileChannel channel;
+        private long segment;
+        private long appendedRecords;
+        private long durableRecords;
+        private volatile long lastSnapshotRecords;
+        // Records taken but not yet published, counted per segment; a snapshot waits for its old segment's to drain
+        private volatile Epoch epoch = new Epoch(1, null);
+        private boolean writing;
+        private boolean closed;
+        private IOException failure;
+        private volatile carRe system;
+
+        /**
+         * Opens the journal in the given directory. Writes always go to a fresh segment;
+         * call {@link #recover} before attaching the journal to a carRe.
+         *
+         * @param snapshotInterval records between automatic snapshots, or 0 to disable them
+         * @param syncCommits whether each mutation waits for its batch to reach the disk
+         */
+        RentalJournal(Path directory, int snapshotInterval, boolean syncCommits) throws IOException {
+            this.directory = directory;
+            this.snapshotInterval = snapshotInterval;
+            this.syncCommits = syncCommits;
+            Files.createDirectories(directory);
+            List<Long> segments = listFiles("journal-", ".log");
+            segment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+            channel = openSegment(segment);
+            snapshotter = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "journal-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            writer = new Thread(this::writeLoop, "journal-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void attach(carRe system) { this.system = system; }
+
+        // Each log method queues one record and returns its number, without waiting for the disk;
+        // it throws, having queued nothing, if the journal has failed or been closed
+
+        long logAddCar(Car car) { return append(ADD_CAR, buf -> encodeCar(buf, car)); }
+
+        long logAddCustomer(Customer customer) { return append(ADD_CUSTOMER, buf -> encodeCustomer(buf, customer)); }
+
+        long logRent(Rental rental) { return append(RENT, buf -> encodeRent(buf, rental)); }
+
+        long logReturn(Rental rental) { return append(RETURN, buf -> buf.putLong(rental.getSequence())); }
+
+        long logPickUp(Rental rental) { return append(PICK_UP, buf -> buf.putLong(rental.getSequence())); }
+
+        /** Journals an all-or-nothing batch of bookings as one record. */
+        long logRents(List<Rental> rentals) {
+            return appendBatch(RENT, rentals, rental -> buf -> encodeRent(buf, rental));
+        }
+
+        long logReturns(List<Rental> rentals) {
+            return appendBatch(RETURN, rentals, rental -> buf -> buf.putLong(rental.getSequence()));
+        }
+
+        long logRemoveCar(Car car) { return append(REMOVE_CAR, buf -> putString(buf, car.getLicensePlate())); }
+
+        long logRemoveCustomer(Customer customer) { return append(REMOVE_CUSTOMER, buf -> putString(buf, customer.getId())); }
+
+        /** The mutation logged as record is now visible in the store; starts a snapshot if one is due. */
+        void published(long record) {
+            Epoch current = epoch;
+            (record >= current.firstRecord ? current : current.previous).unpublished.decrement();
+            if (snapshotInterval > 0 && record - lastSnapshotRecords >= snapshotInterval
+                    && system != null && snapshotRunning.compareAndSet(false, true)) {
+                lastSnapshotRecords = record;
+                snapshotter.execute(() -> {
+                    try {
+                        snapshot();
+                    } catch (IOException | RuntimeException e) {
+                        StoreMetrics m = system.getMetrics();
+                        if (m != null) m.snapshotFailures.increment();
+                        reportFailure("Background journal snapshot failed", e);
+                    } finally {
+                        snapshotRunning.set(false);
+                    }
+                });
+            }
+        }
+
+        /** With syncCommits, waits until the record has reached the disk. */
+        void sync(long record) {
+            if (syncCommits) awaitDurable(record);
+        }
+
+        /** Number of records accepted since the journal was opened. */
+        long getAppendedRecords() {
+            synchronized (lock) { return appendedRecords; }
+        }
+
+        /** Blocks until every record appended so far has been fsynced. */
+        void flush() {
+            long target;
+            synchronized (lock) { target = appendedRecords; }
+            awaitDurable(target);
+        }
+
+        /**
+         * Writes a snapshot of the attached carRe and drops the segments it supersedes.
+         * Runs concurrently with bookings; only the segment switch briefly holds appenders.
+         * Mutations journaled in the old segments are published before the store is read,
+         * so none of them can be missing from both the snapshot and the segments kept.
+         */
+        synchronized void snapshot() throws IOException {
+            carRe source = system;
+            if (source == null) throw new IllegalStateException("Journal is not attached to a carRe");
+            long snapshotSegment = rotate();
+            awaitPublished(epoch.previous);
+            Path tmp = directory.resolve("snapshot-" + snapshotSegment + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocate(256 * 1024);
+                // Removed cars and customers too, each followed by its removal, so that replay hands
+                // out the same ordinals the archive's rows refer to
+                for (Car car : source.getCarRecords()) {
+                    buf = writeFrame(out, buf, encode(ADD_CAR, b -> encodeCar(b, car)));
+                    if (car.isRemoved()) buf = writeFrame(out, buf, encode(REMOVE_CAR, b -> putString(b, car.getLicensePlate())));
+                }
+                for (Customer customer : source.getCustomerRecords()) {
+                    buf = writeFrame(out, buf, encode(ADD_CUSTOMER, b -> encodeCustomer(b, customer)));
+                    if (customer.isRemoved()) buf = writeFrame(out, buf, encode(REMOVE_CUSTOMER, b -> putString(b, customer.getId())));
+                }
+                for (Rental rental : source.getActiveRentals()) {
+                    buf = writeFrame(out, buf, encode(RENT, b -> encodeRent(b, rental)));
+                }
+                // Completed rentals not in the archive, because there is none or its write failed,
+                // have their only copy in the segments about to be dropped
+                for (Rental rental : source.getRentals()) {
+                    if (!rental.isActive()) buf = writeFrame(out, buf, encode(COMPLETED, b -> encodeCompleted(b, rental)));
+                }
+                long next = source.rentalIds.peek();
+                buf = writeFrame(out, buf, encode(NEXT_SEQUENCE, b -> b.putLong(next)));
+                buf.flip();
+                while (buf.hasRemaining()) out.write(buf);
+                out.force(true);
+            }
+            Files.move(tmp, directory.resolve("snapshot-" + snapshotSegment + ".bin"),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // The old segments hold the returns of rentals archived since the last snapshot, which
+            // may not have reached the disk yet: flush the archive before they go
+            RentalArchive archive = source.getArchive();
+            if (archive != null) archive.force();
+            for (long old : listFiles("journal-", ".log")) {
+                if (old < snapshotSegment) Files.deleteIfExists(segmentPath(old));
+            }
+            for (long old : listFiles("snapshot-", ".bin")) {
+                if (old < snapshotSegment) Files.deleteIfExists(directory.resolve("snapshot-" + old + ".bin"));
+            }
+        }
+
+        /** Rebuilds state into an empty carRe from the newest snapshot plus the journal tail. */
+        RecoveryStats recover(carRe target) throws IOException {
+            long started = System.nanoTime();
+            long records = 0;
+            long firstSegment = 0;
+            List<Long> snapshots = listFiles("snapshot-", ".bin");
+            if (!snapshots.isEmpty()) {
+                firstSegment = snapshots.get(snapshots.size() - 1);
+                records += replay(directory.resolve("snapshot-" + firstSegment + ".bin"), target);
+            }
+            for (long s : listFiles("journal-", ".log")) {
+                if (s >= firstSegment && s < segment) {
+                    records += replay(segmentPath(s), target);
+                }
+            }
+            return new RecoveryStats(records, System.nanoTime() - started);
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+            }
+            snapshotter.shutdown();
+            try {
+                writer.join();
+                snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (lock) {
+                channel.close();
+                if (failure != null) throw failure;
+            }
+        }
+
+        static class RecoveryStats {
+            private final long records;
+            private final long nanos;
+
+            RecoveryStats(long records, long nanos) {
+                this.records = records;
+                this.nanos = nanos;
+            }
+
+            public long getRecords() { return records; }
+            public long getNanos() { return nanos; }
+            public boolean isEmpty() { return records == 0; }
+
+            @Override
+            public String toString() {
+                return String.format("%d records in %.1f ms", records, nanos / 1e6);
+            }
+        }
+
+        private interface Body {
+            void encode(ByteBuffer buf);
+        }
+
+        /** Records numbered from firstRecord on, up to the next rotation, and how many of them are not yet published. */
+        private static final class Epoch {
+            final long firstRecord;
+            final LongAdder unpublished = new LongAdder();
+            // Only the epoch just rotated out can still have records in flight
+            volatile Epoch previous;
+
+            Epoch(long firstRecord, Epoch previous) {
+                this.firstRecord = firstRecord;
+                this.previous = previous;
+            }
+        }
+
+        private long append(byte type, Body body) {
+            return enqueue(encode(type, body), 1);
+        }
+
+        // One frame holding every item as a length-prefixed sub-record, under the frame's checksum
+        private <T> long appendBatch(byte type, List<T> items, Function<T, Body> bodies) {
+            if (items.isEmpty()) return 0;
+            ByteBuffer frame = ByteBuffer.allocate(64 * items.size() + 16);
+            while (true) {
+                try {
+                    frame.clear();
+                    frame.putInt(0);
+                    frame.put(BATCH);
+                    frame.putInt(items.size());
+                    for (T item : items) {
+                        int at = frame.position();
+                        frame.putInt(0);
+                        frame.put(type);
+                        bodies.apply(item).encode(frame);
+                        frame.putInt(at, frame.position() - at - 4);
+                    }
+                    int length = frame.position() - 4;
+                    CRC32 crc = checksums.get();
+                    crc.reset();
+                    crc.update(frame.array(), 4, length);
+                    frame.putInt((int) crc.getValue());
+                    frame.putInt(0, length);
+                    frame.flip();
+                    return enqueue(frame, items.size());
+                } catch (BufferOverflowException e) {
+                    frame = ByteBuffer.allocate(frame.capacity() * 2);
+                }
+            }
+        }
+
+        // Copies an encoded frame into the pending batch; returns the number of its last record
+        private long enqueue(ByteBuffer frame, int records) {
+            if (frame.remaining() - 8 > MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("Journal record of " + frame.remaining() + " bytes is too large");
+            }
+            synchronized (lock) {
+                if (failure != null) throw new UncheckedIOException(failure);
+                if (closed) throw new IllegalStateException("Journal is closed");
+                boolean wasEmpty = pending.position() == 0;
+                if (pending.remaining() < frame.remaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                            pending.position() + frame.remaining()));
+                    pending.flip();
+                    larger.put(pending);
+                    pending = larger;
+                }
+                pending.put(frame);
+                appendedRecords += records;
+                epoch.unpublished.increment();
+                // Only the writer waits for pending records, and only while there are none
+                if (wasEmpty) lock.notifyAll();
+                return appendedRecords;
+            }
+        }
+
+        // Waits for every record of a rotated-out epoch to be published, then lets it go
+        private void awaitPublished(Epoch rotated) throws InterruptedIOException {
+            while (rotated.unpublished.sum() > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                if (Thread.interrupted()) throw new InterruptedIOException("Interrupted while awaiting publication");
+            }
+            epoch.previous = null;
+        }
+
+        // Frame layout: int length, byte type, body, int crc32(type + body)
+        private ByteBuffer encode(byte type, Body body) {
+            ByteBuffer buf = scratch.get();
+            while (true) {
+                try {
+                    buf.clear();
+                    buf.putInt(0);
+                    buf.put(type);
+                    body.encode(buf);
+                    int length = buf.position() - 4;
+                    CRC32 crc = checksums.get();
+                    crc.reset();
+                    crc.update(buf.array(), 4, length);
+                    buf.putInt((int) crc.getValue());
+                    buf.putInt(0, length);
+                    buf.flip();
+                    return buf;
+                } catch (BufferOverflowException e) {
+                    buf = ByteBuffer.allocate(buf.capacity() * 2);
+                    scratch.set(buf);
+                }
+            }
+        }
+
+        private static void encodeCar(ByteBuffer buf, Car car) {
+            putString(buf, car.getLicensePlate());
+            putString(buf, car.getMake());
+            putString(buf, car.getModel());
+            putString(buf, car.getType());
+            buf.putDouble(car.getDailyRate());
+            putString(buf, car.getBranch());
+            buf.putInt(car.getOrdinal());
+        }
+
+        private static void encodeCustomer(ByteBuffer buf, Customer customer) {
+            putString(buf, customer.getId());
+            putString(buf, customer.getName());
+            putString(buf, customer.getLicenseNumber());
+            putString(buf, customer.getPhone());
+            buf.putInt(customer.getOrdinal());
+        }
+
+        private static void encodeRent(ByteBuffer buf, Rental rental) {
+            buf.putLong(rental.getSequence());
+            putString(buf, rental.getCar().getLicensePlate());
+            putString(buf, rental.getCustomer().getId());
+            buf.putInt((int) rental.getStartDate().toEpochDay());
+            buf.putInt((int) rental.getEndDate().toEpochDay());
+            buf.putLong(rental.getTotalCostCents());
+            buf.put((byte) (rental.holdsCar() ? 1 : 0));
+        }
+
+        // Cars and customers by ordinal, since a completed rental's may have been removed and its plate reused
+        private static void encodeCompleted(ByteBuffer buf, Rental rental) {
+            buf.putLong(rental.getSequence());
+            buf.putInt(rental.getCar().getOrdinal());
+            buf.putInt(rental.getCustomer().getOrdinal());
+            buf.putInt((int) rental.getStartDate().toEpochDay());
+            buf.putInt((int) rental.getEndDate().toEpochDay());
+            buf.putLong(rental.getTotalCostCents());
+        }
+
+        private void writeLoop() {
+            while (true) {
+                ByteBuffer batch;
+                FileChannel target;
+                long upTo;
+                synchronized (lock) {
+                    while (pending.position() == 0 && !closed) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (pending.position() == 0) return;
+                    batch = pending;
+                    pending = flushing;
+                    flushing = batch;
+                    upTo = appendedRecords;
+                    target = channel;
+                    writing = true;
+                }
+                IOException error = null;
+                try {
+                    batch.flip();
+                    while (batch.hasRemaining()) target.write(batch);
+                    target.force(false);
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (lock) {
+                    batch.clear();
+                    writing = false;
+                    if (error != null) {
+                        failure = error;
+                    } else {
+                        durableRecords = upTo;
+                    }
+                    lock.notifyAll();
+                    if (error != null) return;
+                }
+            }
+        }
+
+        private void awaitDurable(long record) {
+            synchronized (lock) {
+                while (durableRecords < record && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (failure != null) throw new UncheckedIOException(failure);
+            }
+        }
+
+        // Closes the current segment with everything queued so far and opens the next one
+        private long rotate() throws IOException {
+            synchronized (lock) {
+                while (writing) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while rotating journal");
+                    }
+                }
+                pending.flip();
+                while (pending.hasRemaining()) channel.write(pending);
+                pending.clear();
+                channel.force(false);
+                channel.close();
+                durableRecords = appendedRecords;
+                segment++;
+                channel = openSegment(segment);
+                epoch = new Epoch(appendedRecords + 1, epoch);
+                lock.notifyAll();
+                return segment;
+            }
+        }
+
+        private long replay(Path file, carRe target) throws IOException {
+            long records = 0;
+            CRC32 crc = new CRC32();
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+                while (true) {
+                    boolean eof = in.read(buf) < 0;
+                    buf.flip();
+                    while (buf.remaining() >= 4) {
+                        int length = buf.getInt(buf.position());
+                        // A zero or absurd length means the tail was never fully written
+                        if (length <= 0 || length > MAX_RECORD_BYTES) return records;
+                        if (buf.remaining() < length + 8) break;
+                        int start = buf.position() + 4;
+                        crc.reset();
+                        crc.update(buf.array(), start, length);
+                        if ((int) crc.getValue() != buf.getInt(start + length)) return records;
+                        records += apply(buf.slice(start, length), target);
+                        buf.position(start + length + 4);
+                    }
+                    if (eof) return records;
+                    buf.compact();
+                    if (!buf.hasRemaining()) {
+                        ByteBuffer larger = ByteBuffer.allocate(buf.capacity() * 2);
+                        buf.flip();
+                        larger.put(buf);
+                        buf = larger;
+                    }
+                }
+            }
+        }
+
+        // Returns the number of records applied, more than one for a batch
+        private static int apply(ByteBuffer record, carRe target) {
+            byte type = record.get();
+            switch (type) {
+                case ADD_CAR: {
+                    // Journals written before branches end at the rate, and before ordinals at the branch
+                    Car car = new Car(getString(record), getString(record), getString(record),
+                            getString(record), record.getDouble(),
+                            record.hasRemaining() ? getString(record) : Car.DEFAULT_BRANCH);
+                    target.restoreCar(car, record.hasRemaining() ? record.getInt() : -1);
+                    break;
+                }
+                case ADD_CUSTOMER: {
+                    Customer customer = new Customer(getString(record), getString(record),
+                            getString(record), getString(record));
+                    target.restoreCustomer(customer, record.hasRemaining() ? record.getInt() : -1);
+                    break;
+                }
+                case RENT: {
+                    long sequence = record.getLong();
+                    Car car = target.getCar(getString(record));
+                    Customer customer = target.getCustomer(getString(record));
+                    LocalDate start = LocalDate.ofEpochDay(record.getInt());
+                    LocalDate end = LocalDate.ofEpochDay(record.getInt());
+                    long costCents = record.remaining() >= 8 ? record.getLong() : -1;
+                    // Journals written before pickups were recorded decide it by the date, as they did then
+                    boolean pickup = record.hasRemaining() ? record.get() != 0 : !start.isAfter(LocalDate.now());
+                    if (car != null && customer != null) {
+                        target.restoreRental(sequence, customer, car, start, end, costCents, pickup);
+                    }
+                    break;
+                }
+                case PICK_UP:
+                    target.restorePickUp(record.getLong());
+                    break;
+                case COMPLETED: {
+                    long sequence = record.getLong();
+                    Car car = target.getCarRecord(record.getInt());
+                    Customer customer = target.getCustomerRecord(record.getInt());
+                    LocalDate start = LocalDate.ofEpochDay(record.getInt());
+                    LocalDate end = LocalDate.ofEpochDay(record.getInt());
+                    long costCents = record.getLong();
+                    if (car != null && customer != null) {
+                        target.restoreCompleted(sequence, customer, car, start, end, costCents);
+                    }
+                    break;
+                }
+                case RETURN:
+                    target.returnCar(target.rentalIdFor(record.getLong()));
+                    break;
+                case REMOVE_CAR: {
+                    Car car = target.getCar(getString(record));
+                    if (car != null) target.removeCar(car);
+                    break;
+                }
+                case REMOVE_CUSTOMER: {
+                    Customer customer = target.getCustomer(getString(record));
+                    if (customer != null) target.removeCustomer(customer);
+                    break;
+                }
+                case NEXT_SEQUENCE:
+                    target.rentalIds.advancePast(record.getLong() - 1);
+                    break;
+                case BATCH: {
+                    int count = record.getInt();
+                    for (int i = 0; i < count; i++) {
+                        int length = record.getInt();
+                        apply(record.slice(record.position(), length), target);
+                        record.position(record.position() + length);
+                    }
+                    return count;
+                }
+                default:
+                    throw new IllegalStateException("Unknown journal record type " + type);
+            }
+            return 1;
+        }
+
+        private static ByteBuffer writeFrame(FileChannel out, ByteBuffer buf, ByteBuffer frame) throws IOException {
+            if (buf.remaining() < frame.remaining()) {
+                buf.flip();
+                while (buf.hasRemaining()) out.write(buf);
+                buf.clear();
+                if (buf.capacity() < frame.remaining()) buf = ByteBuffer.allocate(frame.remaining());
+            }
+            buf.put(frame);
+            return buf;
+        }
+
+        private static void putString(ByteBuffer buf, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buf.putShort((short) bytes.length);
+            buf.put(bytes);
+        }
+
+        private static String getString(ByteBuffer buf) {
+            byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private FileChannel openSegment(long n) throws IOException {
+            return FileChannel.open(segmentPath(n), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+
+        private Path segmentPath(long n) { return directory.resolve("journal-" + n + ".log"); }
+
+        private List<Long> listFiles(String prefix, String suffix) throws IOException {
+            List<Long> numbers = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    try {
+                        numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException ignored) {
+                        // not one of ours
+                    }
+                }
+            }
+            Collections.sort(numbers);
+            return numbers;
+        }
+    }
+
+    /**
+     * Off-heap history of completed rentals. Rows are appended to memory-mapped segment
+     * files of SEGMENT_ROWS rows each, laid out column by column (rental number, car ordinal,
+     * customer ordinal, start/end epoch day, cost in cents), so scans touch only the pages
+     * they read and nothing is materialised on the heap.
+     */
+    static class RentalArchive implements Closeable {
+        private static final int MAGIC = 0x52414331; // "RAC1"
+        private static final int SEGMENT_SHIFT = 20;
+        private static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+        private static final int HEADER_BYTES = 64;
+        private static final long SEQUENCE_OFFSET = HEADER_BYTES;
+        private static final long CAR_OFFSET = SEQUENCE_OFFSET + 8L * SEGMENT_ROWS;
+        private static final long CUSTOMER_OFFSET = CAR_OFFSET + 4L * SEGMENT_ROWS;
+        private static final long START_OFFSET = CUSTOMER_OFFSET + 4L * SEGMENT_ROWS;
+        private static final long END_OFFSET = START_OFFSET + 4L * SEGMENT_ROWS;
+        private static final long COST_OFFSET = END_OFFSET + 4L * SEGMENT_ROWS;
+        private static final long SEGMENT_BYTES = COST_OFFSET + 8L * SEGMENT_ROWS;
+
+        /** Receives one archived row at a time without allocating. */
+        interface RowVisitor {
+            void visit(long row, long sequence, int carOrdinal, int customerOrdinal,
+                       int startDay, int endDay, long costCents);
+        }
+
+        private final Path directory;
+        private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+        // Rental numbers already archived, so journal replay never archives a rental twice; a
+        // BitSet holds 2^31 numbers, so one per block of that many, keyed by the high bits
+        private final Map<Long, BitSet> archived = new HashMap<>();
+        private volatile long size;
+
+        RentalArchive(Path directory) throws IOException {
+            this.directory = directory;
+            Files.createDirectories(directory);
+            long rows = 0;
+            for (int n = 0; Files.exists(segmentPath(n)); n++) {
+                MappedByteBuffer segment = map(n);
+                int count = segment.getInt(4);
+                for (int i = 0; i < count; i++) {
+                    markArchived(segment.getLong((int) (SEQUENCE_OFFSET + 8L * i)));
+                }
+                rows += count;
+                if (count < SEGMENT_ROWS) break;
+            }
+            size = rows;
+        }
+
+        /** Appends a completed rental; returns its row, or -1 if its number is already archived. */
+        synchronized long append(Rental rental) throws IOException {
+            long sequence = rental.getSequence();
+            if (contains(sequence)) return -1;
+            long row = size;
+            int n = (int) (row >>> SEGMENT_SHIFT);
+            MappedByteBuffer segment = n < segments.size() ? segments.get(n) : map(n);
+            int i = (int) (row & (SEGMENT_ROWS - 1));
+            segment.putLong((int) (SEQUENCE_OFFSET + 8L * i), sequence);
+            segment.putInt((int) (CAR_OFFSET + 4L * i), rental.getCar().getOrdinal());
+            segment.putInt((int) (CUSTOMER_OFFSET + 4L * i), rental.getCustomer().getOrdinal());
+            segment.putInt((int) (START_OFFSET + 4L * i), (int) rental.getStartDate().toEpochDay());
+            segment.putInt((int) (END_OFFSET + 4L * i), (int) rental.getEndDate().toEpochDay());
+            segment.putLong((int) (COST_OFFSET + 8L * i), rental.getTotalCostCents());
+            // Row count goes last so readers never see a half-written row. That says nothing about
+            // the disk, where mapped pages land in any order: a row is only durable after force().
+            segment.putInt(4, i + 1);
+            markArchived(sequence);
+            size = row + 1;
+            return row;
+        }
+
+        synchronized boolean contains(long sequence) {
+            BitSet block = archived.get(sequence >>> 31);
+            return block != null && block.get((int) (sequence & Integer.MAX_VALUE));
+        }
+
+        private void markArchived(long sequence) {
+            archived.computeIfAbsent(sequence >>> 31, high -> new BitSet()).set((int) (sequence & Integer.MAX_VALUE));
+        }
+
+        long size() { return size; }
+
+        /** Visits rows [from, to) in order; rows appended meanwhile are not included. */
+        void scan(long from, long to, RowVisitor visitor) {
+            long end = Math.min(to, size);
+            for (long row = from; row < end; row++) {
+                MappedByteBuffer segment = segments.get((int) (row >>> SEGMENT_SHIFT));
+                int i = (int) (row & (SEGMENT_ROWS - 1));
+                visitor.visit(row,
+                        segment.getLong((int) (SEQUENCE_OFFSET + 8L * i)),
+                        segment.getInt((int) (CAR_OFFSET + 4L * i)),
+                        segment.getInt((int) (CUSTOMER_OFFSET + 4L * i)),
+                        segment.getInt((int) (START_OFFSET + 4L * i)),
+                        segment.getInt((int) (END_OFFSET + 4L * i)),
+                        segment.getLong((int) (COST_OFFSET + 8L * i)));
+            }
+        }
+
+        void scan(RowVisitor visitor) { scan(0, size, visitor); }
+
+        /** Flushes mapped pages to disk; rows appended before it returns survive a crash. */
+        void force() {
+            for (MappedByteBuffer segment : segments) segment.force();
+        }
+
+        @Override
+        public void close() {
+            force();
+        }
+
+        private MappedByteBuffer map(int n) throws IOException {
+            try (FileChannel channel = FileChannel.open(segmentPath(n), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+                if (segment.getInt(0) != MAGIC) {
+                    segment.putInt(0, MAGIC);
+                    segment.putInt(4, 0);
+                }
+                segments.add(segment);
+                return segment;
+            }
+        }
+
+        private Path segmentPath(int n) { return directory.resolve("archive-" + n + ".col"); }
+    }
+
+    /**
+     * Streaming loader for CSV and NDJSON files of cars or customers. The calling thread
+     * reads the file through a FileChannel in 64 KB chunks and cuts it into batches of lines;
+     * a worker pool parses and validates batches in parallel, and the caller applies them in
+     * file order through a batch add. At most a few batches are in flight, so memory does not
+     * depend on the file size. Bad rows are counted and reported, never fatal.
+     *
+     * CSV files may start with a header naming the columns in any order; otherwise columns
+     * are taken in the default order. NDJSON lines are flat objects keyed by the same names.
+     *   cars:      licensePlate, make, model, type, dailyRate
+     *   customers: id, name, licenseNumber, phone
+     */
+    static class BulkImporter {
+        static final String[] CAR_COLUMNS = {"licensePlate", "make", "model", "type", "dailyRate"};
+        static final String[] CUSTOMER_COLUMNS = {"id", "name", "licenseNumber", "phone"};
+        private static final int BATCH_SIZE = 1_000;
+        private static final int MAX_LINE_BYTES = 64 * 1024;
+        private static final int MAX_REPORTED_ERRORS = 1_000;
+
+        enum Format {
+            CSV, NDJSON;
+
+            static Format of(Path file) {
+                String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json") ? NDJSON : CSV;
+            }
+        }
+
+        /** Applies one validated batch; returns false at the positions that were not accepted. */
+        interface Sink<T> {
+            boolean[] accept(List<T> batch);
+        }
+
+        /** Builds one item from its fields in column order; throws IllegalArgumentException if invalid. */
+        private interface RowParser<T> {
+            T parse(String[] fields);
+        }
+
+        private final int threads;
+
+        BulkImporter(int threads) {
+            this.threads = Math.max(1, threads);
+        }
+
+        BulkImporter() {
+            this(Runtime.getRuntime().availableProcessors());
+        }
+
+        ImportReport importCars(Path file, carRe system) throws IOException {
+            return importCars(file, Format.of(file), system::addCars);
+        }
+
+        ImportReport importCars(Path file, Format format, Sink<Car> sink) throws IOException {
+            return run(file, format, CAR_COLUMNS, "already in the fleet", fields -> {
+                double rate;
+                try {
+                    rate = Double.parseDouble(fields[4]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("dailyRate is not a number: " + fields[4]);
+                }
+                if (!(rate > 0) || Double.isInfinite(rate)) {
+                    throw new IllegalArgumentException("dailyRate must be positive: " + fields[4]);
+                }
+                return new Car(fields[0], fields[1], fields[2], fields[3], rate);
+            }, sink);
+        }
+
+        ImportReport importCustomers(Path file, carRe system) throws IOException {
+            return importCustomers(file, Format.of(file), system::addCustomers);
+        }
+
+        ImportReport importCustomers(Path file, Format format, Sink<Customer> sink) throws IOException {
+            return run(file, format, CUSTOMER_COLUMNS, "ID already registered",
+                    fields -> new Customer(fields[0], fields[1], fields[2], fields[3]), sink);
+        }
+
+        private <T> ImportReport run(Path file, Format format, String[] columns, String rejection,
+                                     RowParser<T> parser, Sink<T> sink) throws IOException {
+            ImportReport report = new ImportReport();
+            long started = System.nanoTime();
+            ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "bulk-import");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ArrayDeque<Future<Parsed<T>>> inFlight = new ArrayDeque<>();
+            int[] mapping = null;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                LineReader lines = new LineReader(channel);
+                String[] batch = new String[BATCH_SIZE];
+                int size = 0;
+                long firstLine = 1;
+                String line;
+                while ((line = lines.next()) != null) {
+                    if (lines.lineNumber() == 1 && format == Format.CSV) {
+                        mapping = headerMapping(splitCsv(line), columns);
+                        if (mapping != null) {
+                            firstLine = 2;
+                            continue;
+                        }
+                        mapping = identity(columns.length);
+                    }
+                    if (line == LineReader.TOO_LONG) {
+                        report.rows++;
+                        report.reject(lines.lineNumber(), "line longer than " + MAX_LINE_BYTES + " bytes");
+                        line = "";
+                    }
+                    batch[size++] = line;
+                    if (size == BATCH_SIZE) {
+                        submit(workers, inFlight, batch, size, firstLine, format, columns, mapping, parser);
+                        firstLine += size;
+                        batch = new String[BATCH_SIZE];
+                        size = 0;
+                        // Bounded window: apply the oldest batch before reading further ahead
+                        if (inFlight.size() >= threads * 2) apply(inFlight.removeFirst(), sink, rejection, report);
+                    }
+                }
+                if (size > 0) submit(workers, inFlight, batch, size, firstLine, format, columns, mapping, parser);
+                while (!inFlight.isEmpty()) apply(inFlight.removeFirst(), sink, rejection, report);
+            } finally {
+                workers.shutdownNow();
+            }
+            report.nanos = System.nanoTime() - started;
+            return report;
+        }
+
+        private <T> void submit(ExecutorService workers, ArrayDeque<Future<Parsed<T>>> inFlight, String[] lines,
+                                int size, long firstLine, Format format, String[] columns, int[] mapping,
+                                RowParser<T> parser) {
+            inFlight.addLast(workers.submit(() -> {
+                Parsed<T> parsed = new Parsed<>(size);
+                for (int i = 0; i < size; i++) {
+                    String line = lines[i];
+                    if (line.isEmpty() || line.isBlank()) continue;
+                    try {
+                        String[] fields = format == Format.CSV
+                                ? project(splitCsv(line), mapping, columns)
+                                : project(parseObject(line), columns);
+                        parsed.add(parser.parse(fields), firstLine + i);
+                    } catch (IllegalArgumentException e) {
+                        parsed.error(firstLine + i, e.getMessage());
+                    }
+                }
+                return parsed;
+            }));
+        }
+
+        private <T> void apply(Future<Parsed<T>> future, Sink<T> sink, String rejection, ImportReport report)
+                throws IOException {
+            Parsed<T> parsed;
+            try {
+                parsed = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("Import worker failed", e.getCause());
+            }
+            report.rows += parsed.rows;
+            for (int i = 0; i < parsed.errorLines.size(); i++) {
+                report.reject(parsed.errorLines.get(i), parsed.errors.get(i));
+            }
+            if (parsed.items.isEmpty()) return;
+            boolean[] accepted = sink.accept(parsed.items);
+            for (int i = 0; i < accepted.length; i++) {
+                if (accepted[i]) report.imported++;
+                else report.reject(parsed.lines[i], rejection);
+            }
+        }
+
+        // Returns the header's column positions, or null if the line is not a header
+        private static int[] headerMapping(String[] header, String[] columns) {
+            int[] mapping = new int[columns.length];
+            Arrays.fill(mapping, -1);
+            for (int i = 0; i < header.length; i++) {
+                for (int c = 0; c < columns.length; c++) {
+                    if (columns[c].equalsIgnoreCase(header[i].trim())) mapping[c] = i;
+                }
+            }
+            for (int position : mapping) {
+                if (position < 0) return null;
+            }
+            return mapping;
+        }
+
+        private static int[] identity(int length) {
+            int[] mapping = new int[length];
+            for (int i = 0; i < length; i++) mapping[i] = i;
+            return mapping;
+        }
+
+        private static String[] project(String[] values, int[] mapping, String[] columns) {
+            String[] fields = new String[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                if (mapping[c] >= values.length) {
+                    throw new IllegalArgumentException("expected " + columns.length + " columns, found " + values.length);
+                }
+                fields[c] = required(values[mapping[c]].trim(), columns[c]);
+            }
+            return fields;
+        }
+
+        private static String[] project(Map<String, String> object, String[] columns) {
+            String[] fields = new String[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                String value = object.get(columns[c]);
+                fields[c] = required(value == null ? "" : value.trim(), columns[c]);
+            }
+            return fields;
+        }
+
+        private static String required(String value, String column) {
+            if (value.isEmpty()) throw new IllegalArgumentException(column + " is missing");
+            return value;
+        }
+
+        /** RFC 4180 fields on one line: commas inside quotes, doubled quotes as escapes. */
+        static String[] splitCsv(String line) {
+            List<String> fields = new ArrayList<>(8);
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+            fields.add(field.toString());
+            return fields.toArray(new String[0]);
+        }
+
+        /** One flat JSON object of string, number, boolean or null values. */
+        static Map<String, String> parseObject(String line) {
+            Map<String, String> object = new HashMap<>();
+            int[] at = {skipSpace(line, 0)};
+            expect(line, at, '{');
+            if (peek(line, at) == '}') return object;
+            while (true) {
+                String key = parseString(line, at);
+                expect(line, at, ':');
+                at[0] = skipSpace(line, at[0]);
+                String value;
+                if (peek(line, at) == '"') {
+                    value = parseString(line, at);
+                } else {
+                    int start = at[0];
+                    while (at[0] < line.length() && ",} \t".indexOf(line.charAt(at[0])) < 0) at[0]++;
+                    value = line.substring(start, at[0]);
+                    if (value.isEmpty() || value.startsWith("{") || value.startsWith("[")) {
+                        throw new IllegalArgumentException("unsupported value for " + key);
+                    }
+                    if (value.equals("null")) value = null;
+                }
+                object.put(key, value);
+                char next = peek(line, at);
+                at[0]++;
+                if (next == '}') break;
+                if (next != ',') throw new IllegalArgumentException("expected , or } at column " + at[0]);
+            }
+            if (skipSpace(line, at[0]) != line.length()) throw new IllegalArgumentException("trailing data after object");
+            return object;
+        }
+
+        private static String parseString(String line, int[] at) {
+            expect(line, at, '"');
+            StringBuilder out = new StringBuilder();
+            for (int i = at[0]; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '"') {
+                    at[0] = i + 1;
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (++i == line.length()) break;
+                char escaped = line.charAt(i);
+                switch (escaped) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        if (i + 4 >= line.length()) throw new IllegalArgumentException("bad \\u escape");
+                        try {
+                            out.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("bad \\u escape");
+                        }
+                        i += 4;
+                        break;
+                    default: out.append(escaped);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        private static void expect(String line, int[] at, char expected) {
+            at[0] = skipSpace(line, at[0]);
+            if (at[0] >= line.length() || line.charAt(at[0]) != expected) {
+                throw new IllegalArgumentException("expected " + expected + " at column " + (at[0] + 1));
+            }
+            at[0]++;
+        }
+
+        private static char peek(String line, int[] at) {
+            at[0] = skipSpace(line, at[0]);
+            if (at[0] >= line.length()) throw new IllegalArgumentException("unexpected end of line");
+            return line.charAt(at[0]);
+        }
+
+        private static int skipSpace(String line, int at) {
+            while (at < line.length() && Character.isWhitespace(line.charAt(at))) at++;
+            return at;
+        }
+
+        private static final class Parsed<T> {
+            final List<T> items;
+            final long[] lines;
+            final List<Long> errorLines = new ArrayList<>();
+            final List<String> errors = new ArrayList<>();
+            int rows;
+
+            Parsed(int capacity) {
+                items = new ArrayList<>(capacity);
+                lines = new long[capacity];
+            }
+
+            void add(T item, long line) {
+                lines[items.size()] = line;
+                items.add(item);
+                rows++;
+            }
+
+            void error(long line, String message) {
+                errorLines.add(line);
+                errors.add(message);
+                rows++;
+            }
+        }
+
+        /**
+         * Splits a channel into UTF-8 lines through one reusable 64 KB buffer. Lines longer
+         * than MAX_LINE_BYTES are skipped and reported as TOO_LONG instead of buffered.
+         */
+        private static final class LineReader {
+            static final String TOO_LONG = new String("<too long>");
+
+            private final FileChannel channel;
+            private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            private byte[] line = new byte[256];
+            private int length;
+            private boolean tooLong;
+            private boolean eof;
+            private long lineNumber;
+
+            LineReader(FileChannel channel) {
+                this.channel = channel;
+                buffer.flip();
+            }
+
+            long lineNumber() { return lineNumber; }
+
+            String next() throws IOException {
+                while (true) {
+                    if (!buffer.hasRemaining()) {
+                        if (eof) {
+                            if (length == 0 && !tooLong) return null;
+                            return take();
+                        }
+                        buffer.clear();
+                        eof = channel.read(buffer) < 0;
+                        buffer.flip();
+                        continue;
+                    }
+                    byte[] bytes = buffer.array();
+                    int start = buffer.position();
+                    int end = buffer.limit();
+                    int newline = start;
+                    while (newline < end && bytes[newline] != '\n') newline++;
+                    append(bytes, start, newline - start);
+                    if (newline == end) {
+                        buffer.position(end);
+                        continue;
+                    }
+                    buffer.position(newline + 1);
+                    return take();
+                }
+            }
+
+            private void append(byte[] bytes, int offset, int count) {
+                if (tooLong || count == 0) return;
+                if (length + count > MAX_LINE_BYTES) {
+                    tooLong = true;
+                    return;
+                }
+                if (length + count > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+                System.arraycopy(bytes, offset, line, length, count);
+                length += count;
+            }
+
+            private String take() {
+                lineNumber++;
+                int start = 0;
+                int end = length;
+                if (lineNumber == 1 && end >= 3 && line[0] == (byte) 0xEF && line[1] == (byte) 0xBB && line[2] == (byte) 0xBF) {
+                    start = 3;
+                }
+                if (end > start && line[end - 1] == '\r') end--;
+                String text = tooLong ? TOO_LONG : new String(line, start, end - start, StandardCharsets.UTF_8);
+                length = 0;
+                tooLong = false;
+                return text;
+            }
+        }
+    }
+
+    /** Outcome of a bulk import: counts, elapsed time and the first MAX_REPORTED_ERRORS bad rows. */
+    static class ImportReport {
+        private long rows;
+        private long imported;
+        private long rejected;
+        private long nanos;
+        private final List<String> errors = new ArrayList<>();
+
+        void reject(long line, String reason) {
+            rejected++;
+            if (errors.size() < BulkImporter.MAX_REPORTED_ERRORS) errors.add("line " + line + ": " + reason);
+        }
+
+        public long getRows() { return rows; }
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        public long getNanos() { return nanos; }
+
+        /** The first rejected rows, each as "line N: reason". */
+        public List<String> getErrors() { return Collections.unmodifiableList(errors); }
+
+        public double getRowsPerSecond() { return nanos == 0 ? 0 : rows * 1e9 / nanos; }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows, %d imported, %d rejected in %.1f s (%.0f rows/s)",
+                    rows, imported, rejected, nanos / 1e9, getRowsPerSecond());
+        }
+    }
+
+    /**
+     * Streams cars, customers or the rental history of a carRe to CSV, NDJSON or a compact
+     * binary file. Rows are encoded straight into one reusable direct buffer, which is
+     * handed to FileChannel.write as it fills, so there is no per-row garbage and memory
+     * does not grow with the export. The file is written aside and moved into place when
+     * complete.
+     *
+     * Rentals come from a point-in-time cut that takes no store locks: the rentals still on
+     * the heap are copied first (with an archive, only active ones and returns not yet
+     * archived, so bounded by the fleet), then the archive's row count is read. A rental
+     * leaves the heap only after it is archived, so each one is in the copy or below that
+     * count; archived rows that are also in the copy are skipped, so every rental appears
+     * exactly once, and bookings made while the file is written do not appear.
+     *
+     * The binary format is a magic int ("CRX1") and a kind byte, then rows of big-endian
+     * fields, with strings as an int byte length and UTF-8. Rental files start with
+     * dictionaries of car plates and customer IDs by ordinal, and their rows carry ordinals.
+     */
+    static class DataExporter {
+        static final String[] CAR_COLUMNS = {"licensePlate", "make", "model", "type", "dailyRate", "available"};
+        static final String[] CUSTOMER_COLUMNS = BulkImporter.CUSTOMER_COLUMNS;
+        static final String[] RENTAL_COLUMNS =
+                {"rentalId", "licensePlate", "customerId", "startDate", "endDate", "totalCost", "status"};
+        static final int MAGIC = 0x43525831; // "CRX1"
+        static final byte CARS = 1;
+        static final byte CUSTOMERS = 2;
+        static final byte RENTALS = 3;
+        static final byte ACTIVE = 0;
+        static final byte COMPLETED = 1;
+
+        enum Format {
+            CSV, NDJSON, BINARY;
+
+            static Format of(Path file) {
+                String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                if (name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")) return NDJSON;
+                return name.endsWith(".bin") ? BINARY : CSV;
+            }
+        }
+
+        private final carRe system;
+
+        DataExporter(carRe system) {
+            this.system = system;
+        }
+
+        ExportReport exportCars(Path file, Format format) throws IOException {
+            return write(file, format, CARS, CAR_COLUMNS, out -> {
+                long rows = 0;
+                for (Car car : system.getCars()) {
+                    out.begin();
+                    if (format == Format.BINARY) out.int32(car.getOrdinal());
+                    out.string(car.getLicensePlate());
+                    out.string(car.getMake());
+                    out.string(car.getModel());
+                    out.string(car.getType());
+                    out.cents(Math.round(car.getDailyRate() * 100));
+                    out.flag(car.isAvailable());
+                    out.end();
+                    rows++;
+                }
+                return rows;
+            });
+        }
+
+        ExportReport exportCustomers(Path file, Format format) throws IOException {
+            return write(file, format, CUSTOMERS, CUSTOMER_COLUMNS, out -> {
+                long rows = 0;
+                for (Customer customer : system.getCustomers()) {
+                    out.begin();
+                    if (format == Format.BINARY) out.int32(customer.getOrdinal());
+                    out.string(customer.getId());
+                    out.string(customer.getName());
+                    out.string(customer.getLicenseNumber());
+                    out.string(customer.getPhone());
+                    out.end();
+                    rows++;
+                }
+                return rows;
+            });
+        }
+
+        ExportReport exportRentals(Path file, Format format) throws IOException {
+            // The cut: heap rentals first, then the archive length
+            List<Rental> live = new ArrayList<>(system.getRentals());
+            RentalArchive archive = system.getArchive();
+            long archivedRows = archive == null ? 0 : archive.size();
+            long[] liveSequences = new long[live.size()];
+            byte[] liveStatus = new byte[live.size()];
+            for (int i = 0; i < liveSequences.length; i++) {
+                liveSequences[i] = live.get(i).getSequence();
+                liveStatus[i] = live.get(i).isActive() ? ACTIVE : COMPLETED;
+            }
+            long[] sortedSequences = liveSequences.clone();
+            Arrays.sort(sortedSequences);
+            String[] plates = platesByOrdinal();
+            String[] customerIds = customerIdsByOrdinal();
+            String prefix = carRe.RENTAL_ID_PREFIX;
+
+            return write(file, format, RENTALS, RENTAL_COLUMNS, out -> {
+                if (format == Format.BINARY) {
+                    writeDictionary(out, plates);
+                    writeDictionary(out, customerIds);
+                }
+                long[] rows = {0};
+                IOException[] failure = new IOException[1];
+                if (archive != null) {
+                    archive.scan(0, archivedRows, (row, sequence, carOrdinal, customerOrdinal, startDay, endDay, costCents) -> {
+                        if (failure[0] != null || Arrays.binarySearch(sortedSequences, sequence) >= 0) return;
+                        try {
+                            writeRental(out, format, prefix, sequence, carOrdinal, lookup(plates, carOrdinal),
+                                    customerOrdinal, lookup(customerIds, customerOrdinal), startDay, endDay, costCents, COMPLETED);
+                            rows[0]++;
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null) throw failure[0];
+                }
+                for (int i = 0; i < live.size(); i++) {
+                    writeRental(out, format, prefix, live.get(i), liveStatus[i]);
+                    rows[0]++;
+                }
+                return rows[0];
+            });
+        }
+
+        private static void writeRental(Encoder out, Format format, String prefix, Rental rental, byte status)
+                throws IOException {
+            writeRental(out, format, prefix, rental.getSequence(),
+                    rental.getCar().getOrdinal(), rental.getCar().getLicensePlate(),
+                    rental.getCustomer().getOrdinal(), rental.getCustomer().getId(),
+                    (int) rental.getStartDate().toEpochDay(), (int) rental.getEndDate().toEpochDay(),
+                    rental.getTotalCostCents(), status);
+        }
+
+        private static void writeRental(Encoder out, Format format, String prefix, long sequence,
+                                        int carOrdinal, String plate, int customerOrdinal, String customerId,
+                                        int startDay, int endDay, long costCents, byte status) throws IOException {
+            out.begin();
+            if (format == Format.BINARY) {
+                out.int64(sequence);
+                out.int32(carOrdinal);
+                out.int32(customerOrdinal);
+                out.int32(startDay);
+                out.int32(endDay);
+                out.int64(costCents);
+                out.int8(status);
+            } else {
+                out.rentalId(prefix, sequence);
+                out.string(plate);
+                out.string(customerId);
+                out.date(startDay);
+                out.date(endDay);
+                out.cents(costCents);
+                out.string(status == ACTIVE ? "ACTIVE" : "COMPLETED");
+            }
+            out.end();
+        }
+
+        private static String lookup(String[] byOrdinal, int ordinal) {
+            // Cars and customers removed since are exported with an empty plate or ID
+            return ordinal >= 0 && ordinal < byOrdinal.length && byOrdinal[ordinal] != null ? byOrdinal[ordinal] : "";
+        }
+
+        private static void writeDictionary(Encoder out, String[] byOrdinal) throws IOException {
+            int count = 0;
+            for (String value : byOrdinal) {
+                if (value != null) count++;
+            }
+            out.int32(count);
+            for (int ordinal = 0; ordinal < byOrdinal.length; ordinal++) {
+                if (byOrdinal[ordinal] == null) continue;
+                out.int32(ordinal);
+                out.string(byOrdinal[ordinal]);
+            }
+        }
+
+        private String[] platesByOrdinal() {
+            String[] plates = new String[16];
+            for (Car car : system.getCarRecords()) {
+                if (car.getOrdinal() >= plates.length) plates = Arrays.copyOf(plates, Math.max(plates.length * 2, car.getOrdinal() + 1));
+                plates[car.getOrdinal()] = car.getLicensePlate();
+            }
+            return plates;
+        }
+
+        private String[] customerIdsByOrdinal() {
+            String[] ids = new String[16];
+            for (Customer customer : system.getCustomerRecords()) {
+                if (customer.getOrdinal() >= ids.length) ids = Arrays.copyOf(ids, Math.max(ids.length * 2, customer.getOrdinal() + 1));
+                ids[customer.getOrdinal()] = customer.getId();
+            }
+            return ids;
+        }
+
+        private interface Body {
+            long write(Encoder out) throws IOException;
+        }
+
+        private static ExportReport write(Path file, Format format, byte kind, String[] columns, Body body)
+                throws IOException {
+            long started = System.nanoTime();
+            Path target = file.toAbsolutePath();
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            long rows;
+            long bytes;
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Encoder out = new Encoder(channel, format, columns);
+                if (format == Format.BINARY) {
+                    out.int32(MAGIC);
+                    out.int8(kind);
+                } else if (format == Format.CSV) {
+                    out.header();
+                }
+                rows = body.write(out);
+                bytes = out.finish();
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new ExportReport(rows, bytes, System.nanoTime() - started);
+        }
+
+        /**
+         * Row encoder over one direct buffer. Text formats put separators and NDJSON keys
+         * in front of each value from pre-encoded column names; numbers, dates and strings
+         * are written byte by byte, so nothing is allocated per row.
+         */
+        private static final class Encoder {
+            private static final int BUFFER_BYTES = 1 << 20;
+
+            private final FileChannel channel;
+            private final Format format;
+            private final byte[][] keys;
+            private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            private final byte[] digits = new byte[20];
+            private int column;
+            private long written;
+
+            Encoder(FileChannel channel, Format format, String[] columns) {
+                this.channel = channel;
+                this.format = format;
+                keys = new byte[columns.length][];
+                for (int i = 0; i < columns.length; i++) {
+                    keys[i] = ("\"" + columns[i] + "\":").getBytes(StandardCharsets.UTF_8);
+                }
+            }
+
+            void header() throws IOException {
+                for (int i = 0; i < keys.length; i++) {
+                    ensure(keys[i].length + 1);
+                    if (i > 0) buffer.put((byte) ',');
+                    // Key bytes without the quotes and colon are the column name
+                    buffer.put(keys[i], 1, keys[i].length - 3);
+                }
+                ensure(1);
+                buffer.put((byte) '\n');
+            }
+
+            void begin() throws IOException {
+                column = 0;
+                if (format == Format.NDJSON) {
+                    ensure(1);
+                    buffer.put((byte) '{');
+                }
+            }
+
+            void end() throws IOException {
+                ensure(2);
+                if (format == Format.NDJSON) buffer.put((byte) '}');
+                if (format != Format.BINARY) buffer.put((byte) '\n');
+            }
+
+            // Separator and key before a text value
+            private void next() throws IOException {
+                if (format == Format.CSV) {
+                    ensure(1);
+                    if (column > 0) buffer.put((byte) ',');
+                } else {
+                    byte[] key = keys[column];
+                    ensure(key.length + 1);
+                    if (column > 0) buffer.put((byte) ',');
+                    buffer.put(key);
+                }
+                column++;
+            }
+
+            void string(String value) throws IOException {
+                if (format == Format.BINARY) {
+                    int length = utf8Length(value);
+                    ensure(4);
+                    buffer.putInt(length);
+                    utf8(value, false);
+                    return;
+                }
+                next();
+                if (format == Format.NDJSON) {
+                    ensure(1);
+                    buffer.put((byte) '"');
+                    utf8(value, true);
+                    ensure(1);
+                    buffer.put((byte) '"');
+                } else if (needsQuotes(value)) {
+                    ensure(1);
+                    buffer.put((byte) '"');
+                    for (int i = 0; i < value.length(); i++) {
+                        char c = value.charAt(i);
+                        if (c == '"') {
+                            ensure(1);
+                            buffer.put((byte) '"');
+                        }
+                        utf8(c);
+                    }
+                    ensure(1);
+                    buffer.put((byte) '"');
+                } else {
+                    utf8(value, false);
+                }
+            }
+
+            void rentalId(String prefix, long sequence) throws IOException {
+                next();
+                if (format == Format.NDJSON) {
+                    ensure(1);
+                    buffer.put((byte) '"');
+                }
+                utf8(prefix, false);
+                decimal(sequence);
+                if (format == Format.NDJSON) {
+                    ensure(1);
+                    buffer.put((byte) '"');
+                }
+            }
+
+            void cents(long cents) throws IOException {
+                if (format == Format.BINARY) {
+                    int64(cents);
+                    return;
+                }
+                next();
+                if (cents < 0) {
+                    ensure(1);
+                    buffer.put((byte) '-');
+                    cents = -cents;
+                }
+                decimal(cents / 100);
+                ensure(3);
+                buffer.put((byte) '.');
+                buffer.put((byte) ('0' + cents % 100 / 10));
+                buffer.put((byte) ('0' + cents % 10));
+            }
+
+            void flag(boolean value) throws IOException {
+                if (format == Format.BINARY) {
+                    int8((byte) (value ? 1 : 0));
+                    return;
+                }
+                next();
+                ensure(5);
+                for (char c : (value ? "true" : "false").toCharArray()) buffer.put((byte) c);
+            }
+
+            /** ISO date from an epoch day, by the days-to-civil algorithm rather than LocalDate. */
+            void date(int epochDay) throws IOException {
+                next();
+                long z = epochDay + 719468L;
+                long era = Math.floorDiv(z, 146097);
+                long dayOfEra = z - era * 146097;
+                long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+                long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+                long mp = (5 * dayOfYear + 2) / 153;
+                int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+                int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+                long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+                boolean quoted = format == Format.NDJSON;
+                ensure(12);
+                if (quoted) buffer.put((byte) '"');
+                buffer.put((byte) ('0' + year / 1000 % 10)).put((byte) ('0' + year / 100 % 10))
+                        .put((byte) ('0' + year / 10 % 10)).put((byte) ('0' + year % 10)).put((byte) '-')
+                        .put((byte) ('0' + month / 10)).put((byte) ('0' + month % 10)).put((byte) '-')
+                        .put((byte) ('0' + day / 10)).put((byte) ('0' + day % 10));
+                if (quoted) buffer.put((byte) '"');
+            }
+
+            void int8(byte value) throws IOException {
+                ensure(1);
+                buffer.put(value);
+            }
+
+            void int32(int value) throws IOException {
+                ensure(4);
+                buffer.putInt(value);
+            }
+
+            void int64(long value) throws IOException {
+                ensure(8);
+                buffer.putLong(value);
+            }
+
+            long finish() throws IOException {
+                flush();
+                channel.force(false);
+                return written;
+            }
+
+            private void decimal(long value) throws IOException {
+                int at = digits.length;
+                do {
+                    digits[--at] = (byte) ('0' + value % 10);
+                    value /= 10;
+                } while (value > 0);
+                ensure(digits.length - at);
+                buffer.put(digits, at, digits.length - at);
+            }
+
+            private void utf8(String value, boolean jsonEscape) throws IOException {
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (jsonEscape && (c == '"' || c == '\\' || c < 0x20)) {
+                        ensure(6);
+                        if (c == '"' || c == '\\') {
+                            buffer.put((byte) '\\').put((byte) c);
+                        } else {
+                            buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                                    .put((byte) Character.forDigit(c >> 4, 16)).put((byte) Character.forDigit(c & 0xF, 16));
+                        }
+                    } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                            && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, value.charAt(++i));
+                        ensure(4);
+                        buffer.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+                                .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+                    } else {
+                        utf8(c);
+                    }
+                }
+            }
+
+            private void utf8(char c) throws IOException {
+                ensure(3);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+                } else {
+                    // Unpaired surrogates come out as '?' here, as String.getBytes would do
+                    if (Character.isSurrogate(c)) c = '?';
+                    if (c < 0x80) {
+                        buffer.put((byte) c);
+                    } else {
+                        buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+                    }
+                }
+            }
+
+            private static int utf8Length(String value) {
+                int length = 0;
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c < 0x80) {
+                        length++;
+                    } else if (c < 0x800) {
+                        length += 2;
+                    } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                            && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        length += 4;
+                        i++;
+                    } else {
+                        length += Character.isSurrogate(c) ? 1 : 3;
+                    }
+                }
+                return length;
+            }
+
+            private static boolean needsQuotes(String value) {
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+                }
+                return false;
+            }
+
+            private void ensure(int bytes) throws IOException {
+                if (buffer.remaining() < bytes) flush();
+            }
+
+            private void flush() throws IOException {
+                buffer.flip();
+                while (buffer.hasRemaining()) written += channel.write(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    /** Outcome of an export: rows and bytes written, and elapsed time. */
+    static class ExportReport {
+        private final long rows;
+        private final long bytes;
+        private final long nanos;
+
+        ExportReport(long rows, long bytes, long nanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public long getRows() { return rows; }
+        public long getBytes() { return bytes; }
+        public long getNanos() { return nanos; }
+
+        public double getRowsPerSecond() { return nanos == 0 ? 0 : rows * 1e9 / nanos; }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows, %.1f MB in %.1f s (%.0f rows/s)",
+                    rows, bytes / 1048576.0, nanos / 1e9, getRowsPerSecond());
+        }
+    }
+
+    /**
+     * Running revenue and utilization figures for a carRe, kept up to date from its store
+     * events so a dashboard read costs the same at any history size. Bookings are counted
+     * when they start, by start day, car type and make, into striped LongAdder buckets;
+     * days are grouped into blocks of 512 so the hot path never boxes a key. Utilization is
+     * cars off the lot over cars in the fleet, per type.
+     *
+     * rebuild() recomputes the history from the store, e.g. to take in rentals made before
+     * the engine was attached. Live events go to a fresh set of totals from the moment it
+     * starts, while the archive is summed with a fork/join task over row ranges; each
+     * booking is claimed by sequence number, so it is counted once whichever side sees it
+     * first. Readers keep seeing the previous totals until the rebuild completes.
+     */
+    static class RentalAnalytics implements StoreListener, Closeable {
+        static final String UNKNOWN = "Unknown";
+        private static final int DAY_BLOCK_SHIFT = 9;
+        private static final int BACKFILL_ROWS = 1 << 16;
+        private static final byte ON_LOT = 0;
+        private static final byte OUT = 1;
+
+        private final carRe system;
+        private final Map<Car, Byte> carStates = new ConcurrentHashMap<>();
+        private final Map<String, FleetGauge> fleetByType = new ConcurrentHashMap<>();
+        private volatile Generation live = new Generation(null);
+        private volatile Totals published = live.totals;
+
+        RentalAnalytics(carRe system) {
+            this.system = system;
+            system.addStoreListener(this);
+            for (Car car : system.getCars()) refreshCar(car);
+        }
+
+        @Override
+        public void close() {
+            system.removeStoreListener(this);
+        }
+
+        // Store events
+
+        @Override
+        public void rentalStarted(Rental rental) {
+            Generation generation = live;
+            if (generation.rebuilding) {
+                // Lowered before claiming, so a backfill task that sees the claim also checks for it
+                generation.lowestLiveClaim.accumulateAndGet(rental.getSequence(), Math::min);
+                if (!generation.claims.add(rental.getSequence())) return;
+            } else if (generation.claims != null && !generation.claims.isEmpty()
+                    && generation.claims.remove(rental.getSequence())) {
+                // The backfill got to this booking first
+                return;
+            }
+            generation.totals.add(rental.getCar().getType(), rental.getCar().getMake(),
+                    (int) rental.getStartDate().toEpochDay(), (int) rental.getEndDate().toEpochDay(),
+                    rental.getTotalCostCents());
+        }
+
+        @Override
+        public void rentalEnded(Rental rental) {
+            Generation generation = live;
+            // A claim is only needed while its booking could still be counted twice
+            if (generation.claims != null && !generation.rebuilding && !generation.claims.isEmpty()) {
+                generation.claims.remove(rental.getSequence());
+            }
+        }
+
+        @Override
+        public void carAdded(Car car) { refreshCar(car); }
+
+        @Override
+        public void carRemoved(Car car) { refreshCar(car); }
+
+        @Override
+        public void carAvailabilityChanged(Car car) { refreshCar(car); }
+
+        // Re-reads the car's place in the store under its monitor, like carRe.refreshAvailability
+        private void refreshCar(Car car) {
+            synchronized (car) {
+                Byte now = system.getCar(car.getLicensePlate()) != car ? null : system.isAvailable(car) ? ON_LOT : OUT;
+                Byte before = now == null ? carStates.remove(car) : carStates.put(car, now);
+                if (Objects.equals(before, now)) return;
+                FleetGauge gauge = fleetByType.computeIfAbsent(car.getType(), type -> new FleetGauge());
+                if (before != null) {
+                    gauge.cars.decrement();
+                    if (before == OUT) gauge.out.decrement();
+                }
+                if (now != null) {
+                    gauge.cars.increment();
+                    if (now == OUT) gauge.out.increment();
+                }
+            }
+        }
+
+        // Dashboard reads
+
+        public long getRentalCount() { return published.all.rentals.sum(); }
+
+        public long getRevenueCents() { return published.all.revenueCents.sum(); }
+
+        public double getAverageRentalDays() { return published.all.averageDays(); }
+
+        public long getRevenueCents(LocalDate day) {
+            Bucket bucket = published.day((int) day.toEpochDay(), false);
+            return bucket == null ? 0 : bucket.revenueCents.sum();
+        }
+
+        /** Revenue per start day over [from, to], with days without bookings left out. */
+        public SortedMap<LocalDate, Long> getDailyRevenueCents(LocalDate from, LocalDate to) {
+            Totals totals = published;
+            SortedMap<LocalDate, Long> revenue = new TreeMap<>();
+            for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+                Bucket bucket = totals.day((int) day, false);
+                if (bucket != null) revenue.put(LocalDate.ofEpochDay(day), bucket.revenueCents.sum());
+            }
+            return revenue;
+        }
+
+        public SortedMap<String, Long> getRevenueCentsByType() { return revenue(published.byType); }
+
+        public SortedMap<String, Long> getRevenueCentsByMake() { return revenue(published.byMake); }
+
+        public double getAverageRentalDays(String type) {
+            Bucket bucket = published.byType.get(type);
+            return bucket == null ? 0 : bucket.averageDays();
+        }
+
+        /** Share of the type's cars that are off the lot right now. */
+        public double getUtilization(String type) {
+            FleetGauge gauge = fleetByType.get(type);
+            return gauge == null ? 0 : gauge.utilization();
+        }
+
+        public SortedMap<String, Double> getUtilizationByType() {
+            SortedMap<String, Double> utilization = new TreeMap<>();
+            fleetByType.forEach((type, gauge) -> {
+                if (gauge.cars.sum() > 0) utilization.put(type, gauge.utilization());
+            });
+            return utilization;
+        }
+
+        private static SortedMap<String, Long> revenue(Map<String, Bucket> buckets) {
+            SortedMap<String, Long> revenue = new TreeMap<>();
+            buckets.forEach((key, bucket) -> revenue.put(key, bucket.revenueCents.sum()));
+            return revenue;
+        }
+
+        // Backfill
+
+        /**
+         * Recounts every rental in the store: the heap ones, then the archive in parallel.
+         * The cut is the one DataExporter takes, so archived rows that are also on the heap
+         * are skipped. Returns the number of rentals counted by the backfill itself.
+         */
+        public synchronized long rebuild() {
+            Generation next = new Generation(ConcurrentHashMap.newKeySet());
+            live = next;
+
+            List<Rental> heap = new ArrayList<>(system.getRentals());
+            RentalArchive archive = system.getArchive();
+            long archivedRows = archive == null ? 0 : archive.size();
+            long[] heapSequences = new long[heap.size()];
+            for (int i = 0; i < heapSequences.length; i++) heapSequences[i] = heap.get(i).getSequence();
+            Arrays.sort(heapSequences);
+
+            long counted = 0;
+            for (Rental rental : heap) {
+                if (!next.claims.add(rental.getSequence())) continue;
+                next.totals.add(rental.getCar().getType(), rental.getCar().getMake(),
+                        (int) rental.getStartDate().toEpochDay(), (int) rental.getEndDate().toEpochDay(),
+                        rental.getTotalCostCents());
+                counted++;
+            }
+            if (archivedRows > 0) {
+                Backfill backfill = new Backfill(archive, 0, archivedRows, new FleetKeys(system.getCarRecords()),
+                        heapSequences, next);
+                Partial partial = ForkJoinPool.commonPool().invoke(backfill);
+                partial.addTo(next.totals, backfill.keys);
+                counted += partial.rentals;
+            }
+
+            // Only claims of rentals still running are needed from here on, and no new ones are made
+            next.rebuilding = false;
+            for (Iterator<Long> it = next.claims.iterator(); it.hasNext(); ) {
+                Rental rental = system.getRental(system.rentalIdFor(it.next()));
+                if (rental == null || !rental.isActive()) it.remove();
+            }
+            published = next.totals;
+            for (Car car : system.getCars()) refreshCar(car);
+            for (Car car : carStates.keySet()) refreshCar(car);
+            return counted;
+        }
+
+        /** Dense type and make numbers by car ordinal, so archive rows are summed into arrays. */
+        private static final class FleetKeys {
+            final List<String> types = new ArrayList<>(List.of(UNKNOWN));
+            final List<String> makes = new ArrayList<>(List.of(UNKNOWN));
+            int[] typeOf = new int[16];
+            int[] makeOf = new int[16];
+
+            FleetKeys(Collection<Car> fleet) {
+                Map<String, Integer> typeIndex = new HashMap<>();
+                Map<String, Integer> makeIndex = new HashMap<>();
+                for (Car car : fleet) {
+                    int ordinal = car.getOrdinal();
+                    if (ordinal >= typeOf.length) {
+                        int size = Math.max(typeOf.length * 2, ordinal + 1);
+                        typeOf = Arrays.copyOf(typeOf, size);
+                        makeOf = Arrays.copyOf(makeOf, size);
+                    }
+                    typeOf[ordinal] = typeIndex.computeIfAbsent(car.getType(), key -> { types.add(key); return types.size() - 1; });
+                    makeOf[ordinal] = makeIndex.computeIfAbsent(car.getMake(), key -> { makes.add(key); return makes.size() - 1; });
+                }
+            }
+
+            // Rows naming a car this store never registered fall under UNKNOWN (index 0)
+            int type(int ordinal) { return ordinal >= 0 && ordinal < typeOf.length ? typeOf[ordinal] : 0; }
+            int make(int ordinal) { return ordinal >= 0 && ordinal < makeOf.length ? makeOf[ordinal] : 0; }
+        }
+
+        private static final class Backfill extends RecursiveTask<Partial> {
+            private final RentalArchive archive;
+            private final long from;
+            private final long to;
+            final FleetKeys keys;
+            private final long[] heapSequences;
+            private final Generation generation;
+
+            Backfill(RentalArchive archive, long from, long to, FleetKeys keys, long[] heapSequences,
+                     Generation generation) {
+                this.archive = archive;
+                this.from = from;
+                this.to = to;
+                this.keys = keys;
+                this.heapSequences = heapSequences;
+                this.generation = generation;
+            }
+
+            @Override
+            protected Partial compute() {
+                if (to - from <= BACKFILL_ROWS) {
+                    Partial partial = new Partial(keys);
+                    long lowestLiveClaim = generation.lowestLiveClaim.get();
+                    archive.scan(from, to, (row, sequence, carOrdinal, customerOrdinal, startDay, endDay, costCents) -> {
+                        if (Arrays.binarySearch(heapSequences, sequence) >= 0) return;
+                        // Bookings made since the rebuild began were already counted live
+                        if (sequence >= lowestLiveClaim && generation.claims.contains(sequence)) return;
+                        partial.add(keys.type(carOrdinal), keys.make(carOrdinal), startDay, endDay - startDay, costCents);
+                    });
+                    return partial;
+                }
+                long middle = (from + to) >>> 1;
+                Backfill left = new Backfill(archive, from, middle, keys, heapSequences, generation);
+                left.fork();
+                Partial right = new Backfill(archive, middle, to, keys, heapSequences, generation).compute();
+                return left.join().merge(right);
+            }
+        }
+
+        /** One backfill task's sums: plain arrays by type, make and day offset. */
+        private static final class Partial {
+            final long[][] byType;
+            final long[][] byMake;
+            long[][] byDay = new long[0][];
+            int firstDay;
+            long rentals;
+
+            Partial(FleetKeys keys) {
+                byType = new long[keys.types.size()][3];
+                byMake = new long[keys.makes.size()][3];
+            }
+
+            void add(int type, int make, int startDay, int days, long cents) {
+                sum(byType[type], days, cents, 1);
+                sum(byMake[make], days, cents, 1);
+                sum(day(startDay), days, cents, 1);
+                rentals++;
+            }
+
+            private long[] day(int epochDay) {
+                if (byDay.length == 0) {
+                    byDay = new long[64][];
+                    firstDay = epochDay;
+                } else if (epochDay < firstDay || epochDay >= firstDay + byDay.length) {
+                    int first = Math.min(firstDay, epochDay);
+                    int last = Math.max(firstDay + byDay.length, epochDay + 1);
+                    long[][] grown = new long[Math.max(last - first, byDay.length * 2)][];
+                    System.arraycopy(byDay, 0, grown, firstDay - first, byDay.length);
+                    byDay = grown;
+                    firstDay = first;
+                }
+                int index = epochDay - firstDay;
+                if (byDay[index] == null) byDay[index] = new long[3];
+                return byDay[index];
+            }
+
+            private static void sum(long[] into, long days, long cents, long rentals) {
+                into[0] += rentals;
+                into[1] += days;
+                into[2] += cents;
+            }
+
+            Partial merge(Partial other) {
+                for (int i = 0; i < byType.length; i++) sum(byType[i], other.byType[i][1], other.byType[i][2], other.byType[i][0]);
+                for (int i = 0; i < byMake.length; i++) sum(byMake[i], other.byMake[i][1], other.byMake[i][2], other.byMake[i][0]);
+                for (int i = 0; i < other.byDay.length; i++) {
+                    long[] day = other.byDay[i];
+                    if (day != null) sum(day(other.firstDay + i), day[1], day[2], day[0]);
+                }
+                rentals += other.rentals;
+                return this;
+            }
+
+            void addTo(Totals totals, FleetKeys keys) {
+                for (int i = 0; i < byType.length; i++) {
+                    if (byType[i][0] > 0) totals.bucket(totals.byType, keys.types.get(i)).add(byType[i][0], byType[i][1], byType[i][2]);
+                }
+                for (int i = 0; i < byMake.length; i++) {
+                    if (byMake[i][0] > 0) totals.bucket(totals.byMake, keys.makes.get(i)).add(byMake[i][0], byMake[i][1], byMake[i][2]);
+                }
+                for (int i = 0; i < byDay.length; i++) {
+                    long[] day = byDay[i];
+                    if (day != null) totals.day(firstDay + i, true).add(day[0], day[1], day[2]);
+                }
+                totals.all.add(rentals, sumOf(byType, 1), sumOf(byType, 2));
+            }
+
+            private static long sumOf(long[][] rows, int column) {
+                long total = 0;
+                for (long[] row : rows) total += row[column];
+                return total;
+            }
+        }
+
+        /** Counters that events go to; claims is null until the first rebuild. */
+        private static final class Generation {
+            final Totals totals = new Totals();
+            final Set<Long> claims;
+            final AtomicLong lowestLiveClaim = new AtomicLong(Long.MAX_VALUE);
+            volatile boolean rebuilding;
+
+            Generation(Set<Long> claims) {
+                this.claims = claims;
+                this.rebuilding = claims != null;
+            }
+        }
+
+        private static final class Totals {
+            final Bucket all = new Bucket();
+            final Map<String, Bucket> byType = new ConcurrentHashMap<>();
+            final Map<String, Bucket> byMake = new ConcurrentHashMap<>();
+            // Blocks of 512 days keyed by epochDay >> 9; block numbers stay in Integer's cache until 2148
+            final Map<Integer, AtomicReferenceArray<Bucket>> dayBlocks = new ConcurrentHashMap<>();
+
+            void add(String type, String make, int startDay, int endDay, long cents) {
+                long days = endDay - startDay;
+                all.add(1, days, cents);
+                bucket(byType, type).add(1, days, cents);
+                bucket(byMake, make).add(1, days, cents);
+                day(startDay, true).add(1, days, cents);
+            }
+
+            Bucket bucket(Map<String, Bucket> buckets, String key) {
+                Bucket bucket = buckets.get(key);
+                return bucket != null ? bucket : buckets.computeIfAbsent(key, k -> new Bucket());
+            }
+
+            Bucket day(int epochDay, boolean create) {
+                Integer block = epochDay >> DAY_BLOCK_SHIFT;
+                AtomicReferenceArray<Bucket> days = dayBlocks.get(block);
+                if (days == null) {
+                    if (!create) return null;
+                    days = dayBlocks.computeIfAbsent(block, b -> new AtomicReferenceArray<>(1 << DAY_BLOCK_SHIFT));
+                }
+                int slot = epochDay & ((1 << DAY_BLOCK_SHIFT) - 1);
+                Bucket bucket = days.get(slot);
+                if (bucket == null && create) {
+                    days.compareAndSet(slot, null, new Bucket());
+                    bucket = days.get(slot);
+                }
+                return bucket;
+            }
+        }
+
+        private static final class Bucket {
+            final LongAdder rentals = new LongAdder();
+            final LongAdder days = new LongAdder();
+            final LongAdder revenueCents = new LongAdder();
+
+            void add(long rentals, long days, long cents) {
+                this.rentals.add(rentals);
+                this.days.add(days);
+                this.revenueCents.add(cents);
+            }
+
+            double averageDays() {
+                long count = rentals.sum();
+                return count == 0 ? 0 : (double) days.sum() / count;
+            }
+        }
+
+        private static final class FleetGauge {
+            final LongAdder cars = new LongAdder();
+            final LongAdder out = new LongAdder();
+
+            double utilization() {
+                long fleet = cars.sum();
+                return fleet == 0 ? 0 : (double) out.sum() / fleet;
+            }
+        }
+    }
+
+    /**
+     * Watches active rentals for their end date and reports the ones not brought back in
+     * time: once on the first day a rental is late, then a late fee for each further day it
+     * stays out, priced by the store's engine as one more day of the rental.
+     *
+     * Rentals wait in a hierarchical timing wheel of days, four levels of 64 slots with one
+     * day per slot at the bottom and each level 64 times coarser than the one below, so
+     * scheduling and cancelling are O(1) and a tick only touches the rentals falling due
+     * that day, plus a coarse slot cascading down once every 64 days. Store threads just
+     * queue the rentals that started or ended; the wheel belongs to whoever holds the
+     * scheduler's lock, normally its own ticker thread. Today comes from the given Clock,
+     * so a test can move time forward a day at a time and call tick itself.
+     *
+     * Reservations made for a later date wait in the same wheel for their start date, when
+     * the tick hands the car over through carRe.pickUp; one whose car is still out with a
+     * late renter is tried again on every tick until the car is back.
+     */
+    static class OverdueScheduler implements StoreListener, Closeable {
+        /** Called from tick, in the order rentals fall due; must be quick and not call back into the scheduler. */
+        interface Listener {
+            /** The rental was not returned by its end date; sent once, on the first tick that finds it late. */
+            default void rentalOverdue(Rental rental, LocalDate today) {}
+
+            /** Fees for the late days since the last accrual; totalCents is everything accrued on the rental. */
+            default void lateFeeAccrued(Rental rental, long daysLate, long feeCents, long totalCents) {}
+        }
+
+        private static final int SLOT_BITS = 6;
+        private static final int SLOTS = 1 << SLOT_BITS;
+        private static final int LEVELS = 4;
+        // About 45,000 years; anything due later waits in the top level and is placed again on the way down
+        private static final long HORIZON = 1L << (SLOT_BITS * LEVELS);
+
+        private final carRe system;
+        private final Clock clock;
+        private final Queue<Rental> changed = new ConcurrentLinkedQueue<>();
+        private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+        // Everything below is guarded by this
+        private final Node[][] wheel = new Node[LEVELS][SLOTS];
+        private final Node ready = new Node(null);
+        private final Node pickups = new Node(null);
+        private final Map<Rental, Node> scheduled = new HashMap<>();
+        private long nextDay;
+        private int overdue;
+        private ScheduledExecutorService ticker;
+
+        OverdueScheduler(carRe system, Clock clock) {
+            this.system = system;
+            this.clock = clock;
+            for (Node[] level : wheel) {
+                for (int slot = 0; slot < SLOTS; slot++) level[slot] = new Node(null);
+            }
+            nextDay = LocalDate.now(clock).toEpochDay();
+            // Listening first, so a rental started during the scan is queued twice rather than not at all
+            system.addStoreListener(this);
+            changed.addAll(system.getActiveRentals());
+        }
+
+        public void addListener(Listener listener) { listeners.add(listener); }
+
+        public void removeListener(Listener listener) { listeners.remove(listener); }
+
+        /** Ticks on a daemon thread every period until closed. */
+        synchronized void start(long period, TimeUnit unit) {
+            if (ticker != null) return;
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "overdue-scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+            ticker.scheduleWithFixedDelay(() -> {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    // One bad listener must not stop the ticks
+                    reportFailure("Overdue tick failed", e);
+                }
+            }, 0, period, unit);
+        }
+
+        @Override
+        public synchronized void close() {
+            system.removeStoreListener(this);
+            if (ticker != null) ticker.shutdownNow();
+            ticker = null;
+        }
+
+        // Store events: only queued here, so the booking path pays for one lock-free offer
+
+        @Override
+        public void rentalStarted(Rental rental) { changed.offer(rental); }
+
+        @Override
+        public void rentalEnded(Rental rental) { changed.offer(rental); }
+
+        /**
+         * Takes in the queued store changes, then runs every day from the last tick up to the
+         * clock's today. Returns the number of overdue and late-fee reports sent.
+         */
+        public synchronized int tick() {
+            drain();
+            long today = LocalDate.now(clock).toEpochDay();
+            int reported = 0;
+            for (; nextDay <= today; nextDay++) {
+                long day = nextDay;
+                // Coarse slots starting today move down first, so their rentals due today are fired with the rest
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((day & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        Node slot = wheel[level][(int) (day >>> (SLOT_BITS * level)) & (SLOTS - 1)];
+                        while (slot.next != slot) {
+                            Node node = slot.next;
+                            node.unlink();
+                            schedule(node, day);
+                        }
+                    }
+                }
+                reported += fire(wheel[0][(int) day & (SLOTS - 1)], day);
+            }
+            // Reservations waiting for their car first, since a pickup may land a rental that is already late in ready
+            reported += fire(pickups, nextDay - 1);
+            // Rentals that were already late when they were queued
+            reported += fire(ready, nextDay - 1);
+            return reported;
+        }
+
+        /** Rentals found late by the last tick, longest overdue first. */
+        public synchronized List<Rental> getOverdueRentals() {
+            drain();
+            List<Node> late = new ArrayList<>(overdue);
+            for (Node node : scheduled.values()) {
+                if (node.lateDays > 0) late.add(node);
+            }
+            late.sort(Comparator.comparingLong((Node node) -> node.endDay).thenComparingLong(node -> node.rental.getSequence()));
+            List<Rental> rentals = new ArrayList<>(late.size());
+            for (Node node : late) rentals.add(node.rental);
+            return rentals;
+        }
+
+        public synchronized int getOverdueCount() {
+            drain();
+            return overdue;
+        }
+
+        /** Active rentals being watched. */
+        public synchronized int getScheduledCount() {
+            drain();
+            return scheduled.size();
+        }
+
+        /** Late fees accrued on a rental still out; 0 once it is returned. */
+        public synchronized long getLateFeeCents(Rental rental) {
+            drain();
+            Node node = scheduled.get(rental);
+            return node == null ? 0 : node.feeCents;
+        }
+
+        /** Days past its end date a rental still out had run at the last tick; 0 if it is not overdue. */
+        public synchronized long getLateDays(Rental rental) {
+            drain();
+            Node node = scheduled.get(rental);
+            return node == null ? 0 : node.lateDays;
+        }
+
+        // Both events for a rental may be queued in either order, so each one is judged on the rental as it is now
+        private void drain() {
+            for (Rental rental; (rental = changed.poll()) != null; ) {
+                Node node = scheduled.get(rental);
+                if (rental.isActive()) {
+                    if (node != null) continue;
+                    node = new Node(rental);
+                    scheduled.put(rental, node);
+                    schedule(node, nextDay);
+                } else if (node != null) {
+                    node.unlink();
+                    forget(node);
+                }
+            }
+        }
+
+        // Places the node relative to day base, the next day to be fired: the lowest level whose span covers it
+        private void schedule(Node node, long base) {
+            long delta = node.dueDay - base;
+            if (delta < 0) {
+                node.linkBefore(ready);
+                return;
+            }
+            int level = 0;
+            while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) level++;
+            long slotDay = delta < HORIZON ? node.dueDay : base + HORIZON - 1;
+            node.linkBefore(wheel[level][(int) (slotDay >>> (SLOT_BITS * level)) & (SLOTS - 1)]);
+        }
+
+        // Reports every rental in the list as late on the given day and books it in again for tomorrow
+        private int fire(Node list, long day) {
+            int reported = 0;
+            // Detached first, since rescheduling for tomorrow may append to the same list
+            Node first = list.next;
+            Node last = list.prev;
+            if (first == list) return 0;
+            list.next = list.prev = list;
+            first.prev = last;
+            last.next = first;
+            Node node = first;
+            while (true) {
+                Node following = node.next;
+                boolean end = following == first;
+                node.prev = node.next = node;
+                reported += accrue(node, day);
+                if (end) break;
+                node = following;
+            }
+            return reported;
+        }
+
+        // A pickup the journal refused is retried like one whose car is still out
+        private boolean pickUp(Rental rental) {
+            try {
+                return system.pickUp(rental);
+            } catch (RuntimeException e) {
+                reportFailure("Pickup of rental " + rental.getRentalId() + " failed", e);
+                return false;
+            }
+        }
+
+        private int accrue(Node node, long day) {
+            Rental rental = node.rental;
+            if (!rental.isActive()) {
+                // Returned, and the scheduler has not heard yet
+                forget(node);
+                return 0;
+            }
+            if (node.awaitingPickup) {
+                if (!rental.holdsCar() && !pickUp(rental)) {
+                    node.linkBefore(pickups);
+                    return 0;
+                }
+                // Watched for its end date from here on like any other rental
+                node.awaitingPickup = false;
+                node.dueDay = node.endDay + 1;
+                schedule(node, day + 1);
+                return 0;
+            }
+            long daysLate = day - node.endDay;
+            // The rental paid for [start, end); each late day is charged as one more day at that day's price
+            long feeCents = system.getPricingEngine().quoteCents(rental.getCar(), node.endDay + node.lateDays,
+                    node.endDay + daysLate);
+            boolean first = node.lateDays == 0;
+            node.lateDays = daysLate;
+            node.feeCents += feeCents;
+            node.dueDay = day + 1;
+            schedule(node, day + 1);
+            if (first) overdue++;
+            LocalDate today = first ? LocalDate.ofEpochDay(day) : null;
+            for (Listener listener : listeners) {
+                if (first) listener.rentalOverdue(rental, today);
+                listener.lateFeeAccrued(rental, daysLate, feeCents, node.feeCents);
+            }
+            return first ? 2 : 1;
+        }
+
+        private void forget(Node node) {
+            scheduled.remove(node.rental);
+            if (node.lateDays > 0) overdue--;
+        }
+
+        /** A rental in the wheel, or a slot's list head when rental is null. */
+        private static final class Node {
+            final Rental rental;
+            final long endDay;
+            long dueDay;
+            boolean awaitingPickup;
+            long lateDays;
+            long feeCents;
+            Node prev = this;
+            Node next = this;
+
+            Node(Rental rental) {
+                this.rental = rental;
+                endDay = rental == null ? 0 : rental.getEndDate().toEpochDay();
+                awaitingPickup = rental != null && !rental.holdsCar();
+                // A reservation is due on its start date; a rental holding its car is due back on the
+                // end date, so late from the morning after
+                dueDay = awaitingPickup ? rental.getStartDate().toEpochDay() : endDay + 1;
+            }
+
+            void linkBefore(Node head) {
+                prev = head.prev;
+                next = head;
+                head.prev.next = this;
+                head.prev = this;
+            }
+
+            void unlink() {
+                prev.next = next;
+                next.prev = prev;
+                prev = next = this;
+            }
+        }
+    }
+
+    /**
+     * Attribute search over a carRe's fleet: cars by type, make, model and branch, a daily
+     * rate range and whether they are on the lot, sorted and paged.
+     *
+     * Each attribute value maps, through a hash map, to a bitmap over car ordinals, so a
+     * query ANDs the bitmaps of its terms a word at a time and only reads the rate of the
+     * cars left over. Fleet membership and availability are two more bitmaps, kept current
+     * from store events. Whole sorted results are kept in a small LRU cache and pages are
+     * cut from them. A cached result is dropped as soon as a car it could contain is added,
+     * removed, taken or returned; changes to any other car leave it alone.
+     */
+    static class FleetSearch implements StoreListener, Closeable {
+        enum Sort { FLEET, RATE, RATE_DESCENDING }
+
+        /** Search terms; unset ones match every car. Used as the cache key, so it is copied when cached. */
+        static class Query {
+            private String type;
+            private String make;
+            private String model;
+            private String branch;
+            private long minRateCents;
+            private long maxRateCents = Long.MAX_VALUE;
+            private boolean availableOnly;
+            private Sort sort = Sort.FLEET;
+
+            Query() {}
+
+            private Query(Query other) {
+                type = other.type;
+                make = other.make;
+                model = other.model;
+                branch = other.branch;
+                minRateCents = other.minRateCents;
+                maxRateCents = other.maxRateCents;
+                availableOnly = other.availableOnly;
+                sort = other.sort;
+            }
+
+            Query type(String type) {
+                this.type = type;
+                return this;
+            }
+
+            Query make(String make) {
+                this.make = make;
+                return this;
+            }
+
+            Query model(String model) {
+                this.model = model;
+                return this;
+            }
+
+            Query branch(String branch) {
+                this.branch = branch;
+                return this;
+            }
+
+            /** Only cars on the lot right now. */
+            Query availableOnly() {
+                availableOnly = true;
+                return this;
+            }
+
+            Query sortBy(Sort sort) {
+                this.sort = Objects.requireNonNull(sort);
+                return this;
+            }
+
+            /** Daily rate between min and max, both inclusive. */
+            Query rateBetween(double min, double max) {
+                if (max < min) throw new IllegalArgumentException("Rate range ends before it starts: " + min + " - " + max);
+                minRateCents = Math.round(min * 100);
+                maxRateCents = Math.round(max * 100);
+                return this;
+            }
+
+            // Whether the car's attributes put it in this query's results, leaving availability aside
+            boolean covers(Car car) {
+                if (type != null && !type.equals(car.getType())) return false;
+                if (make != null && !make.equals(car.getMake())) return false;
+                if (model != null && !model.equals(car.getModel())) return false;
+                if (branch != null && !branch.equals(car.getBranch())) return false;
+                long cents = Math.round(car.getDailyRate() * 100);
+                return cents >= minRateCents && cents <= maxRateCents;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Query)) return false;
+                Query q = (Query) o;
+                return Objects.equals(type, q.type) && Objects.equals(make, q.make) && Objects.equals(model, q.model)
+                        && Objects.equals(branch, q.branch) && minRateCents == q.minRateCents
+                        && maxRateCents == q.maxRateCents && availableOnly == q.availableOnly && sort == q.sort;
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(type, make, model, branch, minRateCents, maxRateCents, availableOnly, sort);
+            }
+        }
+
+        /** One page of a search, with the number of cars matching overall. */
+        static class Page {
+            private final int total;
+            private final List<Car> cars;
+
+            Page(int total, List<Car> cars) {
+                this.total = total;
+                this.cars = cars;
+            }
+
+            public int getTotal() { return total; }
+            public List<Car> getCars() { return cars; }
+        }
+
+        static final int DEFAULT_CACHE_SIZE = 256;
+        private static final int CHUNK_SHIFT = 12;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int[] NONE = new int[0];
+
+        private final carRe system;
+        private final Map<String, Chunked> byType = new ConcurrentHashMap<>();
+        private final Map<String, Chunked> byMake = new ConcurrentHashMap<>();
+        private final Map<String, Chunked> byModel = new ConcurrentHashMap<>();
+        private final Map<String, Chunked> byBranch = new ConcurrentHashMap<>();
+        private final Chunked inFleet = new Chunked();
+        private final Chunked onLot = new Chunked();
+        private final Chunked rateCents = new Chunked();
+        // Cars by ordinal, in chunks like the bitmaps; a slot is written before the car's bits are set
+        private volatile Car[][] cars = new Car[0][];
+        private volatile int ordinalLimit;
+        private final Map<Query, Cached> cache;
+        // Cached results by the type they are limited to, so a change to one car only checks those of its type
+        private final Map<String, Set<Cached>> watchersByType = new ConcurrentHashMap<>();
+        private final Set<Cached> anyTypeWatchers = ConcurrentHashMap.newKeySet();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        FleetSearch(carRe system) {
+            this(system, DEFAULT_CACHE_SIZE);
+        }
+
+        FleetSearch(carRe system, int cacheSize) {
+            this.system = system;
+            this.cache = new LinkedHashMap<Query, Cached>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Query, Cached> eldest) {
+                    if (size() <= cacheSize) return false;
+                    watchers(eldest.getKey()).remove(eldest.getValue());
+                    return true;
+                }
+            };
+            system.addStoreListener(this);
+            for (Car car : system.getCars()) refreshCar(car);
+        }
+
+        @Override
+        public void close() {
+            system.removeStoreListener(this);
+        }
+
+        public long getCacheHits() { return hits.sum(); }
+
+        public long getCacheMisses() { return misses.sum(); }
+
+        /** Cars matching the query, in its order, skipping offset of them and returning at most limit. */
+        public Page search(Query query, int offset, int limit) {
+            if (offset < 0 || limit < 0) throw new IllegalArgumentException("offset and limit must not be negative");
+            Cached cached;
+            synchronized (cache) {
+                cached = cache.get(query);
+            }
+            if (cached != null && !cached.stale) {
+                hits.increment();
+            } else {
+                misses.increment();
+                cached = new Cached(new Query(query));
+                // Watching before reading the bitmaps, so a change made meanwhile either shows in the result or marks it stale
+                Set<Cached> watchers = watchers(cached.query);
+                watchers.add(cached);
+                cached.ordinals = run(cached.query);
+                if (cached.stale) {
+                    watchers.remove(cached);
+                } else {
+                    synchronized (cache) {
+                        Cached replaced = cache.put(cached.query, cached);
+                        if (replaced != null) watchers.remove(replaced);
+                    }
+                }
+            }
+            int[] ordinals = cached.ordinals;
+            int from = Math.min(offset, ordinals.length);
+            int to = (int) Math.min((long) from + limit, ordinals.length);
+            List<Car> page = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) page.add(car(ordinals[i]));
+            return new Page(ordinals.length, page);
+        }
+
+        private Set<Cached> watchers(Query query) {
+            return query.type == null ? anyTypeWatchers
+                    : watchersByType.computeIfAbsent(query.type, type -> ConcurrentHashMap.newKeySet());
+        }
+
+        // Evaluation
+
+        private int[] run(Query query) {
+            List<Chunked> terms = new ArrayList<>(5);
+            terms.add(query.availableOnly ? onLot : inFleet);
+            if (!addTerm(terms, byType, query.type) || !addTerm(terms, byMake, query.make)
+                    || !addTerm(terms, byModel, query.model) || !addTerm(terms, byBranch, query.branch)) {
+                return NONE;
+            }
+            Chunked[] bitmaps = terms.toArray(new Chunked[0]);
+            boolean rateBounded = query.minRateCents > 0 || query.maxRateCents < Long.MAX_VALUE;
+            boolean byRate = query.sort != Sort.FLEET;
+            int words = (ordinalLimit + 63) >>> 6;
+            long[] matches = new long[64];
+            int count = 0;
+            for (int word = 0; word < words; word++) {
+                long bits = bitmaps[0].get(word);
+                for (int t = 1; t < bitmaps.length && bits != 0; t++) bits &= bitmaps[t].get(word);
+                while (bits != 0) {
+                    int ordinal = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    long cents = rateBounded || byRate ? rateCents.get(ordinal) : 0;
+                    if (cents < query.minRateCents || cents > query.maxRateCents) continue;
+                    if (count == matches.length) matches = Arrays.copyOf(matches, count * 2);
+                    // Rate in the high half, so one primitive sort orders by rate and then by fleet order
+                    long rank = query.sort == Sort.RATE_DESCENDING ? Integer.MAX_VALUE - Math.min(cents, Integer.MAX_VALUE)
+                            : Math.min(cents, Integer.MAX_VALUE);
+                    matches[count++] = byRate ? rank << 32 | ordinal : ordinal;
+                }
+            }
+            if (byRate) Arrays.sort(matches, 0, count);
+            int[] ordinals = new int[count];
+            for (int i = 0; i < count; i++) ordinals[i] = (int) matches[i];
+            return ordinals;
+        }
+
+        private static boolean addTerm(List<Chunked> terms, Map<String, Chunked> index, String value) {
+            if (value == null) return true;
+            Chunked bitmap = index.get(value);
+            if (bitmap == null) return false;
+            terms.add(bitmap);
+            return true;
+        }
+
+        private Car car(int ordinal) {
+            return cars[ordinal >>> CHUNK_SHIFT][ordinal & (CHUNK_SIZE - 1)];
+        }
+
+        // Store events
+
+        @Override
+        public void carAdded(Car car) { refreshCar(car); }
+
+        @Override
+        public void carRemoved(Car car) { refreshCar(car); }
+
+        @Override
+        public void carAvailabilityChanged(Car car) { refreshCar(car); }
+
+        // Re-reads the car's place in the store under its monitor, like carRe.refreshAvailability
+        private void refreshCar(Car car) {
+            int ordinal = car.getOrdinal();
+            if (ordinal < 0) return;
+            boolean fleetChanged;
+            boolean lotChanged;
+            synchronized (car) {
+                boolean member = system.getCar(car.getLicensePlate()) == car;
+                boolean available = member && system.isAvailable(car);
+                if (member && !inFleet.testBit(ordinal)) index(car, ordinal);
+                fleetChanged = member ? inFleet.setBit(ordinal) : inFleet.clearBit(ordinal);
+                lotChanged = available ? onLot.setBit(ordinal) : onLot.clearBit(ordinal);
+            }
+            if (fleetChanged || lotChanged) invalidate(car, !fleetChanged);
+        }
+
+        private void index(Car car, int ordinal) {
+            synchronized (this) {
+                int chunk = ordinal >>> CHUNK_SHIFT;
+                if (chunk >= cars.length) {
+                    Car[][] grown = Arrays.copyOf(cars, chunk + 1);
+                    for (int i = cars.length; i < grown.length; i++) grown[i] = new Car[CHUNK_SIZE];
+                    cars = grown;
+                }
+                if (ordinal >= ordinalLimit) ordinalLimit = ordinal + 1;
+            }
+            cars[ordinal >>> CHUNK_SHIFT][ordinal & (CHUNK_SIZE - 1)] = car;
+            rateCents.set(ordinal, Math.round(car.getDailyRate() * 100));
+            byType.computeIfAbsent(car.getType(), value -> new Chunked()).setBit(ordinal);
+            byMake.computeIfAbsent(car.getMake(), value -> new Chunked()).setBit(ordinal);
+            byModel.computeIfAbsent(car.getModel(), value -> new Chunked()).setBit(ordinal);
+            byBranch.computeIfAbsent(car.getBranch(), value -> new Chunked()).setBit(ordinal);
+        }
+
+        // Marks stale every cached result the car could be in; results that only list cars on the lot
+        // are the only ones affected when just its availability changed
+        private void invalidate(Car car, boolean availabilityOnly) {
+            invalidate(watchersByType.get(car.getType()), car, availabilityOnly);
+            invalidate(anyTypeWatchers, car, availabilityOnly);
+        }
+
+        private static void invalidate(Set<Cached> watchers, Car car, boolean availabilityOnly) {
+            if (watchers == null || watchers.isEmpty()) return;
+            for (Cached cached : watchers) {
+                if (availabilityOnly && !cached.query.availableOnly) continue;
+                if (!cached.query.covers(car)) continue;
+                cached.stale = true;
+                watchers.remove(cached);
+            }
+        }
+
+        private static final class Cached {
+            final Query query;
+            int[] ordinals;
+            volatile boolean stale;
+
+            Cached(Query query) {
+                this.query = query;
+            }
+        }
+
+        /**
+         * Growable array of longs, used both as a bitmap and as a column by ordinal. It grows in
+         * fixed-size chunks that are never copied, so bit flips cannot race with growth.
+         */
+        private static final class Chunked {
+            private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+            long get(int index) {
+                AtomicLongArray[] current = chunks;
+                int chunk = index >>> CHUNK_SHIFT;
+                return chunk < current.length ? current[chunk].get(index & (CHUNK_SIZE - 1)) : 0;
+            }
+
+            void set(int index, long value) {
+                chunk(index).set(index & (CHUNK_SIZE - 1), value);
+            }
+
+            boolean testBit(int bit) {
+                return (get(bit >>> 6) & (1L << bit)) != 0;
+            }
+
+            /** Sets the bit; returns false if it was already set. */
+            boolean setBit(int bit) {
+                long mask = 1L << bit;
+                return (chunk(bit >>> 6).getAndAccumulate((bit >>> 6) & (CHUNK_SIZE - 1), mask, (w, m) -> w | m) & mask) == 0;
+            }
+
+            /** Clears the bit; returns false if it was already clear. */
+            boolean clearBit(int bit) {
+                if (!testBit(bit)) return false;
+                long mask = 1L << bit;
+                return (chunk(bit >>> 6).getAndAccumulate((bit >>> 6) & (CHUNK_SIZE - 1), mask, (w, m) -> w & ~m) & mask) != 0;
+            }
+
+            private AtomicLongArray chunk(int index) {
+                int chunk = index >>> CHUNK_SHIFT;
+                AtomicLongArray[] current = chunks;
+                if (chunk < current.length) return current[chunk];
+                synchronized (this) {
+                    current = chunks;
+                    if (chunk >= current.length) {
+                        AtomicLongArray[] grown = Arrays.copyOf(current, chunk + 1);
+                        for (int i = current.length; i < grown.length; i++) grown[i] = new AtomicLongArray(CHUNK_SIZE);
+                        chunks = grown;
+                        current = grown;
+                    }
+                    return current[chunk];
+                }
+            }
+        }
+    }
+
+    /**
+     * Lock-free latency histogram with HdrHistogram-style log-linear buckets: exact below 64ns,
+     * then 64 sub-buckets per power of two, so any recorded value is reported within 1.6%.
+     * Recording is a single atomic increment plus a sum and a rarely contended max, so it
+     * can sit on hot paths; readers see a slightly moving but never torn picture.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (63 - SUB_BITS + 1) << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts.getAndIncrement(index(nanos));
+            count.increment();
+            sum.add(nanos);
+            long seen = max.get();
+            while (nanos > seen && !max.compareAndSet(seen, nanos)) seen = max.get();
+        }
+
+        long getCount() { return count.sum(); }
+
+        long getMax() { return max.get(); }
+
+        double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /** The smallest bucket bound that at least the given share (0-100) of recordings fall under. */
+        long getValueAtPercentile(double percentile) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(highestValue(i), max.get());
+            }
+            return max.get();
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+        }
+
+        static long highestValue(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int shift = (index >> SUB_BITS) - 1;
+            long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+
+    /**
+     * Latency, throughput and conflict figures for a carRe, plus its store sizes. Attach
+     * it with carRe.attachMetrics; each instrumented call then costs two System.nanoTime
+     * reads and a histogram update (the "metrics" benchmark measures it). The figures are
+     * published as one JMX MBean, carrental:type=StoreMetrics, and as a text report that
+     * can be dumped on a schedule.
+     *
+     * getAvailableCars and getActiveRentals return live views and are not timed: there is
+     * nothing to time but a field read. Walking a view is timed by the caller, e.g. per
+     * route in BookingServer.
+     */
+    static class StoreMetrics implements DynamicMBean {
+        static final String OBJECT_NAME = "carrental:type=StoreMetrics";
+        private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+        // Declared first: the operation fields below register themselves in it
+        private final Map<String, Operation> operations = new ConcurrentSkipListMap<>();
+        final Operation rentCar = operation("rentCar");
+        final Operation returnCar = operation("returnCar");
+        final Operation rentCars = operation("rentCars");
+        final Operation returnCars = operation("returnCars");
+        /** Bookings refused because the car was already off the lot, or lost the race for it. */
+        final LongAdder carTaken = new LongAdder();
+        /** Bookings refused because the dates clash with another booking of the car. */
+        final LongAdder datesTaken = new LongAdder();
+        /** Background journal snapshots that failed; the journal keeps every segment until one succeeds. */
+        final LongAdder snapshotFailures = new LongAdder();
+        /** Archive writes that failed, retries included; the rentals stay on the heap meanwhile. */
+        final LongAdder archiveFailures = new LongAdder();
+
+        private final long startedNanos = System.nanoTime();
+        private volatile carRe system;
+        private ScheduledExecutorService reporter;
+
+        void attach(carRe system) { this.system = system; }
+
+        /** The named operation, created on first use; e.g. "http GET /rentals/active". */
+        Operation operation(String name) {
+            return operations.computeIfAbsent(name, Operation::new);
+        }
+
+        /** One timed operation: its latency histogram and how many calls failed. */
+        static final class Operation {
+            final String name;
+            final LatencyHistogram latency = new LatencyHistogram();
+            final LongAdder failures = new LongAdder();
+
+            Operation(String name) {
+                this.name = name;
+            }
+
+            void record(long startedNanos, boolean succeeded) {
+                latency.record(System.nanoTime() - startedNanos);
+                if (!succeeded) failures.increment();
+            }
+        }
+
+        /** Store sizes, keyed by name. Some are O(n) to count, so read them for reports, not per call. */
+        Map<String, Long> storeSizes() {
+            Map<String, Long> sizes = new LinkedHashMap<>();
+            carRe store = system;
+            if (store == null) return sizes;
+            sizes.put("cars", (long) store.getCars().size());
+            sizes.put("availableCars", (long) store.availableCars.size());
+            sizes.put("customers", (long) store.getCustomers().size());
+            sizes.put("activeRentals", (long) store.activeRentals.size());
+            sizes.put("branches", (long) store.getBranches().size());
+            sizes.put("heapRentals", (long) store.getRentals().size());
+            RentalArchive archive = store.getArchive();
+            sizes.put("archivedRentals", archive == null ? 0L : archive.size());
+            sizes.put("unarchivedRentals", (long) store.getUnarchivedCount());
+            return sizes;
+        }
+
+        /** Registers this object with the platform MBean server, replacing an earlier registration. */
+        void registerMBean() {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+            }
+        }
+
+        /** Prints report() every period until stopReporting; the first one after one period. */
+        synchronized void startReporting(long period, TimeUnit unit, Consumer<String> out) {
+            stopReporting();
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "store-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(() -> out.accept(report()), period, period, unit);
+        }
+
+        synchronized void stopReporting() {
+            if (reporter != null) reporter.shutdownNow();
+            reporter = null;
+        }
+
+        /** Text dump: one line per operation that has been called, then conflicts, failures and sizes. */
+        String report() {
+            double seconds = (System.nanoTime() - startedNanos) / 1e9;
+            StringBuilder text = new StringBuilder(1024);
+            text.append(String.format("%-30s %10s %10s %8s %9s %9s %9s %9s %9s%n", "operation", "calls", "calls/s",
+                    "failed", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+            for (Operation operation : operations.values()) {
+                long calls = operation.latency.getCount();
+                if (calls == 0) continue;
+                text.append(String.format("%-30s %10d %10.1f %8d", operation.name, calls, calls / seconds,
+                        operation.failures.sum()));
+                for (double percentile : PERCENTILES) {
+                    text.append(String.format(" %9.1f", operation.latency.getValueAtPercentile(percentile) / 1e3));
+                }
+                text.append(String.format(" %9.1f%n", operation.latency.getMax() / 1e3));
+            }
+            text.append(String.format("conflicts: car taken %d, dates taken %d%n", carTaken.sum(), datesTaken.sum()));
+            text.append(String.format("failures: snapshot %d, archive %d%n", snapshotFailures.sum(), archiveFailures.sum()));
+            text.append("store:");
+            storeSizes().forEach((name, size) -> text.append(' ').append(name).append('=').append(size));
+            return text.append('\n').toString();
+        }
+
+        // DynamicMBean: attributes are "<operation>.<stat>", the conflict and failure counters and the store sizes
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            switch (attribute) {
+                case "conflicts.carTaken": return carTaken.sum();
+                case "conflicts.datesTaken": return datesTaken.sum();
+                case "failures.snapshot": return snapshotFailures.sum();
+                case "failures.archive": return archiveFailures.sum();
+                case "uptimeSeconds": return (System.nanoTime() - startedNanos) / 1_000_000_000L;
+                default: break;
+            }
+            if (attribute.startsWith("store.")) {
+                Long size = storeSizes().get(attribute.substring("store.".length()));
+                if (size != null) return size;
+            }
+            int dot = attribute.lastIndexOf('.');
+            Operation operation = dot < 0 ? null : operations.get(attribute.substring(0, dot));
+            if (operation != null) {
+                LatencyHistogram latency = operation.latency;
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return latency.getCount();
+                    case "failures": return operation.failures.sum();
+                    case "meanNanos": return latency.getMean();
+                    case "p50Nanos": return latency.getValueAtPercentile(50);
+                    case "p90Nanos": return latency.getValueAtPercentile(90);
+                    case "p99Nanos": return latency.getValueAtPercentile(99);
+                    case "p999Nanos": return latency.getValueAtPercentile(99.9);
+                    case "maxNanos": return latency.getMax();
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown names are left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+            if ("report".equals(actionName)) return report();
+            throw new MBeanException(new UnsupportedOperationException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            attributes.add(longAttribute("conflicts.carTaken", "Bookings refused because the car was taken"));
+            attributes.add(longAttribute("conflicts.datesTaken", "Bookings refused because the dates clash"));
+            attributes.add(longAttribute("failures.snapshot", "Background journal snapshots that failed"));
+            attributes.add(longAttribute("failures.archive", "Archive writes that failed, retries included"));
+            attributes.add(longAttribute("uptimeSeconds", "Seconds since the metrics were created"));
+            for (String size : new String[] {"cars", "availableCars", "customers", "activeRentals", "branches", "heapRentals", "archivedRentals", "unarchivedRentals"}) {
+                attributes.add(longAttribute("store." + size, "Current number of " + size));
+            }
+            for (String name : operations.keySet()) {
+                attributes.add(longAttribute(name + ".count", "Calls"));
+                attributes.add(longAttribute(name + ".failures", "Calls that failed or found nothing to do"));
+                attributes.add(new MBeanAttributeInfo(name + ".meanNanos", "double", "Mean latency", true, false, false));
+                attributes.add(longAttribute(name + ".p50Nanos", "Median latency"));
+                attributes.add(longAttribute(name + ".p90Nanos", "90th percentile latency"));
+                attributes.add(longAttribute(name + ".p99Nanos", "99th percentile latency"));
+                attributes.add(longAttribute(name + ".p999Nanos", "99.9th percentile latency"));
+                attributes.add(longAttribute(name + ".maxNanos", "Highest latency"));
+            }
+            MBeanOperationInfo report = new MBeanOperationInfo("report", "Text dump of every figure",
+                    new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(getClass().getName(), "Car rental store metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {report}, null);
+        }
+
+        private static MBeanAttributeInfo longAttribute(String name, String description) {
+            return new MBeanAttributeInfo(name, "long", description, true, false, false);
+        }
+    }
+
+    /**
+     * Headless HTTP front end over one shared carRe, built on the JDK's own HttpServer.
+     * Each request runs on its own virtual thread when the runtime provides them, and on
+     * a cached pool otherwise. Responses are JSON.
+     *
+     *   GET  /cars/available?offset=0&limit=100
+     *   GET  /customers?offset=0&limit=100
+     *   GET  /rentals/active?offset=0&limit=100
+     *   POST /rentals?customer=C001&car=ABC123&days=3
+     *   POST /returns?rental=R1
+     *   GET  /analytics?from=2024-01-01&to=2024-01-31
+     */
+    static class BookingServer {
+        private static final int DEFAULT_LIMIT = 100;
+
+        private final carRe system;
+        private final RentalAnalytics analytics;
+        private final FleetSearch fleetSearch;
+        private final HttpServer server;
+        private final ExecutorService executor;
+
+        BookingServer(carRe system, int port) throws IOException {
+            // Small JSON responses otherwise sit behind Nagle's algorithm waiting for delayed ACKs
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            this.system = system;
+            this.analytics = new RentalAnalytics(system);
+            this.fleetSearch = new FleetSearch(system);
+            // Lists are paged from snapshots; versioning is turned on here rather than by the first request
+            system.snapshot();
+            this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+            this.executor = requestExecutor();
+            server.setExecutor(executor);
+            server.createContext("/cars/available", exchange -> handle(exchange, "GET", this::listAvailableCars));
+            server.createContext("/cars/search", exchange -> handle(exchange, "GET", this::searchCars));
+            server.createContext("/customers", exchange -> handle(exchange, "GET", this::listCustomers));
+            server.createContext("/rentals/active", exchange -> handle(exchange, "GET", this::listActiveRentals));
+            server.createContext("/rentals", exchange -> handle(exchange, "POST", this::rent));
+            server.createContext("/returns", exchange -> handle(exchange, "POST", this::giveBack));
+            server.createContext("/analytics", exchange -> handle(exchange, "GET", this::report));
+        }
+
+        void start() {
+            server.start();
+            // History from before startup is summed in the background; live figures count meanwhile
+            executor.execute(analytics::rebuild);
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdown();
+            analytics.close();
+            fleetSearch.close();
+        }
+
+        int getPort() { return server.getAddress().getPort(); }
+
+        // Virtual threads are looked up reflectively so the class still runs on older JDKs
+        private static ExecutorService requestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool();
+            }
+        }
+
+        private interface Handler {
+            void handle(Map<String, String> params, StringBuilder json) throws HttpError;
+        }
+
+        private static class HttpError extends Exception {
+            private final int status;
+
+            HttpError(int status, String message) {
+                super(message);
+                this.status = status;
+            }
+        }
+
+        private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+            StoreMetrics metrics = system.getMetrics();
+            long started = metrics == null ? 0 : System.nanoTime();
+            int status = 200;
+            StringBuilder json = new StringBuilder(256);
+            try {
+                if (!method.equals(exchange.getRequestMethod())) {
+                    throw new HttpError(405, "Use " + method);
+                }
+                handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()), json);
+            } catch (HttpError e) {
+                status = e.status;
+                json.setLength(0);
+                json.append("{\"error\":");
+                appendString(json, e.getMessage());
+                json.append('}');
+            } catch (RuntimeException e) {
+                status = 500;
+                json.setLength(0);
+                json.append("{\"error\":");
+                appendString(json, String.valueOf(e.getMessage()));
+                json.append('}');
+            }
+            byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            if (metrics != null) {
+                metrics.operation("http " + method + " " + exchange.getHttpContext().getPath()).record(started, status < 400);
+            }
+        }
+
+        private void listAvailableCars(Map<String, String> params, StringBuilder json) throws HttpError {
+            String name = params.get("branch");
+            if (name == null) {
+                appendPage(json, system.snapshot().getAvailableCars(), params, this::appendCar);
+                return;
+            }
+            Branch branch = system.getBranch(name);
+            if (branch == null) throw new HttpError(404, "Unknown branch " + name);
+            appendPage(json, branch.getAvailableCars(), params, this::appendCar);
+        }
+
+        // e.g. /cars/search?type=SUV&available=true&sort=rate&maxRate=120&limit=20
+        private void searchCars(Map<String, String> params, StringBuilder json) throws HttpError {
+            FleetSearch.Query query = new FleetSearch.Query()
+                    .type(params.get("type"))
+                    .make(params.get("make"))
+                    .model(params.get("model"))
+                    .branch(params.get("branch"));
+            if (Boolean.parseBoolean(params.get("available"))) query.availableOnly();
+            String sort = params.getOrDefault("sort", "fleet");
+            switch (sort) {
+                case "fleet": query.sortBy(FleetSearch.Sort.FLEET); break;
+                case "rate": query.sortBy(FleetSearch.Sort.RATE); break;
+                case "-rate": query.sortBy(FleetSearch.Sort.RATE_DESCENDING); break;
+                default: throw new HttpError(400, "sort must be fleet, rate or -rate");
+            }
+            double minRate = doubleParam(params, "minRate", 0);
+            double maxRate = doubleParam(params, "maxRate", Long.MAX_VALUE / 100.0);
+            if (minRate < 0 || maxRate < minRate) throw new HttpError(400, "Rates must not be negative, minRate at most maxRate");
+            if (params.containsKey("minRate") || params.containsKey("maxRate")) query.rateBetween(minRate, maxRate);
+            int offset = intParam(params, "offset", 0);
+            int limit = intParam(params, "limit", DEFAULT_LIMIT);
+            if (offset < 0 || limit < 0) throw new HttpError(400, "offset and limit must not be negative");
+            FleetSearch.Page page = fleetSearch.search(query, offset, limit);
+            json.append("{\"total\":").append(page.getTotal()).append(",\"cars\":[");
+            for (Car car : page.getCars()) {
+                if (json.charAt(json.length() - 1) != '[') json.append(',');
+                appendCar(json, car);
+            }
+            json.append("]}");
+        }
+
+        private void listCustomers(Map<String, String> params, StringBuilder json) throws HttpError {
+            appendPage(json, system.snapshot().getCustomers(), params, this::appendCustomer);
+        }
+
+        private void listActiveRentals(Map<String, String> params, StringBuilder json) throws HttpError {
+            appendPage(json, system.snapshot().getActiveRentals(), params, this::appendRental);
+        }
+
+        private void rent(Map<String, String> params, StringBuilder json) throws HttpError {
+            Customer customer = system.getCustomer(required(params, "customer"));
+            if (customer == null) throw new HttpError(404, "Unknown customer " + params.get("customer"));
+            Car car = system.getCar(required(params, "car"));
+            if (car == null) throw new HttpError(404, "Unknown car " + params.get("car"));
+            int days = intParam(params, "days", 1);
+            if (days < 1) throw new HttpError(400, "days must be at least 1");
+            Rental rental = system.rentCar(customer, car, days);
+            if (rental == null) throw new HttpError(409, "Car " + car.getLicensePlate() + " is not available");
+            appendRental(json, rental);
+        }
+
+        private void giveBack(Map<String, String> params, StringBuilder json) throws HttpError {
+            String rentalId = required(params, "rental");
+            if (!system.returnCar(rentalId)) throw new HttpError(404, "No active rental " + rentalId);
+            json.append("{\"returned\":");
+            appendString(json, rentalId);
+            json.append('}');
+        }
+
+        private void report(Map<String, String> params, StringBuilder json) throws HttpError {
+            LocalDate to = dateParam(params, "to", LocalDate.now());
+            LocalDate from = dateParam(params, "from", to.minusDays(29));
+            if (from.isAfter(to) || ChronoUnit.DAYS.between(from, to) > 3660) {
+                throw new HttpError(400, "from must not be after to, and at most ten years before it");
+            }
+            json.append("{\"rentals\":").append(analytics.getRentalCount());
+            json.append(",\"revenue\":").append(analytics.getRevenueCents() / 100.0);
+            json.append(",\"averageDays\":").append(analytics.getAverageRentalDays());
+            json.append(",\"revenueByType\":");
+            appendMap(json, analytics.getRevenueCentsByType(), cents -> cents / 100.0);
+            json.append(",\"revenueByMake\":");
+            appendMap(json, analytics.getRevenueCentsByMake(), cents -> cents / 100.0);
+            json.append(",\"utilizationByType\":");
+            appendMap(json, analytics.getUtilizationByType(), share -> share);
+            json.append(",\"dailyRevenue\":");
+            appendMap(json, analytics.getDailyRevenueCents(from, to), cents -> cents / 100.0);
+            json.append('}');
+        }
+
+        private static <K, V> void appendMap(StringBuilder json, Map<K, V> values, Function<V, Double> number) {
+            json.append('{');
+            for (Map.Entry<K, V> entry : values.entrySet()) {
+                if (json.charAt(json.length() - 1) != '{') json.append(',');
+                appendString(json, entry.getKey().toString());
+                json.append(':').append(number.apply(entry.getValue()));
+            }
+            json.append('}');
+        }
+
+        private <T> void appendPage(StringBuilder json, Collection<T> items, Map<String, String> params,
+                                    java.util.function.BiConsumer<StringBuilder, T> writer) throws HttpError {
+            int offset = intParam(params, "offset", 0);
+            int limit = intParam(params, "limit", DEFAULT_LIMIT);
+            if (offset < 0 || limit < 0) throw new HttpError(400, "offset and limit must not be negative");
+            json.append('[');
+            int index = 0;
+            int written = 0;
+            for (T item : items) {
+                if (written == limit) break;
+                if (index++ < offset) continue;
+                if (written++ > 0) json.append(',');
+                writer.accept(json, item);
+            }
+            json.append(']');
+        }
+
+        private void appendCar(StringBuilder json, Car car) {
+            json.append("{\"plate\":");
+            appendString(json, car.getLicensePlate());
+            json.append(",\"make\":");
+            appendString(json, car.getMake());
+            json.append(",\"model\":");
+            appendString(json, car.getModel());
+            json.append(",\"type\":");
+            appendString(json, car.getType());
+            json.append(",\"branch\":");
+            appendString(json, car.getBranch());
+            json.append(",\"dailyRate\":").append(car.getDailyRate()).append('}');
+        }
+
+        private void appendCustomer(StringBuilder json, Customer customer) {
+            json.append("{\"id\":");
+            appendString(json, customer.getId());
+            json.append(",\"name\":");
+            appendString(json, customer.getName());
+            json.append(",\"license\":");
+            appendString(json, customer.getLicenseNumber());
+            json.append(",\"phone\":");
+            appendString(json, customer.getPhone());
+            json.append('}');
+        }
+
+        private void appendRental(StringBuilder json, Rental rental) {
+            json.append("{\"id\":");
+            appendString(json, rental.getRentalId());
+            json.append(",\"car\":");
+            appendString(json, rental.getCar().getLicensePlate());
+            json.append(",\"customer\":");
+            appendString(json, rental.getCustomer().getId());
+            json.append(",\"start\":\"").append(rental.getStartDate()).append('"');
+            json.append(",\"end\":\"").append(rental.getEndDate()).append('"');
+            json.append(",\"totalCost\":").append(rental.getTotalCost()).append('}');
+        }
+
+        private static void appendString(StringBuilder json, String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+
+        private static String required(Map<String, String> params, String name) throws HttpError {
+            String value = params.get(name);
+            if (value == null || value.isEmpty()) throw new HttpError(400, "Missing parameter " + name);
+            return value;
+        }
+
+        private static int intParam(Map<String, String> params, String name, int defaultValue) throws HttpError {
+            String value = params.get(name);
+            if (value == null) return defaultValue;
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "Parameter " + name + " must be a number");
+            }
+        }
+
+        private static double doubleParam(Map<String, String> params, String name, double defaultValue)
+                throws HttpError {
+            String value = params.get(name);
+            if (value == null) return defaultValue;
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "Parameter " + name + " must be a number");
+            }
+        }
+
+        private static LocalDate dateParam(Map<String, String> params, String name, LocalDate defaultValue)
+                throws HttpError {
+            String value = params.get(name);
+            if (value == null) return defaultValue;
+            try {
+                return LocalDate.parse(value);
+            } catch (java.time.format.DateTimeParseException e) {
+                throw new HttpError(400, "Parameter " + name + " must be a date (yyyy-MM-dd)");
+            }
+        }
+
+        private static Map<String, String> parseQuery(String query) {
+            Map<String, String> params = new HashMap<>();
+            if (query == null) return params;
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq <= 0) continue;
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+            return params;
+        }
+    }
+
+    /**
+     * Applies ChangeFeed batches on the EDT. The subscription thread waits for each batch to
+     * be applied before taking the next, so a busy EDT slows only this subscriber: the events
+     * pile up in the feed's ring, arrive as larger batches, and if the ring laps it the
+     * window re-reads the store instead of replaying a backlog.
+     */
+    static class EdtSubscriber implements ChangeFeed.Subscriber {
+        static final int BATCH = 256;
+
+        private final Consumer<StoreEvent> onEvent;
+        private final Runnable resync;
+
+        EdtSubscriber(Consumer<StoreEvent> onEvent, Runnable resync) {
+            this.onEvent = onEvent;
+            this.resync = resync;
+        }
+
+        @Override
+        public void onEvents(List<StoreEvent> batch) {
+            onEdt(() -> {
+                for (StoreEvent event : batch) onEvent.accept(event);
+            });
+        }
+
+        @Override
+        public void onOverrun(long missed) { onEdt(resync); }
+
+        private static void onEdt(Runnable task) {
+            try {
+                SwingUtilities.invokeAndWait(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * List and combo box model over part of a carRe store, kept in ordinal order. Instead of
+     * being rebuilt, it is told which item may have changed and re-tests just that item,
+     * firing a single insert or remove event. Notifications can come from any thread; they
+     * are replayed on the EDT against the item's current state, so late or repeated ones are harmless.
+     */
+    static class StoreListModel<T> extends AbstractListModel<T> implements ComboBoxModel<T> {
+        private final ArrayList<T> rows = new ArrayList<>();
+        private final ToLongFunction<T> ordinal;
+        private final Predicate<T> member;
+        private Object selected;
+
+        StoreListModel(ToLongFunction<T> ordinal, Predicate<T> member) {
+            this.ordinal = ordinal;
+            this.member = member;
+        }
+
+        @Override
+        public int getSize() { return rows.size(); }
+
+        @Override
+        public T getElementAt(int index) { return rows.get(index); }
+
+        @Override
+        public Object getSelectedItem() { return selected; }
+
+        @Override
+        public void setSelectedItem(Object item) {
+            if (Objects.equals(selected, item)) return;
+            selected = item;
+            fireContentsChanged(this, -1, -1);
+        }
+
+        /** Empties the list ahead of a fresh load; call on the EDT. The selection is left as it is. */
+        void clear() {
+            int size = rows.size();
+            if (size == 0) return;
+            rows.clear();
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+
+        /** Safe from any thread. */
+        void itemChanged(T item) {
+            if (SwingUtilities.isEventDispatchThread()) {
+                refresh(item);
+            } else {
+                SwingUtilities.invokeLater(() -> refresh(item));
+            }
+        }
+
+        /**
+         * Adds a chunk read from the store in ordinal order; call on the EDT. Items that
+         * stopped being members since they were read are skipped.
+         */
+        void append(List<T> chunk) {
+            int first = rows.size();
+            for (T item : chunk) {
+                if (!member.test(item)) continue;
+                if (rows.isEmpty() || ordinal.applyAsLong(rows.get(rows.size() - 1)) < ordinal.applyAsLong(item)) {
+                    rows.add(item);
+                } else {
+                    // A change notification overtook the loader: announce the rows so far, then slot this one in
+                    if (rows.size() > first) fireIntervalAdded(this, first, rows.size() - 1);
+                    refresh(item);
+                    first = rows.size();
+                }
+            }
+            if (rows.size() > first) fireIntervalAdded(this, first, rows.size() - 1);
+            if (selected == null && !rows.isEmpty()) setSelectedItem(rows.get(0));
+        }
+
+        private void refresh(T item) {
+            int index = indexOf(item);
+            boolean listed = index >= 0 && rows.get(index) == item;
+            if (member.test(item)) {
+                if (listed) return;
+                if (index < 0) index = -index - 1;
+                rows.add(index, item);
+                fireIntervalAdded(this, index, index);
+            } else if (listed) {
+                rows.remove(index);
+                fireIntervalRemoved(this, index, index);
+                if (selected == item) setSelectedItem(null);
+            }
+        }
+
+        // Binary search by ordinal; rows are always sorted because inserts go to their slot
+        private int indexOf(T item) {
+            long key = ordinal.applyAsLong(item);
+            int low = 0;
+            int high = rows.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = Long.compare(ordinal.applyAsLong(rows.get(mid)), key);
+                if (cmp < 0) low = mid + 1;
+                else if (cmp > 0) high = mid - 1;
+                else return mid;
+            }
+            return -(low + 1);
+        }
+    }
 
-        public Car(String licensePlate, String make, String model, String type, double dailyRate) {
-            this.licensePlate = licensePlate;
-            this.make = make;
+    /**
+     * Streams a live store view into a StoreListModel off the EDT, a chunk at a time, and
+     * drives a progress bar while it runs. Cancelling stops it at the next chunk.
+     */
+    static class StoreLoader<T> extends SwingWorker<Integer, List<T>> {
+        private static final int CHUNK_SIZE = 1_000;
+
+        private final Collection<T> source;
+        private final StoreListModel<T> model;
+        private final JProgressBar progressBar;
+
+        StoreLoader(Collection<T> source, StoreListModel<T> model, JProgressBar progressBar) {
+            this.source = source;
             this.model = model;
-            this.type = type;
-            this.dailyRate = dailyRate;
-            this.available = true;
+            this.progressBar = progressBar;
+            progressBar.setIndeterminate(true);
+            progressBar.setStringPainted(true);
+            progressBar.setString("Loading...");
+            addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setValue((Integer) e.getNewValue());
+                    progressBar.setString(null);
+                }
+            });
         }
 
-        public String getLicensePlate() { return licensePlate; }
-        public String getMake() { return make; }
-        public String getModel() { return model; }
-        public String getType() { return type; }
-        public double getDailyRate() { return dailyRate; }
-        public boolean isAvailable() { return available; }
-        public void setAvailable(boolean available) { this.available = available; }
-        
         @Override
-        public String toString() {
-            return String.format("%s %s (%s) - $%.2f/day", make, model, licensePlate, dailyRate);
+        protected Integer doInBackground() {
+            // Counting a skip-list view walks it, so that too stays off the EDT
+            int total = Math.max(1, source.size());
+            int loaded = 0;
+            List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (T item : source) {
+                if (isCancelled()) return loaded;
+                chunk.add(item);
+                if (chunk.size() == CHUNK_SIZE) {
+                    publish(chunk);
+                    loaded += chunk.size();
+                    setProgress(Math.min(100, (int) (loaded * 100L / total)));
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            publish(chunk);
+            return loaded + chunk.size();
+        }
+
+        @Override
+        protected void process(List<List<T>> chunks) {
+            if (isCancelled()) return;
+            for (List<T> chunk : chunks) model.append(chunk);
+        }
+
+        @Override
+        protected void done() {
+            progressBar.setVisible(false);
         }
     }
 
-    static class Customer {
-        private String id;
-        private String name;
-        private String licenseNumber;
-        private String phone;
+    /**
+     * Runs one store call off the EDT and hands its result back on the EDT. Failures are
+     * reported in a dialog over the owner rather than thrown into the event queue. Work
+     * that has to happen whatever the outcome, such as re-enabling the button that started
+     * the call, goes in always.
+     */
+    static class StoreTask<V> extends SwingWorker<V, Void> {
+        private final Component owner;
+        private final Callable<V> call;
+        private final Consumer<V> onResult;
+        private Runnable always = () -> {};
 
-        public Customer(String id, String name, String licenseNumber, String phone) {
-            this.id = id;
-            this.name = name;
-            this.licenseNumber = licenseNumber;
-            this.phone = phone;
+        StoreTask(Component owner, Callable<V> call, Consumer<V> onResult) {
+            this.owner = owner;
+            this.call = call;
+            this.onResult = onResult;
+        }
+
+        /** Runs on the EDT once the call has finished, failed or been cancelled, before the result is handled. */
+        StoreTask<V> always(Runnable always) {
+            this.always = always;
+            return this;
         }
 
-        public String getId() { return id; }
-        public String getName() { return name; }
-        public String getLicenseNumber() { return licenseNumber; }
-        public String getPhone() { return phone; }
-        
         @Override
-        public String toString() {
-            return name + " (" + licenseNumber + ")";
+        protected V doInBackground() throws Exception { return call.call(); }
+
+        @Override
+        protected void done() {
+            always.run();
+            if (isCancelled()) return;
+            try {
+                onResult.accept(get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(owner, "Operation failed: " + e.getCause().getMessage(),
+                                             "Error", JOptionPane.ERROR_MESSAGE);
+            }
         }
     }
 
-    static class Rental {
-        private String rentalId;
-        private Car car;
+    /**
+     * Search field over a short list of matches. Each keystroke asks the search function
+     * for the top matches afresh, so only a handful of items ever reach the combo box.
+     */
+    static class TypeAheadPicker<T> extends JPanel {
+        private final JTextField searchField = new JTextField();
+        private final JComboBox<T> matches = new JComboBox<>();
+        private final Function<String, List<T>> search;
+        private final AtomicBoolean refreshQueued = new AtomicBoolean();
+
+        TypeAheadPicker(Function<String, List<T>> search, T prototype) {
+            super(new BorderLayout(0, 2));
+            this.search = search;
+            setOpaque(false);
+            searchField.setToolTipText("Type to search");
+            matches.setPrototypeDisplayValue(prototype);
+            add(searchField, BorderLayout.NORTH);
+            add(matches, BorderLayout.CENTER);
+            searchField.getDocument().addDocumentListener(new DocumentListener() {
+                @Override public void insertUpdate(DocumentEvent e) { refresh(true); }
+                @Override public void removeUpdate(DocumentEvent e) { refresh(true); }
+                @Override public void changedUpdate(DocumentEvent e) { refresh(true); }
+            });
+            refresh(false);
+        }
+
+        T getSelected() {
+            int index = matches.getSelectedIndex();
+            return index < 0 ? null : matches.getItemAt(index);
+        }
+
+        /** Runs on the EDT whenever the selection may have changed, including after a new search. */
+        void addSelectionListener(Runnable listener) {
+            matches.addActionListener(e -> listener.run());
+            matches.addPropertyChangeListener("model", e -> listener.run());
+        }
+
+        /** Re-runs the current search after a store change; safe from any thread, bursts coalesce. */
+        void refreshLater() {
+            if (refreshQueued.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    refreshQueued.set(false);
+                    refresh(false);
+                });
+            }
+        }
+
+        private void refresh(boolean showPopup) {
+            Object selected = matches.getSelectedItem();
+            DefaultComboBoxModel<T> model = new DefaultComboBoxModel<>();
+            model.addAll(search.apply(searchField.getText()));
+            if (model.getSize() > 0) {
+                model.setSelectedItem(selected != null && model.getIndexOf(selected) >= 0 ? selected : model.getElementAt(0));
+            }
+            matches.setModel(model);
+            if (showPopup && matches.isShowing() && model.getSize() > 1) matches.showPopup();
+        }
+    }
+
+    /**
+     * One customer's rentals, newest first, fetched a page at a time from the history index
+     * off the EDT so a long-standing customer opens as quickly as a new one.
+     */
+    static class CustomerHistoryPanel extends JPanel {
+        private static final int PAGE_SIZE = 50;
+
+        private final carRe system;
+        private final DefaultListModel<Rental> model = new DefaultListModel<>();
+        private final JLabel summaryLabel = new JLabel(" ");
+        private final JButton moreButton = new JButton("Load more");
+        private final AtomicBoolean reloadQueued = new AtomicBoolean();
         private Customer customer;
-        private LocalDate startDate;
-        private LocalDate endDate;
-        private double totalCost;
-        private boolean active;
+        private StoreTask<List<Rental>> fetch;
 
-        public Rental(String rentalId, Car car, Customer customer, int rentalDays) {
-            this.rentalId = rentalId;
-            this.car = car;
+        CustomerHistoryPanel(carRe system) {
+            super(new BorderLayout(0, 5));
+            this.system = system;
+            setOpaque(false);
+            setBorder(BorderFactory.createTitledBorder("Rental History"));
+            JList<Rental> list = new JList<>(model);
+            list.setFont(new Font("Monospaced", Font.PLAIN, 12));
+            list.setCellRenderer(new DefaultListCellRenderer() {
+                @Override
+                public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                    super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                    if (value instanceof Rental) {
+                        Rental rental = (Rental) value;
+                        long cents = rental.getTotalCostCents();
+                        setText(String.format("%-9s %s to %s  %-10s $%d.%02d%s", rental.getRentalId(),
+                                rental.getStartDate(), rental.getEndDate(), rental.getCar().getLicensePlate(),
+                                cents / 100, cents % 100, rental.isActive() ? "  ACTIVE" : ""));
+                    }
+                    return this;
+                }
+            });
+            add(summaryLabel, BorderLayout.NORTH);
+            add(new JScrollPane(list), BorderLayout.CENTER);
+            moreButton.setEnabled(false);
+            moreButton.addActionListener(e -> fetch(model.getSize()));
+            add(moreButton, BorderLayout.SOUTH);
+        }
+
+        /** Shows the customer's history from the newest rental; null clears the panel. */
+        void show(Customer customer) {
             this.customer = customer;
-            this.startDate = LocalDate.now();
-            this.endDate = startDate.plusDays(rentalDays);
-            this.totalCost = car.getDailyRate() * rentalDays;
-            this.active = true;
+            model.clear();
+            if (customer == null) {
+                if (fetch != null) fetch.cancel(true);
+                summaryLabel.setText(" ");
+                moreButton.setEnabled(false);
+                return;
+            }
+            fetch(0);
         }
 
-        public void completeRental() {
-            this.active = false;
-            car.setAvailable(true);
+        Customer getCustomer() { return customer; }
+
+        /** The shown customer's rentals changed; reloads the first page once per burst. Safe from any thread. */
+        void reloadLater() {
+            if (reloadQueued.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    reloadQueued.set(false);
+                    show(customer);
+                });
+            }
         }
 
-        public String getRentalId() { return rentalId; }
-        public Car getCar() { return car; }
-        public Customer getCustomer() { return customer; }
-        public LocalDate getStartDate() { return startDate; }
-        public LocalDate getEndDate() { return endDate; }
-        public double getTotalCost() { return totalCost; }
-        public boolean isActive() { return active; }
-        
-        @Override
-        public String toString() {
-            return rentalId + ": " + car.getMake() + " rented by " + customer.getName();
+        void cancel() {
+            if (fetch != null) fetch.cancel(true);
+        }
+
+        private void fetch(int offset) {
+            if (fetch != null) fetch.cancel(true);
+            Customer shown = customer;
+            moreButton.setEnabled(false);
+            fetch = new StoreTask<>(this, () -> system.getRentalHistory(shown, offset, PAGE_SIZE), page -> {
+                if (shown != customer) return;
+                if (offset == 0) model.clear();
+                model.addAll(page);
+                int total = system.getRentalCount(shown);
+                summaryLabel.setText(shown.getName() + ": " + total + " rental(s), "
+                        + system.getActiveRentals(shown).size() + " active");
+                moreButton.setEnabled(model.getSize() < total);
+            });
+            fetch.execute();
         }
     }
 
-    static class carRe {
-        private List<Car> cars = new ArrayList<>();
-        private List<Customer> customers = new ArrayList<>();
-        private List<Rental> rentals = new ArrayList<>();
-        private int rentalCounter = 1;
+    /**
+     * Table model over the whole fleet that never builds a row object per car. It holds only
+     * the row order as car ordinals (and the inverse, for change events); cars are fetched from
+     * carRe a page at a time as JTable asks for visible cells, and the formatted cells of the
+     * most recently used pages are cached. Sorting ranks each car by a precomputed primitive
+     * key off the EDT, so no cell is formatted or compared as a string while sorting.
+     */
+    static class FleetBrowserModel extends AbstractTableModel {
+        static final String[] COLUMNS = {"Plate", "Make", "Model", "Type", "Daily Rate", "Status"};
+        private static final int RATE = 4;
+        private static final int STATUS = 5;
+        private static final int PAGE_SHIFT = 7;
+        private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+        private static final int MAX_PAGES = 32;
+        private static final Comparator<String> TEXT_ORDER =
+                String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
 
-        public void initializeSampleData() {
-            // Add sample cars
-            addCar(new Car("ABC123", "Toyota", "Camry", "Sedan", 45.99));
-            addCar(new Car("XYZ789", "Ford", "Explorer", "SUV", 65.50));
-            addCar(new Car("LMN456", "BMW", "740i", "Luxury", 120.00));
-            addCar(new Car("JKL012", "Honda", "Civic", "Compact", 35.75));
-            addCar(new Car("QWE345", "Tesla", "Model 3", "Electric", 89.99));
-            
-            // Add sample customers
-            addCustomer(new Customer("C001", "John Smith", "DL12345", "555-1234"));
-            addCustomer(new Customer("C002", "Emma Johnson", "DL67890", "555-5678"));
-            addCustomer(new Customer("C003", "Michael Brown", "DL24680", "555-9012"));
+        private final carRe system;
+        private final JProgressBar progressBar;
+        private int[] order = new int[0];
+        private int[] rowOf = new int[0];
+        private int sortColumn = -1;
+        private boolean ascending = true;
+        private SwingWorker<int[], Void> reload;
+        private boolean reloadAgain;
+        private final AtomicBoolean reloadQueued = new AtomicBoolean();
+        private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(MAX_PAGES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) { return size() > MAX_PAGES; }
+        };
+
+        private static final class Page {
+            final Car[] cars = new Car[1 << PAGE_SHIFT];
+            final String[][] cells = new String[1 << PAGE_SHIFT][];
         }
 
-        public void addCar(Car car) { cars.add(car); }
-        
-        public List<Car> getAvailableCars() { 
-            List<Car> available = new ArrayList<>();
-            for (Car car : cars) {
-                if (car.isAvailable()) {
-                    available.add(car);
-                }
+        FleetBrowserModel(carRe system, JProgressBar progressBar) {
+            this.system = system;
+            this.progressBar = progressBar;
+            reload();
+        }
+
+        @Override
+        public int getRowCount() { return order.length; }
+
+        @Override
+        public int getColumnCount() { return COLUMNS.length; }
+
+        @Override
+        public String getColumnName(int column) { return COLUMNS[column]; }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Page page = page(row >>> PAGE_SHIFT);
+            int slot = row & PAGE_MASK;
+            if (column != STATUS) return page.cells[slot][column];
+            // Status changes all the time, so it is read live rather than cached
+            Car car = page.cars[slot];
+            if (car == null || system.getCarByOrdinal(car.getOrdinal()) != car) return "Removed";
+            return car.isAvailable() ? "Available" : "Rented";
+        }
+
+        Car getCarAt(int row) { return page(row >>> PAGE_SHIFT).cars[row & PAGE_MASK]; }
+
+        int getSortColumn() { return sortColumn; }
+
+        boolean isAscending() { return ascending; }
+
+        /** Sorts by the column, or flips the direction if it is already the sort column. */
+        void sortBy(int column) {
+            ascending = column != sortColumn || !ascending;
+            sortColumn = column;
+            reload();
+        }
+
+        /** A car's status may have changed; safe from any thread. */
+        void carChanged(Car car) {
+            SwingUtilities.invokeLater(() -> {
+                int ordinal = car.getOrdinal();
+                int row = ordinal >= 0 && ordinal < rowOf.length ? rowOf[ordinal] : -1;
+                if (row >= 0) fireTableCellUpdated(row, STATUS);
+            });
+        }
+
+        /** Cars were added or removed; re-reads the fleet once per burst. Safe from any thread. */
+        void fleetChanged() {
+            if (reloadQueued.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    reloadQueued.set(false);
+                    reload();
+                });
             }
-            return available;
         }
-        
-        public void addCustomer(Customer customer) { customers.add(customer); }
-        public List<Customer> getCustomers() { return customers; }
-        
-        public Rental rentCar(Customer customer, Car car, int days) {
-            if (!car.isAvailable()) return null;
-            
-            String rentalId = "R" + rentalCounter++;
-            Rental rental = new Rental(rentalId, car, customer, days);
-            car.setAvailable(false);
-            rentals.add(rental);
-            return rental;
+
+        void cancel() {
+            if (reload != null) reload.cancel(true);
         }
-        
-        public boolean returnCar(String rentalId) {
-            for (Rental rental : rentals) {
-                if (rental.getRentalId().equals(rentalId) && rental.isActive()) {
-                    rental.completeRental();
-                    return true;
+
+        private void reload() {
+            if (reload != null && !reload.isDone()) {
+                reloadAgain = true;
+                return;
+            }
+            int column = sortColumn;
+            boolean up = ascending;
+            progressBar.setIndeterminate(true);
+            progressBar.setVisible(true);
+            reload = new SwingWorker<int[], Void>() {
+                @Override
+                protected int[] doInBackground() { return sortedOrdinals(system.getCars(), column, up); }
+
+                @Override
+                protected void done() {
+                    if (isCancelled()) return;
+                    try {
+                        install(get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        reportFailure("Fleet table reload failed", e.getCause());
+                    }
+                    if (reloadAgain) {
+                        reloadAgain = false;
+                        reload();
+                    } else {
+                        progressBar.setVisible(false);
+                    }
                 }
+            };
+            reload.execute();
+        }
+
+        private void install(int[] ordinals) {
+            int maxOrdinal = -1;
+            for (int ordinal : ordinals) maxOrdinal = Math.max(maxOrdinal, ordinal);
+            int[] inverse = new int[maxOrdinal + 1];
+            Arrays.fill(inverse, -1);
+            for (int row = 0; row < ordinals.length; row++) inverse[ordinals[row]] = row;
+            order = ordinals;
+            rowOf = inverse;
+            pages.clear();
+            fireTableDataChanged();
+        }
+
+        private Page page(int index) {
+            Page page = pages.get(index);
+            if (page != null) return page;
+            page = new Page();
+            int first = index << PAGE_SHIFT;
+            for (int slot = 0, row = first; slot < page.cars.length && row < order.length; slot++, row++) {
+                Car car = system.getCarByOrdinal(order[row]);
+                page.cars[slot] = car;
+                page.cells[slot] = car == null ? new String[COLUMNS.length] : new String[] {
+                        car.getLicensePlate(), car.getMake(), car.getModel(), car.getType(),
+                        String.format("$%.2f", car.getDailyRate()), null};
             }
-            return false;
+            pages.put(index, page);
+            return page;
         }
-        
-        public List<Rental> getActiveRentals() {
-            List<Rental> active = new ArrayList<>();
-            for (Rental rental : rentals) {
-                if (rental.isActive()) {
-                    active.add(rental);
+
+        /**
+         * The fleet's ordinals in display order. Each car gets a 64-bit key, its rank in the
+         * sort column above its ordinal, so one primitive sort orders the rows and ties keep
+         * fleet order. String columns are ranked by sorting their distinct values only,
+         * except plates, which are all distinct and so are sorted directly.
+         */
+        static int[] sortedOrdinals(Collection<Car> fleet, int column, boolean ascending) {
+            Car[] cars = fleet.toArray(new Car[0]);
+            if (column == 0) {
+                Arrays.sort(cars, Comparator.comparing(Car::getLicensePlate, TEXT_ORDER));
+                int[] ordinals = new int[cars.length];
+                for (int i = 0; i < cars.length; i++) {
+                    ordinals[ascending ? i : cars.length - 1 - i] = cars[i].getOrdinal();
                 }
+                return ordinals;
             }
-            return active;
+            long[] keys = new long[cars.length];
+            Map<String, Integer> ranks = column >= 0 && column < RATE ? rankValues(cars, column) : null;
+            for (int i = 0; i < cars.length; i++) {
+                Car car = cars[i];
+                long rank;
+                if (ranks != null) {
+                    rank = ranks.get(cellValue(car, column));
+                } else if (column == RATE) {
+                    rank = Math.round(car.getDailyRate() * 100);
+                } else if (column == STATUS) {
+                    rank = car.isAvailable() ? 0 : 1;
+                } else {
+                    rank = 0;
+                }
+                keys[i] = rank << 32 | car.getOrdinal();
+            }
+            Arrays.parallelSort(keys);
+            int[] ordinals = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                ordinals[ascending ? i : keys.length - 1 - i] = (int) keys[i];
+            }
+            return ordinals;
         }
+
+        private static Map<String, Integer> rankValues(Car[] cars, int column) {
+            Map<String, Integer> ranks = new HashMap<>();
+            for (Car car : cars) ranks.put(cellValue(car, column), 0);
+            List<String> distinct = new ArrayList<>(ranks.keySet());
+            distinct.sort(TEXT_ORDER);
+            for (int rank = 0; rank < distinct.size(); rank++) ranks.put(distinct.get(rank), rank);
+            return ranks;
+        }
+
+        private static String cellValue(Car car, int column) {
+            switch (column) {
+                case 0: return car.getLicensePlate();
+                case 1: return car.getMake();
+                case 2: return car.getModel();
+                default: return car.getType();
+            }
+        }
+    }
+
+    /** One bulk import into the store, as run by importFromFile. */
+    interface ImportAction {
+        ImportReport run(Path file) throws IOException;
+    }
+
+    // Shared by the management frames: pick a CSV or NDJSON file, import it off the EDT, show the report
+    static void importFromFile(JFrame owner, String what, JButton button, ImportAction action) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import " + what + " (CSV or NDJSON)");
+        if (chooser.showOpenDialog(owner) != JFileChooser.APPROVE_OPTION) return;
+        Path file = chooser.getSelectedFile().toPath();
+        button.setEnabled(false);
+        new StoreTask<>(owner, () -> action.run(file), report -> {
+            StringBuilder message = new StringBuilder("Imported " + what + ": " + report);
+            List<String> errors = report.getErrors();
+            for (int i = 0; i < Math.min(10, errors.size()); i++) message.append('\n').append(errors.get(i));
+            if (report.getRejected() > 10) message.append("\n...");
+            JOptionPane.showMessageDialog(owner, message.toString(), "Import Finished",
+                    report.getRejected() == 0 ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+        }).always(() -> button.setEnabled(true)).execute();
     }
 
     // GUI Classes
@@ -295,6 +6829,13 @@ public class CarRentalSystem extends JFrame {
             footerPanel.setBackground(new Color(44, 62, 80));
             footerPanel.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
             
+            JButton exportBtn = new JButton("Export Data...");
+            exportBtn.setBackground(new Color(243, 156, 18));
+            exportBtn.setForeground(Color.WHITE);
+            exportBtn.setFont(new Font("Arial", Font.BOLD, 12));
+            exportBtn.addActionListener(e -> exportData(exportBtn));
+            footerPanel.add(exportBtn);
+            
             JButton exitBtn = new JButton("Exit System");
             exitBtn.setBackground(new Color(231, 76, 60));
             exitBtn.setForeground(Color.WHITE);
@@ -346,13 +6887,43 @@ public class CarRentalSystem extends JFrame {
         private void showCustomerManagement(ActionEvent e) {
             new CustomerManagementFrame(system).setVisible(true);
         }
+
+        private void exportData(JButton button) {
+            String[] datasets = {"Rentals", "Cars", "Customers"};
+            int choice = JOptionPane.showOptionDialog(this, "What would you like to export?", "Export Data",
+                    JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, datasets, datasets[0]);
+            if (choice < 0) return;
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Export " + datasets[choice].toLowerCase(Locale.ROOT) + " (.csv, .ndjson or .bin)");
+            chooser.setSelectedFile(new File(datasets[choice].toLowerCase(Locale.ROOT) + ".csv"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            Path file = chooser.getSelectedFile().toPath();
+            DataExporter.Format format = DataExporter.Format.of(file);
+            DataExporter exporter = new DataExporter(system);
+            button.setEnabled(false);
+            new StoreTask<>(this, () -> {
+                switch (choice) {
+                    case 0: return exporter.exportRentals(file, format);
+                    case 1: return exporter.exportCars(file, format);
+                    default: return exporter.exportCustomers(file, format);
+                }
+            }, report -> JOptionPane.showMessageDialog(this,
+                    "Exported " + datasets[choice].toLowerCase(Locale.ROOT) + ": " + report,
+                    "Export Finished", JOptionPane.INFORMATION_MESSAGE))
+                    .always(() -> button.setEnabled(true)).execute();
+        }
     }
 
     static class RentalForm extends JFrame {
+        private static final int MATCHES = 20;
+
         private carRe system;
-        private JComboBox<Car> carCombo;
-        private JComboBox<Customer> customerCombo;
+        private TypeAheadPicker<Car> carPicker;
+        private TypeAheadPicker<Customer> customerPicker;
         private JSpinner daysSpinner;
+        private JLabel quoteLabel;
+        private JButton rentBtn;
+        private ChangeFeed.Subscription changes;
 
         public RentalForm(carRe system) {
             this.system = system;
@@ -361,7 +6932,7 @@ public class CarRentalSystem extends JFrame {
 
         private void setupUI() {
             setTitle("Rent a Car");
-            setSize(500, 350);
+            setSize(500, 470);
             setLocationRelativeTo(null);
             setLayout(new BorderLayout());
             
@@ -375,51 +6946,49 @@ public class CarRentalSystem extends JFrame {
             add(headerPanel, BorderLayout.NORTH);
             
             // Form panel
-            JPanel formPanel = new JPanel(new GridLayout(4, 2, 15, 15));
+            JPanel formPanel = new JPanel(new GridLayout(5, 2, 15, 15));
             formPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
             formPanel.setBackground(new Color(236, 240, 241));
             
+            // Pickers query the store's search indexes, so only the top matches are ever loaded
             formPanel.add(createFormLabel("Select Car:"));
-            List<Car> availableCars = system.getAvailableCars();
-            carCombo = new JComboBox<>(availableCars.toArray(new Car[0]));
-            carCombo.setRenderer(new DefaultListCellRenderer() {
-                @Override
-                public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
-                    super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                    if (value instanceof Car) {
-                        Car car = (Car) value;
-                        setText(car.toString());
-                    }
-                    return this;
-                }
-            });
-            formPanel.add(carCombo);
+            carPicker = new TypeAheadPicker<>(query -> system.searchCars(query, MATCHES, true),
+                    new Car("PROTOTYPE", "Make", "Model", "Type", 100.0));
+            formPanel.add(carPicker);
             
             formPanel.add(createFormLabel("Select Customer:"));
-            List<Customer> customers = system.getCustomers();
-            customerCombo = new JComboBox<>(customers.toArray(new Customer[0]));
-            customerCombo.setRenderer(new DefaultListCellRenderer() {
-                @Override
-                public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
-                    super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                    if (value instanceof Customer) {
-                        Customer customer = (Customer) value;
-                        setText(customer.toString());
-                    }
-                    return this;
+            customerPicker = new TypeAheadPicker<>(query -> system.searchCustomers(query, MATCHES),
+                    new Customer("PROTOTYPE", "Full Name", "License", "Phone"));
+            formPanel.add(customerPicker);
+
+            changes = system.getChangeFeed().subscribe("rental-form", EdtSubscriber.BATCH, new EdtSubscriber(event -> {
+                if (event.getType() == StoreEvent.Type.CUSTOMER_ADDED || event.getType() == StoreEvent.Type.CUSTOMER_REMOVED) {
+                    customerPicker.refreshLater();
+                } else if (event.getRental() == null) {
+                    carPicker.refreshLater();
                 }
-            });
-            formPanel.add(customerCombo);
+            }, () -> {
+                carPicker.refreshLater();
+                customerPicker.refreshLater();
+            }));
             
             formPanel.add(createFormLabel("Rental Days:"));
             daysSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 30, 1));
             formPanel.add(daysSpinner);
+
+            formPanel.add(createFormLabel("Price:"));
+            quoteLabel = new JLabel("-");
+            quoteLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+            formPanel.add(quoteLabel);
+            carPicker.addSelectionListener(this::updateQuote);
+            daysSpinner.addChangeListener(e -> updateQuote());
+            updateQuote();
             
             // Buttons panel
             JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 10));
             buttonPanel.setBackground(new Color(236, 240, 241));
             
-            JButton rentBtn = new JButton("Rent Car");
+            rentBtn = new JButton("Rent Car");
             rentBtn.setBackground(new Color(46, 204, 113));
             rentBtn.setForeground(Color.WHITE);
             rentBtn.setFont(new Font("Arial", Font.BOLD, 14));
@@ -440,6 +7009,12 @@ public class CarRentalSystem extends JFrame {
             
             add(formPanel, BorderLayout.CENTER);
         }
+
+        @Override
+        public void dispose() {
+            changes.close();
+            super.dispose();
+        }
         
         private JLabel createFormLabel(String text) {
             JLabel label = new JLabel(text);
@@ -447,9 +7022,21 @@ public class CarRentalSystem extends JFrame {
             return label;
         }
 
+        // A quote is a couple of table reads, cheap enough to take on the EDT
+        private void updateQuote() {
+            Car car = carPicker.getSelected();
+            if (car == null) {
+                quoteLabel.setText("-");
+                return;
+            }
+            LocalDate today = LocalDate.now();
+            long cents = system.quoteCents(car, today, today.plusDays((Integer) daysSpinner.getValue()));
+            quoteLabel.setText(String.format("$%d.%02d", cents / 100, cents % 100));
+        }
+
         private void rentCar(ActionEvent e) {
-            Car selectedCar = (Car) carCombo.getSelectedItem();
-            Customer selectedCustomer = (Customer) customerCombo.getSelectedItem();
+            Car selectedCar = carPicker.getSelected();
+            Customer selectedCustomer = customerPicker.getSelected();
             int days = (Integer) daysSpinner.getValue();
             
             if (selectedCar == null || selectedCustomer == null) {
@@ -458,7 +7045,13 @@ public class CarRentalSystem extends JFrame {
                 return;
             }
             
-            Rental rental = system.rentCar(selectedCustomer, selectedCar, days);
+            rentBtn.setEnabled(false);
+            new StoreTask<>(this, () -> system.rentCar(selectedCustomer, selectedCar, days),
+                    rental -> showRentalResult(rental, selectedCar, selectedCustomer, days))
+                    .always(() -> rentBtn.setEnabled(true)).execute();
+        }
+
+        private void showRentalResult(Rental rental, Car selectedCar, Customer selectedCustomer, int days) {
             if (rental != null) {
                 JOptionPane.showMessageDialog(this, 
                     "<html><div style='text-align: center;'><h2>Rental Confirmed!</h2>" +
@@ -477,8 +7070,29 @@ public class CarRentalSystem extends JFrame {
         }
     }
     static class ReturnForm extends JFrame {
+        private static final Color LATE_COLOR = new Color(192, 57, 43);
+
         private carRe system;
         private JComboBox<Rental> rentalCombo;
+        private JButton returnBtn;
+        private ChangeFeed.Subscription changes;
+        private StoreListModel<Rental> rentalModel;
+        private JProgressBar progressBar;
+        private StoreLoader<Rental> loader;
+        private JLabel lateLabel;
+        private final AtomicBoolean lateRepaintQueued = new AtomicBoolean();
+        // A tick changes the late days and fees shown; one repaint covers every rental it charged
+        private final OverdueScheduler.Listener lateChanges = new OverdueScheduler.Listener() {
+            @Override
+            public void lateFeeAccrued(Rental rental, long daysLate, long feeCents, long totalCents) {
+                if (!lateRepaintQueued.compareAndSet(false, true)) return;
+                SwingUtilities.invokeLater(() -> {
+                    lateRepaintQueued.set(false);
+                    rentalCombo.repaint();
+                    showLateStatus();
+                });
+            }
+        };
 
         public ReturnForm(carRe system) {
             this.system = system;
@@ -505,27 +7119,43 @@ public class CarRentalSystem extends JFrame {
             formPanel.setBorder(BorderFactory.createEmptyBorder(30, 20, 30, 20));
             formPanel.setBackground(new Color(236, 240, 241));
             
+            // Subscribed before loading starts so no change falls in between
+            rentalModel = new StoreListModel<>(Rental::getSequence, Rental::isActive);
+            changes = system.getChangeFeed().subscribe("return-form", EdtSubscriber.BATCH, new EdtSubscriber(event -> {
+                if (event.getRental() != null) rentalModel.itemChanged(event.getRental());
+            }, this::reloadRentals));
+
             formPanel.add(createFormLabel("Select Rental:"));
-            List<Rental> activeRentals = system.getActiveRentals();
-            rentalCombo = new JComboBox<>(activeRentals.toArray(new Rental[0]));
+            rentalCombo = new JComboBox<>(rentalModel);
             rentalCombo.setRenderer(new DefaultListCellRenderer() {
                 @Override
                 public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
                     super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
                     if (value instanceof Rental) {
                         Rental rental = (Rental) value;
-                        setText(rental.toString());
+                        long lateDays = lateDays(rental);
+                        setText(lateDays > 0 ? rental + " - OVERDUE " + lateDays + " day(s)" : rental.toString());
+                        if (lateDays > 0 && !isSelected) setForeground(LATE_COLOR);
                     }
                     return this;
                 }
             });
-            formPanel.add(rentalCombo);
+            JPanel rentalPanel = new JPanel(new BorderLayout());
+            rentalPanel.setOpaque(false);
+            rentalPanel.add(rentalCombo, BorderLayout.CENTER);
+            progressBar = new JProgressBar(0, 100);
+            rentalPanel.add(progressBar, BorderLayout.SOUTH);
+            formPanel.add(rentalPanel);
+            loader = new StoreLoader<>(system.snapshot().getActiveRentals(), rentalModel, progressBar);
+            loader.execute();
+            OverdueScheduler overdue = system.getOverdue();
+            if (overdue != null) overdue.addListener(lateChanges);
             
             // Buttons panel
             JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 10));
             buttonPanel.setBackground(new Color(236, 240, 241));
             
-            JButton returnBtn = new JButton("Return Car");
+            returnBtn = new JButton("Return Car");
             returnBtn.setBackground(new Color(46, 204, 113));
             returnBtn.setForeground(Color.WHITE);
             returnBtn.setFont(new Font("Arial", Font.BOLD, 14));
@@ -541,11 +7171,50 @@ public class CarRentalSystem extends JFrame {
             cancelBtn.addActionListener(e -> dispose());
             buttonPanel.add(cancelBtn);
             
-            formPanel.add(new JLabel()); // Empty cell for layout
+            lateLabel = new JLabel();
+            lateLabel.setForeground(LATE_COLOR);
+            lateLabel.setFont(new Font("Arial", Font.BOLD, 12));
+            rentalCombo.addActionListener(e -> showLateStatus());
+            formPanel.add(lateLabel);
             formPanel.add(buttonPanel);
             
             add(formPanel, BorderLayout.CENTER);
         }
+
+        @Override
+        public void dispose() {
+            loader.cancel(true);
+            changes.close();
+            OverdueScheduler overdue = system.getOverdue();
+            if (overdue != null) overdue.removeListener(lateChanges);
+            super.dispose();
+        }
+
+        // Without an overdue scheduler attached no rental is ever shown as late
+        private long lateDays(Rental rental) {
+            OverdueScheduler overdue = system.getOverdue();
+            return overdue == null ? 0 : overdue.getLateDays(rental);
+        }
+
+        private long lateFeeCents(Rental rental) {
+            OverdueScheduler overdue = system.getOverdue();
+            return overdue == null ? 0 : overdue.getLateFeeCents(rental);
+        }
+
+        private void showLateStatus() {
+            Rental rental = (Rental) rentalCombo.getSelectedItem();
+            long lateDays = rental == null ? 0 : lateDays(rental);
+            lateLabel.setText(lateDays == 0 ? "" : String.format("Overdue %d day(s), late fees $%.2f",
+                    lateDays, lateFeeCents(rental) / 100.0));
+        }
+
+        // The feed lost track of some changes, so the list is read again from scratch
+        private void reloadRentals() {
+            loader.cancel(true);
+            rentalModel.clear();
+            loader = new StoreLoader<>(system.snapshot().getActiveRentals(), rentalModel, progressBar);
+            loader.execute();
+        }
         
         private JLabel createFormLabel(String text) {
             JLabel label = new JLabel(text);
@@ -561,13 +7230,24 @@ public class CarRentalSystem extends JFrame {
                 return;
             }
             
-            if (system.returnCar(selectedRental.getRentalId())) {
+            returnBtn.setEnabled(false);
+            // Read now: the scheduler drops a rental's fees once it is returned
+            long lateFeeCents = lateFeeCents(selectedRental);
+            new StoreTask<>(this, () -> system.returnCar(selectedRental.getRentalId()),
+                    returned -> showReturnResult(returned, selectedRental, lateFeeCents))
+                    .always(() -> returnBtn.setEnabled(true)).execute();
+        }
+
+        private void showReturnResult(boolean returned, Rental selectedRental, long lateFeeCents) {
+            if (returned) {
                 JOptionPane.showMessageDialog(this, 
                     "<html><div style='text-align: center;'><h2>Car Returned!</h2>" +
                     "<p><b>Rental ID:</b> " + selectedRental.getRentalId() + "</p>" +
                     "<p><b>Car:</b> " + selectedRental.getCar().toString() + "</p>" +
                     "<p><b>Customer:</b> " + selectedRental.getCustomer().toString() + "</p>" +
-                    "<p><b>Total Paid:</b> $" + selectedRental.getTotalCost() + "</p></div></html>",
+                    (lateFeeCents > 0 ? String.format("<p><b>Late Fees:</b> $%.2f</p>", lateFeeCents / 100.0) : "") +
+                    String.format("<p><b>Total Paid:</b> $%.2f</p></div></html>",
+                            (selectedRental.getTotalCostCents() + lateFeeCents) / 100.0),
                     "Success", JOptionPane.INFORMATION_MESSAGE);
                 dispose();
             } else {
@@ -580,8 +7260,9 @@ public class CarRentalSystem extends JFrame {
 
     static class CarManagementFrame extends JFrame {
         private carRe system;
-        private JList<Car> carList;
-        private DefaultListModel<Car> listModel;
+        private JTable carTable;
+        private FleetBrowserModel tableModel;
+        private ChangeFeed.Subscription changes;
 
         public CarManagementFrame(carRe system) {
             this.system = system;
@@ -590,7 +7271,7 @@ public class CarRentalSystem extends JFrame {
 
         private void setupUI() {
             setTitle("Manage Cars");
-            setSize(700, 400);
+            setSize(800, 500);
             setLocationRelativeTo(null);
             setLayout(new BorderLayout());
             
@@ -608,17 +7289,45 @@ public class CarRentalSystem extends JFrame {
             contentPanel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
             contentPanel.setBackground(new Color(236, 240, 241));
             
-            // Car list
-            listModel = new DefaultListModel<>();
-            updateCarList();
-            carList = new JList<>(listModel);
-            carList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-            carList.setFont(new Font("Arial", Font.PLAIN, 14));
-            carList.setBackground(Color.WHITE);
-            carList.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            // Whole fleet, subscribed before the first load so no change falls in between
+            JProgressBar progressBar = new JProgressBar();
+            tableModel = new FleetBrowserModel(system, progressBar);
+            changes = system.getChangeFeed().subscribe("fleet", EdtSubscriber.BATCH, new EdtSubscriber(event -> {
+                switch (event.getType()) {
+                    case CAR_ADDED:
+                    case CAR_REMOVED:
+                        tableModel.fleetChanged();
+                        break;
+                    case CAR_AVAILABILITY_CHANGED:
+                        tableModel.carChanged(event.getCar());
+                        break;
+                    default:
+                        break;
+                }
+            }, tableModel::fleetChanged));
+
+            // Sorting is done by the model on precomputed keys, not by a TableRowSorter
+            carTable = new JTable(tableModel);
+            carTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+            carTable.setFont(new Font("Arial", Font.PLAIN, 14));
+            carTable.setRowHeight(22);
+            carTable.setFillsViewportHeight(true);
+            carTable.getTableHeader().setReorderingAllowed(false);
+            carTable.getTableHeader().addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    int column = carTable.columnAtPoint(e.getPoint());
+                    if (column < 0) return;
+                    tableModel.sortBy(carTable.convertColumnIndexToModel(column));
+                    updateSortIndicator();
+                }
+            });
             
-            JScrollPane scrollPane = new JScrollPane(carList);
-            contentPanel.add(scrollPane, BorderLayout.CENTER);
+            JScrollPane scrollPane = new JScrollPane(carTable);
+            JPanel listPanel = new JPanel(new BorderLayout());
+            listPanel.add(scrollPane, BorderLayout.CENTER);
+            listPanel.add(progressBar, BorderLayout.SOUTH);
+            contentPanel.add(listPanel, BorderLayout.CENTER);
             
             // Button panel
             JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 10));
@@ -637,6 +7346,14 @@ public class CarRentalSystem extends JFrame {
             removeBtn.setFont(new Font("Arial", Font.BOLD, 14));
             removeBtn.addActionListener(e -> removeSelectedCar());
             buttonPanel.add(removeBtn);
+
+            JButton importBtn = new JButton("Import...");
+            importBtn.setBackground(new Color(243, 156, 18));
+            importBtn.setForeground(Color.WHITE);
+            importBtn.setFont(new Font("Arial", Font.BOLD, 14));
+            importBtn.addActionListener(e -> importFromFile(this, "cars", importBtn,
+                    file -> new BulkImporter().importCars(file, system)));
+            buttonPanel.add(importBtn);
             
             JButton closeBtn = new JButton("Close");
             closeBtn.setBackground(new Color(52, 152, 219));
@@ -650,11 +7367,21 @@ public class CarRentalSystem extends JFrame {
             add(contentPanel, BorderLayout.CENTER);
         }
 
-        private void updateCarList() {
-            listModel.clear();
-            for (Car car : system.getAvailableCars()) {
-                listModel.addElement(car);
+        private void updateSortIndicator() {
+            for (int i = 0; i < carTable.getColumnCount(); i++) {
+                int column = carTable.convertColumnIndexToModel(i);
+                String name = FleetBrowserModel.COLUMNS[column];
+                if (column == tableModel.getSortColumn()) name += tableModel.isAscending() ? " \u25B2" : " \u25BC";
+                carTable.getColumnModel().getColumn(i).setHeaderValue(name);
             }
+            carTable.getTableHeader().repaint();
+        }
+
+        @Override
+        public void dispose() {
+            tableModel.cancel();
+            changes.close();
+            super.dispose();
         }
 
         private void showAddCarDialog(ActionEvent e) {
@@ -690,8 +7417,13 @@ public class CarRentalSystem extends JFrame {
                     double rate = Double.parseDouble(rateField.getText());
                     
                     if (!license.isEmpty() && !make.isEmpty() && !model.isEmpty() && !type.isEmpty()) {
-                        system.addCar(new Car(license, make, model, type, rate));
-                        updateCarList();
+                        Car car = new Car(license, make, model, type, rate);
+                        new StoreTask<>(this, () -> system.addCar(car), added -> {
+                            if (!added) {
+                                JOptionPane.showMessageDialog(this, "A car with plate " + license + " already exists!",
+                                                             "Error", JOptionPane.ERROR_MESSAGE);
+                            }
+                        }).execute();
                     } else {
                         JOptionPane.showMessageDialog(this, "Please fill in all fields!", 
                                                        "Error", JOptionPane.ERROR_MESSAGE);
@@ -704,10 +7436,24 @@ public class CarRentalSystem extends JFrame {
         }
 
         private void removeSelectedCar() {
-            Car selected = carList.getSelectedValue();
-            if (selected != null) {
-                system.getAvailableCars().remove(selected);
-                updateCarList();
+            List<Car> selected = new ArrayList<>();
+            for (int row : carTable.getSelectedRows()) {
+                Car car = tableModel.getCarAt(row);
+                if (car != null) selected.add(car);
+            }
+            if (!selected.isEmpty()) {
+                new StoreTask<>(this, () -> system.removeCars(selected), removed -> {
+                    List<String> kept = new ArrayList<>();
+                    for (int i = 0; i < removed.length; i++) {
+                        if (!removed[i] && !selected.get(i).isRemoved()) kept.add(selected.get(i).getLicensePlate());
+                    }
+                    if (!kept.isEmpty()) {
+                        JOptionPane.showMessageDialog(this, "Not removed while rented or booked: "
+                                + String.join(", ", kept.subList(0, Math.min(kept.size(), 20)))
+                                + (kept.size() > 20 ? " and " + (kept.size() - 20) + " more" : ""),
+                                "Cars In Use", JOptionPane.WARNING_MESSAGE);
+                    }
+                }).execute();
             } else {
                 JOptionPane.showMessageDialog(this, "No car selected!", 
                                              "Error", JOptionPane.WARNING_MESSAGE);
@@ -718,7 +7464,11 @@ public class CarRentalSystem extends JFrame {
     static class CustomerManagementFrame extends JFrame {
         private carRe system;
         private JList<Customer> customerList;
-        private DefaultListModel<Customer> listModel;
+        private StoreListModel<Customer> listModel;
+        private ChangeFeed.Subscription changes;
+        private StoreLoader<Customer> loader;
+        private JProgressBar progressBar;
+        private CustomerHistoryPanel historyPanel;
 
         public CustomerManagementFrame(carRe system) {
             this.system = system;
@@ -727,7 +7477,7 @@ public class CarRentalSystem extends JFrame {
 
         private void setupUI() {
             setTitle("Manage Customers");
-            setSize(700, 400);
+            setSize(950, 500);
             setLocationRelativeTo(null);
             setLayout(new BorderLayout());
             
@@ -745,17 +7495,39 @@ public class CarRentalSystem extends JFrame {
             contentPanel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
             contentPanel.setBackground(new Color(236, 240, 241));
             
-            // Customer list
-            listModel = new DefaultListModel<>();
-            updateCustomerList();
+            // Customer list, subscribed before loading starts so no change falls in between
+            listModel = new StoreListModel<>(Customer::getOrdinal,
+                    customer -> system.getCustomer(customer.getId()) == customer);
+            historyPanel = new CustomerHistoryPanel(system);
+            changes = system.getChangeFeed().subscribe("customers", EdtSubscriber.BATCH, new EdtSubscriber(event -> {
+                if (event.getRental() != null) {
+                    if (event.getCustomer() == historyPanel.getCustomer()) historyPanel.reloadLater();
+                } else if (event.getCustomer() != null) {
+                    listModel.itemChanged(event.getCustomer());
+                }
+            }, this::reloadCustomers));
+
             customerList = new JList<>(listModel);
+            customerList.setPrototypeCellValue(new Customer("PROTOTYPE", "Full Name", "License", "Phone"));
             customerList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
             customerList.setFont(new Font("Arial", Font.PLAIN, 14));
             customerList.setBackground(Color.WHITE);
             customerList.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+            customerList.addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting()) historyPanel.show(customerList.getSelectedValue());
+            });
             
             JScrollPane scrollPane = new JScrollPane(customerList);
-            contentPanel.add(scrollPane, BorderLayout.CENTER);
+            JPanel listPanel = new JPanel(new BorderLayout());
+            listPanel.add(scrollPane, BorderLayout.CENTER);
+            progressBar = new JProgressBar(0, 100);
+            listPanel.add(progressBar, BorderLayout.SOUTH);
+            JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, listPanel, historyPanel);
+            splitPane.setResizeWeight(0.4);
+            splitPane.setOpaque(false);
+            contentPanel.add(splitPane, BorderLayout.CENTER);
+            loader = new StoreLoader<>(system.snapshot().getCustomers(), listModel, progressBar);
+            loader.execute();
             
             // Button panel
             JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 10));
@@ -774,6 +7546,14 @@ public class CarRentalSystem extends JFrame {
             removeBtn.setFont(new Font("Arial", Font.BOLD, 14));
             removeBtn.addActionListener(e -> removeSelectedCustomer());
             buttonPanel.add(removeBtn);
+
+            JButton importBtn = new JButton("Import...");
+            importBtn.setBackground(new Color(243, 156, 18));
+            importBtn.setForeground(Color.WHITE);
+            importBtn.setFont(new Font("Arial", Font.BOLD, 14));
+            importBtn.addActionListener(e -> importFromFile(this, "customers", importBtn,
+                    file -> new BulkImporter().importCustomers(file, system)));
+            buttonPanel.add(importBtn);
             
             JButton closeBtn = new JButton("Close");
             closeBtn.setBackground(new Color(52, 152, 219));
@@ -787,11 +7567,21 @@ public class CarRentalSystem extends JFrame {
             add(contentPanel, BorderLayout.CENTER);
         }
 
-        private void updateCustomerList() {
+        @Override
+        public void dispose() {
+            loader.cancel(true);
+            historyPanel.cancel();
+            changes.close();
+            super.dispose();
+        }
+
+        // The feed lost track of some changes, so the list is read again from scratch
+        private void reloadCustomers() {
+            loader.cancel(true);
             listModel.clear();
-            for (Customer customer : system.getCustomers()) {
-                listModel.addElement(customer);
-            }
+            loader = new StoreLoader<>(system.snapshot().getCustomers(), listModel, progressBar);
+            loader.execute();
+            historyPanel.reloadLater();
         }
 
         private void showAddCustomerDialog(ActionEvent e) {
@@ -822,8 +7612,13 @@ public class CarRentalSystem extends JFrame {
                 String phone = phoneField.getText();
                 
                 if (!id.isEmpty() && !name.isEmpty() && !license.isEmpty() && !phone.isEmpty()) {
-                    system.addCustomer(new Customer(id, name, license, phone));
-                    updateCustomerList();
+                    Customer customer = new Customer(id, name, license, phone);
+                    new StoreTask<>(this, () -> system.addCustomer(customer), added -> {
+                        if (!added) {
+                            JOptionPane.showMessageDialog(this, "A customer with ID " + id + " already exists!",
+                                                         "Error", JOptionPane.ERROR_MESSAGE);
+                        }
+                    }).execute();
                 } else {
                     JOptionPane.showMessageDialog(this, "Please fill in all fields!", 
                                                  "Error", JOptionPane.ERROR_MESSAGE);
@@ -834,8 +7629,12 @@ public class CarRentalSystem extends JFrame {
         private void removeSelectedCustomer() {
             Customer selected = customerList.getSelectedValue();
             if (selected != null) {
-                system.getCustomers().remove(selected);
-                updateCustomerList();
+                new StoreTask<>(this, () -> system.removeCustomer(selected), removed -> {
+                    if (!removed && !selected.isRemoved()) {
+                        JOptionPane.showMessageDialog(this, selected.getName() + " has rentals running or booked "
+                                + "and cannot be removed yet.", "Customer Has Rentals", JOptionPane.WARNING_MESSAGE);
+                    }
+                }).execute();
             } else {
                 JOptionPane.showMessageDialog(this, "No customer selected!", 
                                              "Error", JOptionPane.WARNING_MESSAGE);
@@ -844,17 +7643,69 @@ public class CarRentalSystem extends JFrame {
     }
 
     // Main method
+    // Pass --server [port] to run the HTTP booking API instead of the Swing client
     public static void main(String[] args) {
-        // Set system look and feel for better appearance
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception e) {
-            e.printStackTrace();
+        boolean headless = args.length > 0 && "--server".equals(args[0]);
+        if (!headless) {
+            // Set system look and feel for better appearance
+            try {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception e) {
+                reportFailure("Could not set the system look and feel", e);
+            }
         }
         
-        // Create and initialize the car rental system
+        // Create the car rental system, restoring it from the journal when one exists
         carRe system = new carRe();
-        system.initializeSampleData();
+        Path dataDir = Paths.get(System.getProperty("carrental.dataDir", "carrental-data"));
+        try {
+            // The archive goes first so rentals completed during replay go straight off-heap
+            RentalArchive archive = new RentalArchive(dataDir.resolve("archive"));
+            system.attachArchive(archive);
+            RentalJournal journal = new RentalJournal(dataDir, 100_000, true);
+            RentalJournal.RecoveryStats recovered = journal.recover(system);
+            system.attachJournal(journal);
+            if (recovered.isEmpty()) {
+                system.initializeSampleData();
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    archive.close();
+                    journal.close();
+                } catch (IOException e) {
+                    reportFailure("Could not close the journal and archive", e);
+                }
+            }));
+        } catch (IOException e) {
+            reportFailure("Could not open " + dataDir + "; starting from sample data", e);
+            system.initializeSampleData();
+        }
+        // Versioned from here on, so forms and reports read consistent snapshots without walking the store first
+        system.snapshot();
+        // Attached after recovery, so replay does not count as traffic
+        StoreMetrics metrics = new StoreMetrics();
+        system.attachMetrics(metrics);
+        metrics.registerMBean();
+        long dumpSeconds = Long.getLong("carrental.metrics.dumpSeconds", 0);
+        if (dumpSeconds > 0) metrics.startReporting(dumpSeconds, TimeUnit.SECONDS, System.out::print);
+        // Each rental still out the morning after its end date is marked overdue, then charged daily;
+        // the return form shows both
+        OverdueScheduler overdue = new OverdueScheduler(system, Clock.systemDefaultZone());
+        system.attachOverdue(overdue);
+        overdue.start(1, TimeUnit.MINUTES);
+
+        if (headless) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            try {
+                BookingServer server = new BookingServer(system, port);
+                server.start();
+                System.out.println("Booking API listening on port " + server.getPort());
+            } catch (IOException e) {
+                reportFailure("Could not start the booking API on port " + port, e);
+                System.exit(1);
+            }
+            return;
+        }
         
         // Create and show the login frame
         SwingUtilities.invokeLater(() -> {